@@ -28,8 +28,9 @@ public class Attributes extends FeatureMember {
             System.out.println(attribute.getKey() + ": " + attribute.getValue());
         }
         System.out.println("GeometryType: " + getGeometry().getGeometryType().name());
-        for (GeometryPoints point : getGeometry().getGeometryPoints()) {
-            System.out.println("\t" + point.getX() + ", " + point.getY());
+        Geometry geometry = getGeometry();
+        for (int i = 0; i < geometry.getPointCount(); i++) {
+            System.out.println("\t" + geometry.getX(i) + ", " + geometry.getY(i));
         }
     }
 
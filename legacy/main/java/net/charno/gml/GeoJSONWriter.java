@@ -0,0 +1,159 @@
+package net.charno.gml;
+
+import java.io.IOException;
+import java.util.List;
+import net.charno.gml.enums.GeometryType;
+
+/**
+ * Writes features as GeoJSON straight to an output, one feature per line, so
+ * a file of them can be read back a line at a time as newline delimited
+ * GeoJSON. Coordinates are written just as WKTWriter writes them.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public final class GeoJSONWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private GeoJSONWriter() {
+    }
+
+    /**
+     * Writes a feature and the newline after it, with the fid as its id and
+     * the context id and attributes as its properties.
+     *
+     * @param feature The feature.
+     * @param contextHeader The property name for the context id.
+     * @param attributeList The attributes to write, in order.
+     * @param out Where to write it.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeFeature(Attributes feature, String contextHeader, List<String> attributeList,
+            Appendable out) throws IOException {
+        out.append("{\"type\":\"Feature\",\"id\":");
+        writeString(feature.getFid(), out);
+        out.append(",\"properties\":{");
+        writeString(contextHeader, out);
+        out.append(':');
+        writeString(feature.getContextID(), out);
+        for (String attribute : attributeList) {
+            out.append(',');
+            writeString(attribute, out);
+            out.append(':');
+            writeString(feature.getAttributeList().get(attribute), out);
+        }
+        out.append("},\"geometry\":");
+        writeGeometry(feature.getGeometry(), out);
+        out.append("}\n");
+    }
+
+    /**
+     * Writes a geometry object, or null if it has no points.
+     *
+     * @param geometry The geometry.
+     * @param out Where to write it.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeGeometry(Geometry geometry, Appendable out) throws IOException {
+        if (geometry == null || geometry.getPointCount() == 0) {
+            out.append("null");
+            return;
+        }
+        GeometryType type = geometry.getGeometryType() == null ? GeometryType.LINESTRING : geometry.getGeometryType();
+        switch (type) {
+            case POINT:
+                out.append("{\"type\":\"Point\",\"coordinates\":");
+                writePoint(geometry, 0, out);
+                break;
+            case LINESTRING:
+                out.append("{\"type\":\"LineString\",\"coordinates\":");
+                writePoints(geometry, 0, geometry.getPointCount(), out);
+                break;
+            case POLYGON:
+                out.append("{\"type\":\"Polygon\",\"coordinates\":");
+                writeRings(geometry, 0, geometry.getPartCount(), out);
+                break;
+            case MULTIPOINT:
+                out.append("{\"type\":\"MultiPoint\",\"coordinates\":");
+                writePoints(geometry, 0, geometry.getPointCount(), out);
+                break;
+            case MULTILINESTRING:
+                out.append("{\"type\":\"MultiLineString\",\"coordinates\":");
+                writeRings(geometry, 0, geometry.getPartCount(), out);
+                break;
+            case MULTIPOLYGON:
+                out.append("{\"type\":\"MultiPolygon\",\"coordinates\":[");
+                if (geometry.getPolygonCount() == 0) {
+                    writeRings(geometry, 0, geometry.getPartCount(), out);
+                }
+                for (int polygon = 0; polygon < geometry.getPolygonCount(); polygon++) {
+                    if (polygon > 0) {
+                        out.append(',');
+                    }
+                    writeRings(geometry, geometry.getPolygonStart(polygon), geometry.getPolygonEnd(polygon), out);
+                }
+                out.append(']');
+                break;
+        }
+        out.append('}');
+    }
+
+    private static void writeRings(Geometry geometry, int start, int end, Appendable out) throws IOException {
+        out.append('[');
+        for (int part = start; part < end; part++) {
+            if (part > start) {
+                out.append(',');
+            }
+            writePoints(geometry, geometry.getPartStart(part), geometry.getPartEnd(part), out);
+        }
+        out.append(']');
+    }
+
+    private static void writePoints(Geometry geometry, int start, int end, Appendable out) throws IOException {
+        out.append('[');
+        for (int point = start; point < end; point++) {
+            if (point > start) {
+                out.append(',');
+            }
+            writePoint(geometry, point, out);
+        }
+        out.append(']');
+    }
+
+    private static void writePoint(Geometry geometry, int point, Appendable out) throws IOException {
+        out.append('[');
+        WKTWriter.writeNumber(geometry.getX(point), out);
+        out.append(',');
+        WKTWriter.writeNumber(geometry.getY(point), out);
+        out.append(']');
+    }
+
+    /**
+     * Writes a quoted and escaped JSON string, or null.
+     */
+    private static void writeString(String value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                        .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
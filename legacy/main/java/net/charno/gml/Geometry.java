@@ -1,39 +1,64 @@
 package net.charno.gml;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 import net.charno.gml.enums.GeometryType;
 
 /**
+ * A geometry's coordinates, packed into one array of x and y values rather
+ * than an object per point, with the index of the first point of each ring
+ * or part alongside. The rings of a multi-polygon are grouped by polygon.
+ * Text encodings such as WKT are only built when asked for, see WKTWriter.
  *
  * @author mcharno <michael@charno.net>
  */
 public class Geometry {
 
+    private static final double[] NO_COORDINATES = new double[0];
+    private static final int[] NO_PARTS = new int[0];
+
     /**
      * A GML GeometryType object
      */
     private GeometryType geometryType;
     /**
-     * A list of GML GeometryPoints
+     * The x and y of each point in turn
+     */
+    private double[] coordinates = NO_COORDINATES;
+    /**
+     * The number of points held
+     */
+    private int pointCount;
+    /**
+     * The index of the first point of each ring or part
+     */
+    private int[] parts = NO_PARTS;
+    /**
+     * The number of rings or parts
+     */
+    private int partCount;
+    /**
+     * The index of the first ring of each polygon
      */
-    private List<GeometryPoints> geometryPoints;
+    private int[] polygons = NO_PARTS;
     /**
-     * A Well Known Text (WKT) object
+     * The number of polygons
+     */
+    private int polygonCount;
+    /**
+     * A Well Known Text (WKT) object set by hand, which overrides the
+     * coordinates
      */
     private StringBuilder wktPoints;
 
     /**
-     * A constructor that instantiates all of the class variables and begins 
-     * populating the wktPoints object.
-     * 
-     * @param geometryType 
+     * A constructor for a geometry with no coordinates yet.
+     *
+     * @param geometryType
      */
     public Geometry(GeometryType geometryType) {
         this.geometryType = geometryType;
-        this.geometryPoints = new ArrayList();
-        this.wktPoints = new StringBuilder();
-        this.wktPoints.append("Polygon((");
     }
 
     public GeometryType getGeometryType() {
@@ -44,16 +69,175 @@ public class Geometry {
         this.geometryType = geometryType;
     }
 
+    /**
+     * Starts a new ring or part. Points added after this belong to it.
+     */
+    public void addPart() {
+        if (partCount == parts.length) {
+            parts = Arrays.copyOf(parts, Math.max(1, partCount * 2));
+        }
+        parts[partCount++] = pointCount;
+    }
+
+    /**
+     * Starts a new polygon. Rings added after this belong to it, the first
+     * being its outer boundary.
+     */
+    public void addPolygon() {
+        if (polygonCount == polygons.length) {
+            polygons = Arrays.copyOf(polygons, Math.max(1, polygonCount * 2));
+        }
+        polygons[polygonCount++] = partCount;
+    }
+
+    /**
+     * Adds a point to the current ring or part, starting the first one if
+     * there is none yet.
+     *
+     * @param x
+     * @param y
+     */
+    public void addPoint(double x, double y) {
+        if (partCount == 0) {
+            addPart();
+        }
+        if (pointCount * 2 == coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, Math.max(16, coordinates.length * 2));
+        }
+        coordinates[pointCount * 2] = x;
+        coordinates[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+
+    /**
+     * Drops the spare room left by growing the arrays, e.g. once a feature
+     * has been read and is to be kept.
+     */
+    public void trimToSize() {
+        if (coordinates.length > pointCount * 2) {
+            coordinates = pointCount == 0 ? NO_COORDINATES : Arrays.copyOf(coordinates, pointCount * 2);
+        }
+        if (parts.length > partCount) {
+            parts = partCount == 0 ? NO_PARTS : Arrays.copyOf(parts, partCount);
+        }
+        if (polygons.length > polygonCount) {
+            polygons = polygonCount == 0 ? NO_PARTS : Arrays.copyOf(polygons, polygonCount);
+        }
+    }
+
+    public int getPointCount() {
+        return this.pointCount;
+    }
+
+    public double getX(int point) {
+        return this.coordinates[point * 2];
+    }
+
+    public double getY(int point) {
+        return this.coordinates[point * 2 + 1];
+    }
+
+    public int getPartCount() {
+        return this.partCount;
+    }
+
+    /**
+     * @param part The ring or part.
+     * @return The index of its first point.
+     */
+    public int getPartStart(int part) {
+        return this.parts[part];
+    }
+
+    /**
+     * @param part The ring or part.
+     * @return The index after its last point.
+     */
+    public int getPartEnd(int part) {
+        return part + 1 < partCount ? this.parts[part + 1] : pointCount;
+    }
+
+    /**
+     * @return The number of polygons, or 0 if the rings haven't been grouped,
+     * in which case they all belong to one.
+     */
+    public int getPolygonCount() {
+        return this.polygonCount;
+    }
+
+    /**
+     * @param polygon The polygon.
+     * @return The index of its first ring.
+     */
+    public int getPolygonStart(int polygon) {
+        return this.polygons[polygon];
+    }
+
+    /**
+     * @param polygon The polygon.
+     * @return The index after its last ring.
+     */
+    public int getPolygonEnd(int polygon) {
+        return polygon + 1 < polygonCount ? this.polygons[polygon + 1] : partCount;
+    }
+
+    /**
+     * @return A copy of the x and y of each point in turn.
+     */
+    public double[] getCoordinates() {
+        return Arrays.copyOf(this.coordinates, pointCount * 2);
+    }
+
+    /**
+     * @return A read only view of the points.
+     */
     public List<GeometryPoints> getGeometryPoints() {
-        return this.geometryPoints;
+        return new AbstractList<GeometryPoints>() {
+
+            @Override
+            public GeometryPoints get(int index) {
+                if (index < 0 || index >= pointCount) {
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                }
+                return new GeometryPoints(getX(index), getY(index));
+            }
+
+            @Override
+            public int size() {
+                return pointCount;
+            }
+        };
     }
 
+    /**
+     * Replaces the coordinates with the given points, as a single part.
+     *
+     * @param geometryPoints
+     */
     public void setGeometryPoints(List<GeometryPoints> geometryPoints) {
-        this.geometryPoints = geometryPoints;
+        this.coordinates = NO_COORDINATES;
+        this.pointCount = 0;
+        this.parts = NO_PARTS;
+        this.partCount = 0;
+        this.polygons = NO_PARTS;
+        this.polygonCount = 0;
+        for (GeometryPoints point : geometryPoints) {
+            addPoint(point.getX(), point.getY());
+        }
+        trimToSize();
     }
 
+    /**
+     * Builds the WKT from the coordinates, unless it has been set by hand.
+     * Changes to the returned builder aren't kept.
+     *
+     * @return The WKT.
+     */
     public StringBuilder getWktPoints() {
-        return this.wktPoints;
+        if (this.wktPoints != null) {
+            return this.wktPoints;
+        }
+        return WKTWriter.write(this, new StringBuilder(16 + pointCount * 24));
     }
 
     public void setWktPoints(StringBuilder wktPoints) {
@@ -0,0 +1,190 @@
+package net.charno.gml;
+
+import java.io.IOException;
+import net.charno.gml.enums.GeometryType;
+
+/**
+ * Writes a Geometry as little endian Well Known Binary, the form PostGIS and
+ * most spatial databases load fastest, either into a byte array the caller
+ * reuses or as hex text for a CSV column. The geometry types and ring
+ * grouping follow WKTWriter, so the two always describe the same shape.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public final class WKBWriter {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final byte LITTLE_ENDIAN = 1;
+    private static final int HEADER = 1 + 4;
+    private static final int POINT = 16;
+
+    private WKBWriter() {
+    }
+
+    /**
+     * @param geometry The geometry.
+     * @return The number of bytes write() will need for it.
+     */
+    public static int size(Geometry geometry) {
+        GeometryType type = typeOf(geometry);
+        int points = geometry.getPointCount();
+        switch (type) {
+            case POINT:
+                return HEADER + POINT;
+            case LINESTRING:
+                return HEADER + 4 + points * POINT;
+            case POLYGON:
+                return HEADER + 4 + geometry.getPartCount() * 4 + points * POINT;
+            case MULTIPOINT:
+                return HEADER + 4 + points * (HEADER + POINT);
+            case MULTILINESTRING:
+                return HEADER + 4 + geometry.getPartCount() * (HEADER + 4) + points * POINT;
+            default:
+                return HEADER + 4 + Math.max(1, geometry.getPolygonCount()) * (HEADER + 4)
+                        + geometry.getPartCount() * 4 + points * POINT;
+        }
+    }
+
+    /**
+     * Writes the geometry into a buffer at least size() bytes long from the
+     * offset.
+     *
+     * @param geometry The geometry.
+     * @param buffer Where to write it.
+     * @param offset Where in the buffer to start.
+     * @return The offset after the last byte written.
+     */
+    public static int write(Geometry geometry, byte[] buffer, int offset) {
+        GeometryType type = typeOf(geometry);
+        int at = header(buffer, offset, type);
+        switch (type) {
+            case POINT:
+                if (geometry.getPointCount() == 0) {
+                    // there's no count to say a point is empty, so it's NaN NaN
+                    at = putDouble(buffer, at, Double.NaN);
+                    return putDouble(buffer, at, Double.NaN);
+                }
+                return putPoint(geometry, 0, buffer, at);
+            case LINESTRING:
+                return putPoints(geometry, 0, geometry.getPointCount(), buffer, at);
+            case POLYGON:
+                return putRings(geometry, 0, geometry.getPartCount(), buffer, at);
+            case MULTIPOINT:
+                at = putInt(buffer, at, geometry.getPointCount());
+                for (int point = 0; point < geometry.getPointCount(); point++) {
+                    at = header(buffer, at, GeometryType.POINT);
+                    at = putPoint(geometry, point, buffer, at);
+                }
+                return at;
+            case MULTILINESTRING:
+                at = putInt(buffer, at, geometry.getPartCount());
+                for (int part = 0; part < geometry.getPartCount(); part++) {
+                    at = header(buffer, at, GeometryType.LINESTRING);
+                    at = putPoints(geometry, geometry.getPartStart(part), geometry.getPartEnd(part), buffer, at);
+                }
+                return at;
+            default:
+                if (geometry.getPolygonCount() == 0) {
+                    // ungrouped rings all belong to one polygon
+                    at = putInt(buffer, at, 1);
+                    at = header(buffer, at, GeometryType.POLYGON);
+                    return putRings(geometry, 0, geometry.getPartCount(), buffer, at);
+                }
+                at = putInt(buffer, at, geometry.getPolygonCount());
+                for (int polygon = 0; polygon < geometry.getPolygonCount(); polygon++) {
+                    at = header(buffer, at, GeometryType.POLYGON);
+                    at = putRings(geometry, geometry.getPolygonStart(polygon), geometry.getPolygonEnd(polygon), buffer, at);
+                }
+                return at;
+        }
+    }
+
+    /**
+     * Writes the bytes as upper case hex, e.g. for a CSV column PostGIS reads
+     * straight into a geometry.
+     *
+     * @param buffer The bytes from write().
+     * @param offset The first byte.
+     * @param length The number of bytes.
+     * @param out Where to write the hex.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeHex(byte[] buffer, int offset, int length, Appendable out) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            out.append(HEX[(buffer[i] >> 4) & 0xF]);
+            out.append(HEX[buffer[i] & 0xF]);
+        }
+    }
+
+    /**
+     * @param type A geometry type, where null is taken as a line string as
+     * elsewhere.
+     * @return Its code in a WKB header, from 1 for a point to 6 for a
+     * multi-polygon.
+     */
+    public static int typeCode(GeometryType type) {
+        if (type == null) {
+            return 2;
+        }
+        switch (type) {
+            case POINT:
+                return 1;
+            case LINESTRING:
+                return 2;
+            case POLYGON:
+                return 3;
+            case MULTIPOINT:
+                return 4;
+            case MULTILINESTRING:
+                return 5;
+            default:
+                return 6;
+        }
+    }
+
+    private static GeometryType typeOf(Geometry geometry) {
+        return geometry.getGeometryType() == null ? GeometryType.LINESTRING : geometry.getGeometryType();
+    }
+
+    private static int header(byte[] buffer, int at, GeometryType type) {
+        buffer[at] = LITTLE_ENDIAN;
+        return putInt(buffer, at + 1, typeCode(type));
+    }
+
+    private static int putRings(Geometry geometry, int start, int end, byte[] buffer, int at) {
+        at = putInt(buffer, at, end - start);
+        for (int part = start; part < end; part++) {
+            at = putPoints(geometry, geometry.getPartStart(part), geometry.getPartEnd(part), buffer, at);
+        }
+        return at;
+    }
+
+    private static int putPoints(Geometry geometry, int start, int end, byte[] buffer, int at) {
+        at = putInt(buffer, at, end - start);
+        for (int point = start; point < end; point++) {
+            at = putPoint(geometry, point, buffer, at);
+        }
+        return at;
+    }
+
+    private static int putPoint(Geometry geometry, int point, byte[] buffer, int at) {
+        at = putDouble(buffer, at, geometry.getX(point));
+        return putDouble(buffer, at, geometry.getY(point));
+    }
+
+    private static int putInt(byte[] buffer, int at, int value) {
+        buffer[at] = (byte) value;
+        buffer[at + 1] = (byte) (value >> 8);
+        buffer[at + 2] = (byte) (value >> 16);
+        buffer[at + 3] = (byte) (value >> 24);
+        return at + 4;
+    }
+
+    private static int putDouble(byte[] buffer, int at, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[at + i] = (byte) (bits >> (i * 8));
+        }
+        return at + 8;
+    }
+}
@@ -0,0 +1,198 @@
+package net.charno.gml;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import net.charno.gml.enums.GeometryType;
+
+/**
+ * Writes a Geometry as Well Known Text straight to an output, character by
+ * character, without building any intermediate strings. The type written
+ * follows the geometry's type, e.g. POLYGON((0 0,0 5,5 5,0 0)) or
+ * MULTILINESTRING((1 2,3 4),(5 6,7 8)), with EMPTY for a geometry with no
+ * points.
+ * <p>
+ * Numbers are written in the fewest decimal places that read back as the
+ * same double, without an exponent, so whole numbers have no ".0".
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public final class WKTWriter {
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9
+    };
+    /**
+     * Whole numbers below this are held exactly in a double.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private WKTWriter() {
+    }
+
+    /**
+     * @param geometry The geometry to write.
+     * @param out Where to write it.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void write(Geometry geometry, Appendable out) throws IOException {
+        GeometryType type = geometry.getGeometryType() == null ? GeometryType.LINESTRING : geometry.getGeometryType();
+        out.append(type.name());
+        if (geometry.getPointCount() == 0) {
+            out.append(" EMPTY");
+            return;
+        }
+        switch (type) {
+            case POINT:
+                out.append('(');
+                writePoint(geometry, 0, out);
+                out.append(')');
+                break;
+            case LINESTRING:
+                writePoints(geometry, 0, geometry.getPointCount(), out);
+                break;
+            case POLYGON:
+                writeParts(geometry, 0, geometry.getPartCount(), out);
+                break;
+            case MULTIPOINT:
+                out.append('(');
+                for (int point = 0; point < geometry.getPointCount(); point++) {
+                    if (point > 0) {
+                        out.append(',');
+                    }
+                    out.append('(');
+                    writePoint(geometry, point, out);
+                    out.append(')');
+                }
+                out.append(')');
+                break;
+            case MULTILINESTRING:
+                writeParts(geometry, 0, geometry.getPartCount(), out);
+                break;
+            case MULTIPOLYGON:
+                out.append('(');
+                if (geometry.getPolygonCount() == 0) {
+                    writeParts(geometry, 0, geometry.getPartCount(), out);
+                }
+                for (int polygon = 0; polygon < geometry.getPolygonCount(); polygon++) {
+                    if (polygon > 0) {
+                        out.append(',');
+                    }
+                    writeParts(geometry, geometry.getPolygonStart(polygon), geometry.getPolygonEnd(polygon), out);
+                }
+                out.append(')');
+                break;
+        }
+    }
+
+    /**
+     * Writes a geometry to a StringBuilder, e.g. one reused for every row of
+     * an output.
+     *
+     * @param geometry The geometry to write.
+     * @param wkt Where to write it.
+     * @return The same StringBuilder.
+     */
+    public static StringBuilder write(Geometry geometry, StringBuilder wkt) {
+        try {
+            write(geometry, (Appendable) wkt);
+        } catch (IOException ex) {
+            // a StringBuilder doesn't throw
+            throw new UncheckedIOException(ex);
+        }
+        return wkt;
+    }
+
+    /**
+     * Writes "(ring),(ring)" wrapped in brackets.
+     */
+    private static void writeParts(Geometry geometry, int start, int end, Appendable out) throws IOException {
+        out.append('(');
+        for (int part = start; part < end; part++) {
+            if (part > start) {
+                out.append(',');
+            }
+            writePoints(geometry, geometry.getPartStart(part), geometry.getPartEnd(part), out);
+        }
+        out.append(')');
+    }
+
+    /**
+     * Writes "x y,x y" wrapped in brackets.
+     */
+    private static void writePoints(Geometry geometry, int start, int end, Appendable out) throws IOException {
+        out.append('(');
+        for (int point = start; point < end; point++) {
+            if (point > start) {
+                out.append(',');
+            }
+            writePoint(geometry, point, out);
+        }
+        out.append(')');
+    }
+
+    private static void writePoint(Geometry geometry, int point, Appendable out) throws IOException {
+        writeNumber(geometry.getX(point), out);
+        out.append(' ');
+        writeNumber(geometry.getY(point), out);
+    }
+
+    /**
+     * Writes a number in as few decimal places as read back the same. Values
+     * with more than nine places, or too large to scale exactly, fall back to
+     * BigDecimal.
+     *
+     * @param value The number.
+     * @param out Where to write it.
+     * @throws IOException If the output can't be written to.
+     */
+    public static void writeNumber(double value, Appendable out) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(Double.toString(value));
+            return;
+        }
+        for (int places = 0; places < POWERS_OF_TEN.length; places++) {
+            double power = POWERS_OF_TEN[places];
+            double scaled = Math.rint(value * power);
+            if (Math.abs(scaled) >= MAX_EXACT) {
+                break;
+            }
+            // both are exact, so the division rounds just as parsing the digits would
+            if (scaled / power == value) {
+                writeDecimal((long) scaled, places, out);
+                return;
+            }
+        }
+        out.append(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+    }
+
+    /**
+     * Writes unscaled / 10^places.
+     */
+    private static void writeDecimal(long unscaled, int places, Appendable out) throws IOException {
+        if (unscaled < 0) {
+            out.append('-');
+            unscaled = -unscaled;
+        }
+        int digits = 1;
+        long divisor = 1;
+        while (divisor <= unscaled / 10) {
+            divisor *= 10;
+            digits++;
+        }
+        // at least one digit before the point, e.g. 0.05
+        while (digits <= places) {
+            divisor *= 10;
+            digits++;
+        }
+        for (int remaining = digits; remaining > 0; remaining--) {
+            if (remaining == places) {
+                out.append('.');
+            }
+            long digit = unscaled / divisor;
+            out.append((char) ('0' + digit));
+            unscaled -= digit * divisor;
+            divisor /= 10;
+        }
+    }
+}
@@ -8,5 +8,8 @@ package net.charno.gml.enums;
 public enum GeometryType {
     POINT,
     LINESTRING,
-    POLYGON;
+    POLYGON,
+    MULTIPOINT,
+    MULTILINESTRING,
+    MULTIPOLYGON;
 }
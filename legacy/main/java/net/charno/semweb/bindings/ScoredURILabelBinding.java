@@ -0,0 +1,28 @@
+package net.charno.semweb.bindings;
+
+/**
+ * A uri and label found by an approximate search, with how closely the label
+ * matched, from 0 (not at all) to 1 (exactly).
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class ScoredURILabelBinding extends URILabelBinding {
+    private double score;
+
+    public ScoredURILabelBinding() {
+        super();
+    }
+
+    public ScoredURILabelBinding(String uri, String label, double score) {
+        super(uri, label);
+        this.score = score;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+}
@@ -0,0 +1,336 @@
+package net.charno.semweb.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import net.charno.semweb.http.CircuitOpenException;
+
+/**
+ * A bounded in-memory cache for lookup results, using W-TinyLFU eviction.
+ * New entries go into a small LRU window; when the window overflows, its
+ * oldest entry is only admitted to the main segmented LRU if it has been
+ * requested more often than the entry it would replace. A one-off scan of
+ * rare labels therefore can't flush the frequently used ones.
+ *
+ * Null results (no match) are cached like any other value. A loader that
+ * throws is treated as a failed lookup and nothing is cached.
+ * 
+ * Expired entries are kept until they are evicted or replaced, so that while
+ * a host's circuit is open (see HttpTransport.getCircuitBreaker) the last
+ * known result can still be given.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class LookupCache<V> {
+
+    /**
+     * Stands in for a cached null result.
+     */
+    private static final Object NULL = new Object();
+
+    private final int maximumSize;
+    private final long ttl;
+    private final int windowSize;
+    private final int mainSize;
+    private final int protectedSize;
+    private final LinkedHashMap<String, CacheEntry> window = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private final LinkedHashMap<String, CacheEntry> probation = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private final LinkedHashMap<String, CacheEntry> protectedSegment = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long staleHits;
+
+    /**
+     * @param maximumSize The maximum number of entries held.
+     * @param ttl How long in milliseconds an entry stays valid.
+     */
+    public LookupCache(int maximumSize, long ttl) {
+        this.maximumSize = Math.max(1, maximumSize);
+        this.ttl = ttl;
+        this.windowSize = Math.max(1, this.maximumSize / 100);
+        this.mainSize = this.maximumSize - this.windowSize;
+        this.protectedSize = this.mainSize * 4 / 5;
+        this.sketch = new FrequencySketch(this.maximumSize);
+    }
+
+    /**
+     * Builds a cache key from a namespace, such as the vocabulary being
+     * searched, and the normalised query parameters.
+     *
+     * @param namespace What kind of lookup this is.
+     * @param parameters The parameters that change the result of the lookup.
+     * @return A key for the cache.
+     */
+    public static String key(String namespace, Object... parameters) {
+        StringBuilder key = new StringBuilder(namespace);
+        for (Object parameter : parameters) {
+            key.append('\u0000').append(parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached value for the key, or runs the loader and caches its
+     * result. If the loader throws, the error is printed and null returned,
+     * unless it threw CircuitOpenException and an expired value is still held,
+     * in which case that is returned instead.
+     *
+     * @param key The cache key.
+     * @param loader The lookup to run on a miss.
+     * @return The cached or newly loaded value.
+     */
+    public V get(String key, Callable<V> loader) {
+        CacheEntry entry = lookup(key);
+        if (entry != null) {
+            return unwrap(entry.value);
+        }
+        V value;
+        try {
+            value = loader.call();
+        } catch (CircuitOpenException ex) {
+            CacheEntry stale = stale(key);
+            if (stale != null) {
+                return unwrap(stale.value);
+            }
+            System.out.println(ex);
+            return null;
+        } catch (Exception ex) {
+            System.out.println(ex);
+            return null;
+        }
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Adds a value to the cache, replacing any existing value for the key.
+     *
+     * @param key The cache key.
+     * @param value The value, which may be null for a negative result.
+     */
+    public synchronized void put(String key, V value) {
+        remove(key);
+        window.put(key, new CacheEntry(value == null ? NULL : value, System.currentTimeMillis() + ttl));
+        if (window.size() > windowSize) {
+            Map.Entry<String, CacheEntry> candidate = eldest(window);
+            window.remove(candidate.getKey());
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * Checks for an unexpired entry without counting a hit or miss, or
+     * recording a use in the frequency sketch.
+     *
+     * @param key The cache key.
+     * @return Whether a value, which may be null, is cached for the key.
+     */
+    public synchronized boolean containsKey(String key) {
+        CacheEntry entry = window.get(key);
+        if (entry == null) {
+            entry = protectedSegment.get(key);
+        }
+        if (entry == null) {
+            entry = probation.get(key);
+        }
+        return entry != null && entry.expires >= System.currentTimeMillis();
+    }
+
+    /**
+     * Removes every entry, but keeps the statistics.
+     */
+    public synchronized void invalidateAll() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of expired values given while their host was down.
+     */
+    public synchronized long getStaleHitCount() {
+        return staleHits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LookupCache[size=" + size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private synchronized CacheEntry lookup(String key) {
+        sketch.increment(key);
+        CacheEntry entry = window.get(key);
+        if (entry == null) {
+            entry = protectedSegment.get(key);
+        }
+        if (entry == null) {
+            entry = probation.remove(key);
+            if (entry != null) {
+                // a second hit in probation promotes the entry
+                protectedSegment.put(key, entry);
+                if (protectedSegment.size() > protectedSize) {
+                    Map.Entry<String, CacheEntry> demoted = eldest(protectedSegment);
+                    protectedSegment.remove(demoted.getKey());
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            // kept in case the lookup can't be made
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Finds an entry whether or not it has expired.
+     */
+    private synchronized CacheEntry stale(String key) {
+        CacheEntry entry = window.get(key);
+        if (entry == null) {
+            entry = protectedSegment.get(key);
+        }
+        if (entry == null) {
+            entry = probation.get(key);
+        }
+        if (entry != null) {
+            staleHits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Moves an entry evicted from the window into the main segment, if it is
+     * used more often than the entry it would push out.
+     */
+    private void admit(String key, CacheEntry entry) {
+        if (probation.size() + protectedSegment.size() < mainSize) {
+            probation.put(key, entry);
+            return;
+        }
+        Map.Entry<String, CacheEntry> victim = eldest(probation.isEmpty() ? protectedSegment : probation);
+        evictions++;
+        if (victim != null && sketch.frequency(key) > sketch.frequency(victim.getKey())) {
+            probation.remove(victim.getKey());
+            protectedSegment.remove(victim.getKey());
+            probation.put(key, entry);
+        }
+    }
+
+    private void remove(String key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    private static Map.Entry<String, CacheEntry> eldest(LinkedHashMap<String, CacheEntry> segment) {
+        Iterator<Map.Entry<String, CacheEntry>> it = segment.entrySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unwrap(Object value) {
+        return value == NULL ? null : (V) value;
+    }
+
+    private static class CacheEntry {
+
+        final Object value;
+        final long expires;
+
+        CacheEntry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A count-min sketch of how often each key has been requested. Counters
+     * saturate at 15 and are halved periodically, so old popularity fades.
+     */
+    static class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final int MAX_COUNT = 15;
+
+        private final int[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(16, maximumSize - 1)) << 1;
+            this.table = new int[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * maximumSize;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private void reset() {
+            for (int[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
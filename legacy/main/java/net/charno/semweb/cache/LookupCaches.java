@@ -0,0 +1,94 @@
+package net.charno.semweb.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import net.charno.semweb.bindings.GeonamesBinding;
+
+/**
+ * The caches shared by the lookup clients. Their size and time to live can be
+ * set with -Dlookup.cache.size and -Dlookup.cache.ttl (in milliseconds).
+ * 
+ * Results can also be kept on disk between runs by naming a file with
+ * -Dlookup.store, and its expiry set with -Dlookup.store.ttl and
+ * -Dlookup.store.negativeTtl (for lookups that found nothing).
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public final class LookupCaches {
+
+    private static final int SIZE = Integer.getInteger("lookup.cache.size", 10000);
+    private static final long TTL = Long.getLong("lookup.cache.ttl", TimeUnit.HOURS.toMillis(24));
+
+    /**
+     * Single uri results from the heritagedata and DBpedia lookups.
+     */
+    public static final LookupCache<String> URIS = new LookupCache<String>(SIZE, TTL);
+    /**
+     * Results from the Geonames search lookups.
+     */
+    public static final LookupCache<Map<String, GeonamesBinding>> GEONAMES = new LookupCache<Map<String, GeonamesBinding>>(SIZE, TTL);
+    /**
+     * The on-disk store checked on a cache miss, or null if none was configured.
+     */
+    public static final LookupMemoStore STORE = openStore();
+
+    private LookupCaches() {
+    }
+
+    /**
+     * Checks the on-disk store, if there is one, before running a lookup.
+     *
+     * @param key The lookup key.
+     * @param loader The lookup to run if nothing valid is stored.
+     * @return The stored or newly loaded value.
+     * @throws Exception Whatever the loader throws.
+     */
+    public static String stored(String key, Callable<String> loader) throws Exception {
+        if (STORE == null) {
+            return loader.call();
+        }
+        return STORE.get(key, loader);
+    }
+
+    /**
+     * Checks whether a uri lookup already has a result, in memory or on disk,
+     * e.g. to leave it out of a batch.
+     *
+     * @param key The lookup key.
+     * @return Whether the lookup can be answered without the network.
+     */
+    public static boolean isCached(String key) {
+        return URIS.containsKey(key) || (STORE != null && STORE.contains(key));
+    }
+
+    /**
+     * Closes the on-disk store, if there is one.
+     */
+    public static void close() {
+        if (STORE != null) {
+            try {
+                STORE.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private static LookupMemoStore openStore() {
+        String path = System.getProperty("lookup.store");
+        if (path == null) {
+            return null;
+        }
+        try {
+            return new LookupMemoStore(new File(path),
+                    Long.getLong("lookup.store.ttl", TimeUnit.DAYS.toMillis(30)),
+                    Long.getLong("lookup.store.negativeTtl", TimeUnit.DAYS.toMillis(7)));
+        } catch (IOException ex) {
+            System.out.println("Can't open the lookup store " + path + ": " + ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package net.charno.semweb.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import net.charno.semweb.http.CircuitOpenException;
+import net.charno.semweb.http.SingleFlight;
+
+/**
+ * A persistent store of lookup results that survives between runs, so a
+ * harvest over mostly unchanged data doesn't repeat the lookups of the
+ * previous one. Negative results (no match) are stored as well, with their
+ * own, usually shorter, expiry.
+ *
+ * The store is an append-only file of records. The most recent record for a
+ * key wins. Each key on disk is held on the heap with the offset of its
+ * latest record, whose value is only read, through a memory map, when it is
+ * asked for. Keys and values added during this run are held on the heap
+ * until the store is reopened.
+ *
+ * Superseded and expired records are dropped by rewriting the file when it is
+ * opened, once they take up as much of it as the live records do, or whenever
+ * the file has grown too large to map. The file is never more than about
+ * twice the size of what is live in it at the start of a run.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class LookupMemoStore {
+
+    private static final int MAGIC = 0x4c44544d; // LDTM
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final long ttl;
+    private final long negativeTtl;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+    private final Map<String, StoredValue> recent = new HashMap<String, StoredValue>();
+    private final SingleFlight<String> loads = new SingleFlight<String>();
+    private long hits;
+    private long misses;
+
+    /**
+     * Opens the store, creating the file if it doesn't exist.
+     *
+     * @param file The file holding the store.
+     * @param ttl How long in milliseconds a stored uri stays valid.
+     * @param negativeTtl How long in milliseconds a stored "no match" stays valid.
+     * @throws IOException If the file can't be read or isn't a store.
+     */
+    public LookupMemoStore(File file, long ttl, long negativeTtl) throws IOException {
+        this.file = file;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        if (file.length() > HEADER_SIZE) {
+            compact();
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        boolean opened = false;
+        try {
+            this.channel = raf.getChannel();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.write(header, 0);
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " holds more live records than can be mapped");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a lookup store");
+            }
+            index();
+            opened = true;
+        } finally {
+            if (!opened) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the stored value for the key, or runs the loader and stores its
+     * result. Exceptions from the loader are passed on and nothing is stored,
+     * except that when the loader's host is down (CircuitOpenException) an
+     * expired value is returned if one is stored. Callers missing the same key
+     * at the same time share one run of the loader, so only one record is
+     * appended for it.
+     *
+     * @param key The lookup key, see LookupCache.key().
+     * @param loader The lookup to run if nothing valid is stored.
+     * @return The stored or newly loaded value, which may be null.
+     * @throws Exception Whatever the loader throws.
+     */
+    public String get(String key, Callable<String> loader) throws Exception {
+        StoredValue stored = read(key);
+        if (stored != null) {
+            return stored.value;
+        }
+        return loads.execute(key, () -> {
+            // stored by a load that finished since the read
+            StoredValue loaded = find(key);
+            if (loaded != null) {
+                return loaded.value;
+            }
+            String value;
+            try {
+                value = loader.call();
+            } catch (CircuitOpenException ex) {
+                StoredValue expired = stale(key);
+                if (expired == null) {
+                    throw ex;
+                }
+                return expired.value;
+            }
+            put(key, value);
+            return value;
+        });
+    }
+
+    /**
+     * Appends a value to the store.
+     *
+     * @param key The lookup key.
+     * @param value The value, or null for a negative result.
+     * @throws IOException If the record can't be written.
+     */
+    public synchronized void put(String key, String value) throws IOException {
+        long written = System.currentTimeMillis();
+        byte[] keyBytes = key.getBytes(UTF8);
+        byte[] valueBytes = value == null ? null : value.getBytes(UTF8);
+        ByteBuffer record = ByteBuffer.allocate(8 + 4 + keyBytes.length + 4 + (valueBytes == null ? 0 : valueBytes.length));
+        record.putLong(written);
+        record.putInt(keyBytes.length).put(keyBytes);
+        if (valueBytes == null) {
+            record.putInt(-1);
+        } else {
+            record.putInt(valueBytes.length).put(valueBytes);
+        }
+        record.flip();
+        long position = channel.size();
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        recent.put(key, new StoredValue(value, written));
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        int size = offsets.size();
+        for (String key : recent.keySet()) {
+            if (!offsets.containsKey(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Flushes the store to disk and closes the file.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        raf.close();
+        mapped = null;
+    }
+
+    @Override
+    public String toString() {
+        return "LookupMemoStore[" + file + ", size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    /**
+     * Checks for a valid value without counting a hit or miss.
+     *
+     * @param key The lookup key.
+     * @return Whether a value, which may be null, is stored for the key.
+     */
+    public synchronized boolean contains(String key) {
+        return find(key) != null;
+    }
+
+    private synchronized StoredValue read(String key) {
+        StoredValue stored = find(key);
+        if (stored == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return stored;
+    }
+
+    private synchronized StoredValue stale(String key) {
+        StoredValue stored = recent.get(key);
+        if (stored == null) {
+            Integer offset = offsets.get(key);
+            if (offset != null) {
+                stored = readRecord(offset);
+            }
+        }
+        return stored;
+    }
+
+    private StoredValue find(String key) {
+        StoredValue stored = stale(key);
+        if (stored != null && stored.written + (stored.value == null ? negativeTtl : ttl) < System.currentTimeMillis()) {
+            stored = null;
+        }
+        return stored;
+    }
+
+    /**
+     * Rewrites the file with only the latest unexpired record of each key, if
+     * the records that would be dropped are at least as large as those kept,
+     * or the file is too large to map. The file is read as a stream, so it
+     * works however large the file has grown.
+     */
+    private void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, Long> latest = new HashMap<String, Long>();
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        long end;
+        DataInputStream in = open();
+        if (in == null) {
+            return;
+        }
+        try {
+            long position = HEADER_SIZE;
+            Record record;
+            while ((record = readRecord(in)) != null) {
+                if (record.written + (record.valueLength < 0 ? negativeTtl : ttl) < now) {
+                    latest.remove(record.key);
+                    sizes.remove(record.key);
+                } else {
+                    latest.put(record.key, position);
+                    sizes.put(record.key, record.size());
+                }
+                position += record.size();
+            }
+            end = position;
+        } finally {
+            in.close();
+        }
+        long live = HEADER_SIZE;
+        for (Long size : sizes.values()) {
+            live += size;
+        }
+        if (end - live < live && file.length() <= Integer.MAX_VALUE) {
+            return;
+        }
+
+        File compacted = new File(file.getPath() + ".compact");
+        in = open();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long position = HEADER_SIZE;
+            Record record;
+            while (position < end && (record = readRecord(in)) != null) {
+                Long keep = latest.get(record.key);
+                if (keep != null && keep == position) {
+                    record.write(out);
+                }
+                position += record.size();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return The file as a stream positioned after its header, or null if it
+     * isn't a store, which the constructor then reports.
+     */
+    private DataInputStream open() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            in.close();
+            return null;
+        }
+        return in;
+    }
+
+    /**
+     * @return The next record, or null at the end of the file or a record
+     * left half written.
+     */
+    private static Record readRecord(DataInputStream in) throws IOException {
+        try {
+            long written = in.readLong();
+            int keyLength = in.readInt();
+            if (keyLength < 0) {
+                return null;
+            }
+            byte[] key = new byte[keyLength];
+            in.readFully(key);
+            int valueLength = in.readInt();
+            byte[] value = new byte[Math.max(0, valueLength)];
+            in.readFully(value);
+            return new Record(written, key, valueLength, value);
+        } catch (EOFException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Walks the records in the mapped file and remembers where each key's
+     * latest record starts. A record left half written by a crash is cut off.
+     */
+    private void index() throws IOException {
+        int position = HEADER_SIZE;
+        int limit = mapped.limit();
+        while (position + 12 <= limit) {
+            int keyLength = mapped.getInt(position + 8);
+            int valueStart = position + 12 + keyLength;
+            if (keyLength < 0 || valueStart + 4 > limit) {
+                break;
+            }
+            int valueLength = mapped.getInt(valueStart);
+            int next = valueStart + 4 + Math.max(0, valueLength);
+            if (next > limit) {
+                break;
+            }
+            offsets.put(new String(bytes(position + 12, keyLength), UTF8), position);
+            position = next;
+        }
+        if (position < limit) {
+            channel.truncate(position);
+        }
+    }
+
+    private StoredValue readRecord(int position) {
+        long written = mapped.getLong(position);
+        int keyLength = mapped.getInt(position + 8);
+        int valueStart = position + 12 + keyLength;
+        int valueLength = mapped.getInt(valueStart);
+        String value = valueLength < 0 ? null : new String(bytes(valueStart + 4, valueLength), UTF8);
+        return new StoredValue(value, written);
+    }
+
+    private byte[] bytes(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mapped.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A record as it is laid out in the file, for compacting.
+     */
+    private static class Record {
+
+        final long written;
+        final String key;
+        final byte[] keyBytes;
+        final int valueLength;
+        final byte[] value;
+
+        Record(long written, byte[] keyBytes, int valueLength, byte[] value) {
+            this.written = written;
+            this.key = new String(keyBytes, UTF8);
+            this.keyBytes = keyBytes;
+            this.valueLength = valueLength;
+            this.value = value;
+        }
+
+        long size() {
+            return 8 + 4 + keyBytes.length + 4 + value.length;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(written);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(valueLength);
+            out.write(value);
+        }
+    }
+
+    private static class StoredValue {
+
+        final String value;
+        final long written;
+
+        StoredValue(String value, long written) {
+            this.value = value;
+            this.written = written;
+        }
+    }
+}
@@ -9,10 +9,18 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import net.charno.semweb.lookups.DBPediaClient;
 import net.charno.semweb.bindings.GeonamesBinding;
+import net.charno.semweb.cache.LookupCaches;
+import net.charno.semweb.http.HttpTransport;
 import net.charno.semweb.lookups.GeonamesClient;
 import net.charno.semweb.lookups.SeneschalClient;
 
@@ -53,6 +61,20 @@ public class CRMObjectsHarvester {
     // all of the column locations needed for later
     private static int OBJECT_ID_LOC, OBJECT_TYPE_LOC, FIND_PLACE_LOC, COUNTRY_LOC, PRODUCTION_PERIOD_LOC, PRODUCTION_MATERIAL_LOC;
     private static int OBJECT_TYPE_URI, FIND_PLACE_URI, PRODUCTION_PERIOD_URI, PRODUCTION_MATERIAL_URI;
+    /**
+     * The number of rows that may have lookups in flight at once, set with
+     * -Dharvester.concurrency. Rows are still written in their original order.
+     */
+    private static int CONCURRENCY = Integer.getInteger("harvester.concurrency", 16);
+    /**
+     * Set with -Dharvester.distinct=true to look up each distinct value once
+     * in a first pass over the file, rather than row by row.
+     */
+    private static boolean DISTINCT = Boolean.getBoolean("harvester.distinct");
+    /**
+     * Marks the end of the rows queued for the RowWriter.
+     */
+    private static final CompletableFuture<String[]> END_OF_FILE = CompletableFuture.completedFuture(null);
     
     /**
      * The main method to parse the CSV file and perform the lookups to the 
@@ -61,6 +83,9 @@ public class CRMObjectsHarvester {
      * the values in those fields. This method should be customised for other 
      * lookups, and can certainly be improved to be more flexible.
      * 
+     * The work is pipelined: this thread reads rows and starts their lookups,
+     * up to CONCURRENCY rows at a time, while a RowWriter thread writes the
+     * enriched rows back out in their original order.
      */
     private void parse() {
         try {
@@ -71,129 +96,372 @@ public class CRMObjectsHarvester {
             NEW_FILE_NAME = FILE_NAME.replace(suffix, "-enhanced" + suffix);
             // prepare the CSVWriter object
             CSVWriter writer = new CSVWriter(new FileWriter(NEW_FILE_NAME));
-            String[] nextLine;
             
-            int i = 0;  // a counter to set the headers aside
+            String[] nextLine = reader.readNext();
+            if (nextLine != null) { // this is the first line of the CSV
+                readHeaders(nextLine);
+                // write out the new headers
+                writer.writeNext(headers.toArray(new String[0]));
+                
+                Semaphore window = new Semaphore(CONCURRENCY);
+                BlockingQueue<CompletableFuture<String[]>> pending = new LinkedBlockingQueue<CompletableFuture<String[]>>();
+                RowWriter rowWriter = new RowWriter(pending, writer, window);
+                rowWriter.start();
+                try {
+                    while ((nextLine = reader.readNext()) != null) { // this is the data
+                        window.acquire();
+                        pending.put(enrich(nextLine));
+                    }
+                } finally {
+                    pending.put(END_OF_FILE);
+                    rowWriter.join();
+                }
+            }
+            
+            reader.close();
+            writer.close();
+        } catch (FileNotFoundException ex) {
+            System.out.println("Can't find the file " + FILE_NAME);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
+    }
+    
+    /**
+     * An alternative to parse() for exports where the same labels are repeated
+     * many times. The file is read twice: the first pass collects each 
+     * distinct value (and find place/country pair) and starts a single lookup
+     * for it, and once they have all returned the second pass joins the 
+     * resolved uris back onto every row.
+     */
+    private void parseDistinct() {
+        try {
+            // first pass, collecting the distinct values to look up
+            CSVReader reader = new CSVReader(new FileReader(FILE_NAME));
+            String[] nextLine = reader.readNext();
+            if (nextLine == null) {
+                reader.close();
+                return;
+            }
+            readHeaders(nextLine);
             
+            Map<String, CompletableFuture<String>> resolved = new HashMap<String, CompletableFuture<String>>();
+            int rows = 0;
             while ((nextLine = reader.readNext()) != null) {
-                if (i == 0) { // this is the first line of the CSV
-                    headers = new ArrayList<String>(Arrays.asList(nextLine));
-                    int loc = 0;
-                    // find STELLAR headers and record location
-                    for (String header : headers) {
-                        if ("object_id".equals(header.toLowerCase())) {
-                            OBJECT_ID_LOC = loc; // grab this just for outputs
-                        } else if ("object_type_label".equals(header.toLowerCase())) {
-                            OBJECT_TYPE = true;
-                            OBJECT_TYPE_LOC = loc;
-                        } else if ("find_place_label".equals(header.toLowerCase())) {
-                            FIND_PLACE = true;
-                            FIND_PLACE_LOC = loc;
-                        } else if ("country".equals(header.toLowerCase())) {
-                            COUNTRY = true;
-                            COUNTRY_LOC = loc;
-                        } else if ("production_period_label".equals(header.toLowerCase())) {
-                            PRODUCTION_PERIOD = true;
-                            PRODUCTION_PERIOD_LOC = loc;
-                        } else if ("production_material_label".equals(header.toLowerCase())) {
-                            PRODUCTION_MATERIAL = true;
-                            PRODUCTION_MATERIAL_LOC = loc;
-                        }
-                        loc++;
+                if (OBJECT_TYPE && !"".equals(cell(nextLine, OBJECT_TYPE_LOC))) {
+                    String value = nextLine[OBJECT_TYPE_LOC];
+                    if (!resolved.containsKey(key(OBJECT_TYPE_URI, value))) {
+                        resolved.put(key(OBJECT_TYPE_URI, value), lookupObjectType(value));
                     }
-                    // print out the lookupable fields and append the necessary new columns
-                    System.out.println("Following headers with potential lookups found:");
-                    if (OBJECT_TYPE) {
-                        System.out.println("\tobject_type_label");
-                        headers.add("object_type_uri");
-                        OBJECT_TYPE_URI = loc++;
-                    }
-                    if (FIND_PLACE) {
-                        System.out.println("\tfind_place_label");
-                        headers.add("find_place_uri");
-                        FIND_PLACE_URI = loc++;
-                    }
-                    if (PRODUCTION_PERIOD) {
-                        System.out.println("\tproduction_period_label");
-                        headers.add("production_period_uri");
-                        PRODUCTION_PERIOD_URI = loc++;
-                    }
-                    if (PRODUCTION_MATERIAL) {
-                        System.out.println("\tproduction_material_label");
-                        headers.add("production_material_uri");
-                        PRODUCTION_MATERIAL_URI = loc++;
-                    }
-                    ARRAY_LENGTH = loc;
-                    // write out the new headers
-                    writer.writeNext(headers.toArray(new String[0]));
-                } else { // this is the data
-                    System.out.println(nextLine[OBJECT_ID_LOC]);
-                    // add the previous values to the new CSV
-                    String[] newLine = new String[ARRAY_LENGTH];
-                    for (int j=0; j<nextLine.length; j++) {
-                        newLine[j] = nextLine[j];
-                    }
-                    // add object_type_uri if it exists
-                    if (OBJECT_TYPE && !"".equals(nextLine[OBJECT_TYPE_LOC])) {
-                        // do a lookup to a SENESCHAL vocabulary
-                        String objectTypeUri = SeneschalClient.lookupSingleFISHObject(nextLine[OBJECT_TYPE_LOC]);
-                        if (objectTypeUri != null) {
-                            System.out.println("\tobject_type_uri=" + objectTypeUri);
-                            newLine[OBJECT_TYPE_URI] = objectTypeUri;
-                        }
-                    }
-                    // add find_place_uri if it exists, but first check if the data has a country to simplify the search
-                    if (FIND_PLACE && !"".equals(nextLine[FIND_PLACE_LOC])) {
-                        Map<String, GeonamesBinding> geonamesMap;
-                        if (COUNTRY) {  // check if a command line parameter was included
-                            String _country = nextLine[COUNTRY_LOC];
-                            if ("england".equals(_country.toLowerCase())) {
-                                _country = "GB";
-                            } 
-                            geonamesMap = GeonamesClient.lookupPreciseLocationInCountry(nextLine[FIND_PLACE_LOC], _country, 1, GEONAMES_USER);
-                        } else if (USER_COUNTRY != null) {  // otherwise check if the CSV included a country column
-                            geonamesMap = GeonamesClient.lookupPreciseLocationInCountry(nextLine[FIND_PLACE_LOC], USER_COUNTRY, 1, GEONAMES_USER);
-                        } else {  // otherwise we assume we can't specify our query any further, so search the world
-                            geonamesMap = GeonamesClient.lookupPreciseLocationInWorld(nextLine[FIND_PLACE_LOC], 1, GEONAMES_USER);
-                        }
-                        // Loop through the results, but just getting 1 at the moment
-                        for (Map.Entry<String, GeonamesBinding> entry : geonamesMap.entrySet()) {
-                            System.out.println("\tfind_place_uri=" + entry.getKey());
-                            newLine[FIND_PLACE_URI] = entry.getKey();
-                            break; // got the only one we want, so break out
-                        }
+                }
+                if (FIND_PLACE && !"".equals(cell(nextLine, FIND_PLACE_LOC))) {
+                    String value = nextLine[FIND_PLACE_LOC];
+                    String country = findPlaceCountry(nextLine);
+                    if (!resolved.containsKey(key(FIND_PLACE_URI, value, country))) {
+                        resolved.put(key(FIND_PLACE_URI, value, country), lookupFindPlace(value, country));
                     }
-                    // Add production_period_uri if one exists
-                    if (PRODUCTION_PERIOD && !"".equals(nextLine[PRODUCTION_PERIOD_LOC])) {
-                        // do a lookup to another SENESCHAL vocabulary
-                        String periodUri = SeneschalClient.lookupSingleEHPeriod(nextLine[PRODUCTION_PERIOD_LOC]);
-                        if (periodUri != null) {
-                            System.out.println("\tproduction_period_uri=" + periodUri);
-                            newLine[PRODUCTION_PERIOD_URI] = periodUri;
-                        }
+                }
+                if (PRODUCTION_PERIOD && !"".equals(cell(nextLine, PRODUCTION_PERIOD_LOC))) {
+                    String value = nextLine[PRODUCTION_PERIOD_LOC];
+                    if (!resolved.containsKey(key(PRODUCTION_PERIOD_URI, value))) {
+                        resolved.put(key(PRODUCTION_PERIOD_URI, value), lookupPeriod(value));
                     }
-                    // Add production_material_uri if it exists
-                    if (PRODUCTION_MATERIAL && !"".equals(nextLine[PRODUCTION_MATERIAL_LOC])) {
-                        // do a lookup to DBPedia for a thing
-                        String materialUri = DBPediaClient.lookupSingleThing(nextLine[PRODUCTION_MATERIAL_LOC]);
-                        if (materialUri != null) {
-                            System.out.println("\tproduction_material_uri=" + materialUri);
-                            newLine[PRODUCTION_MATERIAL_URI] = materialUri;
-                        }
+                }
+                if (PRODUCTION_MATERIAL && !"".equals(cell(nextLine, PRODUCTION_MATERIAL_LOC))) {
+                    String value = nextLine[PRODUCTION_MATERIAL_LOC];
+                    if (!resolved.containsKey(key(PRODUCTION_MATERIAL_URI, value))) {
+                        resolved.put(key(PRODUCTION_MATERIAL_URI, value), lookupMaterial(value));
                     }
-                    // write the new line to our CSVWriter
-                    writer.writeNext(newLine);
                 }
-                i++;
+                rows++;
+            }
+            reader.close();
+            System.out.println(rows + " rows with " + resolved.size() + " distinct values to look up");
+            
+            // wait for all of the lookups to come back
+            Map<String, String> uris = new HashMap<String, String>();
+            for (Map.Entry<String, CompletableFuture<String>> entry : resolved.entrySet()) {
+                try {
+                    uris.put(entry.getKey(), entry.getValue().join());
+                } catch (CompletionException ex) {
+                    System.out.println(ex);
+                }
+            }
+            
+            // second pass, joining the uris back onto each row
+            reader = new CSVReader(new FileReader(FILE_NAME));
+            // create a new filename based on the old filename
+            String suffix = FILE_NAME.substring(FILE_NAME.lastIndexOf("."), FILE_NAME.length());
+            NEW_FILE_NAME = FILE_NAME.replace(suffix, "-enhanced" + suffix);
+            // prepare the CSVWriter object
+            CSVWriter writer = new CSVWriter(new FileWriter(NEW_FILE_NAME));
+            reader.readNext();
+            writer.writeNext(headers.toArray(new String[0]));
+            while ((nextLine = reader.readNext()) != null) {
+                String[] newLine = Arrays.copyOf(nextLine, ARRAY_LENGTH);
+                if (OBJECT_TYPE && !"".equals(cell(nextLine, OBJECT_TYPE_LOC))) {
+                    newLine[OBJECT_TYPE_URI] = uris.get(key(OBJECT_TYPE_URI, nextLine[OBJECT_TYPE_LOC]));
+                }
+                if (FIND_PLACE && !"".equals(cell(nextLine, FIND_PLACE_LOC))) {
+                    newLine[FIND_PLACE_URI] = uris.get(key(FIND_PLACE_URI, nextLine[FIND_PLACE_LOC], findPlaceCountry(nextLine)));
+                }
+                if (PRODUCTION_PERIOD && !"".equals(cell(nextLine, PRODUCTION_PERIOD_LOC))) {
+                    newLine[PRODUCTION_PERIOD_URI] = uris.get(key(PRODUCTION_PERIOD_URI, nextLine[PRODUCTION_PERIOD_LOC]));
+                }
+                if (PRODUCTION_MATERIAL && !"".equals(cell(nextLine, PRODUCTION_MATERIAL_LOC))) {
+                    newLine[PRODUCTION_MATERIAL_URI] = uris.get(key(PRODUCTION_MATERIAL_URI, nextLine[PRODUCTION_MATERIAL_LOC]));
+                }
+                RowWriter.print(newLine);
+                writer.writeNext(newLine);
             }
             
+            reader.close();
             writer.close();
         } catch (FileNotFoundException ex) {
             System.out.println("Can't find the file " + FILE_NAME);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+    }
+    
+    /**
+     * Finds the STELLAR headers, records their locations and appends the new
+     * uri columns.
+     * 
+     * @param firstLine The first line of the CSV file.
+     */
+    private void readHeaders(String[] firstLine) {
+        headers = new ArrayList<String>(Arrays.asList(firstLine));
+        int loc = 0;
+        // find STELLAR headers and record location
+        for (String header : headers) {
+            if ("object_id".equals(header.toLowerCase())) {
+                OBJECT_ID_LOC = loc; // grab this just for outputs
+            } else if ("object_type_label".equals(header.toLowerCase())) {
+                OBJECT_TYPE = true;
+                OBJECT_TYPE_LOC = loc;
+            } else if ("find_place_label".equals(header.toLowerCase())) {
+                FIND_PLACE = true;
+                FIND_PLACE_LOC = loc;
+            } else if ("country".equals(header.toLowerCase())) {
+                COUNTRY = true;
+                COUNTRY_LOC = loc;
+            } else if ("production_period_label".equals(header.toLowerCase())) {
+                PRODUCTION_PERIOD = true;
+                PRODUCTION_PERIOD_LOC = loc;
+            } else if ("production_material_label".equals(header.toLowerCase())) {
+                PRODUCTION_MATERIAL = true;
+                PRODUCTION_MATERIAL_LOC = loc;
+            }
+            loc++;
+        }
+        // print out the lookupable fields and append the necessary new columns
+        System.out.println("Following headers with potential lookups found:");
+        if (OBJECT_TYPE) {
+            System.out.println("\tobject_type_label");
+            headers.add("object_type_uri");
+            OBJECT_TYPE_URI = loc++;
+        }
+        if (FIND_PLACE) {
+            System.out.println("\tfind_place_label");
+            headers.add("find_place_uri");
+            FIND_PLACE_URI = loc++;
+        }
+        if (PRODUCTION_PERIOD) {
+            System.out.println("\tproduction_period_label");
+            headers.add("production_period_uri");
+            PRODUCTION_PERIOD_URI = loc++;
+        }
+        if (PRODUCTION_MATERIAL) {
+            System.out.println("\tproduction_material_label");
+            headers.add("production_material_uri");
+            PRODUCTION_MATERIAL_URI = loc++;
+        }
+        ARRAY_LENGTH = loc;
+    }
+    
+    /**
+     * Starts every lookup needed for a row at once, rather than one after the
+     * other, and completes when they have all returned.
+     * 
+     * @param nextLine A row of data from the CSV.
+     * @return A future completed with the enhanced row.
+     */
+    private CompletableFuture<String[]> enrich(String[] nextLine) {
+        // add the previous values to the new CSV
+        final String[] newLine = Arrays.copyOf(nextLine, ARRAY_LENGTH);
+        List<CompletableFuture<Void>> lookups = new ArrayList<CompletableFuture<Void>>();
+        // add object_type_uri if it exists
+        if (OBJECT_TYPE && !"".equals(cell(nextLine, OBJECT_TYPE_LOC))) {
+            lookups.add(fill(lookupObjectType(nextLine[OBJECT_TYPE_LOC]), newLine, OBJECT_TYPE_URI));
+        }
+        // add find_place_uri if it exists
+        if (FIND_PLACE && !"".equals(cell(nextLine, FIND_PLACE_LOC))) {
+            lookups.add(fill(lookupFindPlace(nextLine[FIND_PLACE_LOC], findPlaceCountry(nextLine)), newLine, FIND_PLACE_URI));
+        }
+        // Add production_period_uri if one exists
+        if (PRODUCTION_PERIOD && !"".equals(cell(nextLine, PRODUCTION_PERIOD_LOC))) {
+            lookups.add(fill(lookupPeriod(nextLine[PRODUCTION_PERIOD_LOC]), newLine, PRODUCTION_PERIOD_URI));
+        }
+        // Add production_material_uri if it exists
+        if (PRODUCTION_MATERIAL && !"".equals(cell(nextLine, PRODUCTION_MATERIAL_LOC))) {
+            lookups.add(fill(lookupMaterial(nextLine[PRODUCTION_MATERIAL_LOC]), newLine, PRODUCTION_MATERIAL_URI));
+        }
+        
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).thenApply(v -> newLine);
+    }
+    
+    /**
+     * Do a lookup to a SENESCHAL vocabulary.
+     */
+    private static CompletableFuture<String> lookupObjectType(String objectType) {
+        return SeneschalClient.lookupSingleFISHObjectAsync(objectType);
+    }
+    
+    /**
+     * Works out which country to focus a find place lookup on.
+     * 
+     * @param line A row of data from the CSV.
+     * @return A geonames country code, or null to search the world.
+     */
+    private static String findPlaceCountry(String[] line) {
+        if (COUNTRY) {  // check if the CSV included a country column
+            String country = cell(line, COUNTRY_LOC);
+            if ("england".equals(country.toLowerCase())) {
+                country = "GB";
+            }
+            return country;
+        }
+        // otherwise use the command line parameter, if one was included
+        return USER_COUNTRY;
+    }
+    
+    /**
+     * Do a lookup to Geonames, focused on a country if we have one.
+     * 
+     * @param place The find place.
+     * @param country The geonames country code, or null to search the world.
+     */
+    private static CompletableFuture<String> lookupFindPlace(String place, String country) {
+        CompletableFuture<Map<String, GeonamesBinding>> geonamesMap;
+        if (country != null) {
+            geonamesMap = GeonamesClient.lookupPreciseLocationInCountryAsync(place, country, 1, GEONAMES_USER);
+        } else {  // otherwise we assume we can't specify our query any further, so search the world
+            geonamesMap = GeonamesClient.lookupPreciseLocationInWorldAsync(place, 1, GEONAMES_USER);
+        }
+        // Loop through the results, but just getting 1 at the moment
+        return geonamesMap.thenApply(results -> {
+            for (Map.Entry<String, GeonamesBinding> entry : results.entrySet()) {
+                return entry.getKey(); // got the only one we want
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Do a lookup to another SENESCHAL vocabulary.
+     */
+    private static CompletableFuture<String> lookupPeriod(String period) {
+        return SeneschalClient.lookupSingleEHPeriodAsync(period);
+    }
+    
+    /**
+     * Do a lookup to DBPedia for a thing.
+     */
+    private static CompletableFuture<String> lookupMaterial(String material) {
+        return DBPediaClient.lookupSingleThingAsync(material);
+    }
+    
+    /**
+     * Copies a lookup result into its column once it arrives. A failed lookup
+     * is reported and leaves the column empty rather than losing the row.
+     */
+    private static CompletableFuture<Void> fill(CompletableFuture<String> lookup, final String[] newLine, final int loc) {
+        return lookup.handle((uri, ex) -> {
+            if (ex != null) {
+                System.out.println(ex);
+            } else if (uri != null) {
+                newLine[loc] = uri;
+            }
+            return null;
+        });
+    }
+    
+    private static String cell(String[] line, int loc) {
+        return loc < line.length ? line[loc] : "";
+    }
+    
+    /**
+     * Builds the key for a distinct lookup, made up of the uri column it fills
+     * and the values it depends on.
+     */
+    private static String key(int column, String... values) {
+        StringBuilder key = new StringBuilder().append(column);
+        for (String value : values) {
+            key.append('\u0000').append(value);
+        }
+        return key.toString();
+    }
+    
+    /**
+     * Takes the enriched rows off the queue in the order they were read, 
+     * waits for each to complete and writes it out, then frees its slot for 
+     * the reader. A row that fails is reported and skipped, and its slot is
+     * still freed, so the reader never waits on a writer that has died.
+     */
+    private static class RowWriter extends Thread {
+        
+        private final BlockingQueue<CompletableFuture<String[]>> pending;
+        private final CSVWriter writer;
+        private final Semaphore window;
+        
+        RowWriter(BlockingQueue<CompletableFuture<String[]>> pending, CSVWriter writer, Semaphore window) {
+            super("harvester-writer");
+            this.pending = pending;
+            this.writer = writer;
+            this.window = window;
+        }
         
+        @Override
+        public void run() {
+            try {
+                CompletableFuture<String[]> next;
+                while ((next = pending.take()) != END_OF_FILE) {
+                    try {
+                        String[] newLine = next.join();
+                        print(newLine);
+                        // write the new line to our CSVWriter
+                        writer.writeNext(newLine);
+                    } catch (RuntimeException ex) {
+                        // report the row and carry on, rather than leave the reader waiting
+                        ex.printStackTrace();
+                    } finally {
+                        window.release();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        static void print(String[] newLine) {
+            System.out.println(newLine[OBJECT_ID_LOC]);
+            if (OBJECT_TYPE && newLine[OBJECT_TYPE_URI] != null) {
+                System.out.println("\tobject_type_uri=" + newLine[OBJECT_TYPE_URI]);
+            }
+            if (FIND_PLACE && newLine[FIND_PLACE_URI] != null) {
+                System.out.println("\tfind_place_uri=" + newLine[FIND_PLACE_URI]);
+            }
+            if (PRODUCTION_PERIOD && newLine[PRODUCTION_PERIOD_URI] != null) {
+                System.out.println("\tproduction_period_uri=" + newLine[PRODUCTION_PERIOD_URI]);
+            }
+            if (PRODUCTION_MATERIAL && newLine[PRODUCTION_MATERIAL_URI] != null) {
+                System.out.println("\tproduction_material_uri=" + newLine[PRODUCTION_MATERIAL_URI]);
+            }
+        }
     }
     
     public static void main(String[] args) {
@@ -213,7 +481,13 @@ public class CRMObjectsHarvester {
         }
         
         CRMObjectsHarvester clarosHarvester = new CRMObjectsHarvester();
-        clarosHarvester.parse();
+        if (DISTINCT) {
+            clarosHarvester.parseDistinct();
+        } else {
+            clarosHarvester.parse();
+        }
+        LookupCaches.close();
+        HttpTransport.shutdown();
         System.out.println("--------------------------------------------");
         System.out.println("New file written to " + NEW_FILE_NAME);
     }
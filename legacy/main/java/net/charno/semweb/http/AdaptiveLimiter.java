@@ -0,0 +1,145 @@
+package net.charno.semweb.http;
+
+/**
+ * Limits the number of requests in flight to a host, finding the limit by
+ * additive increase and multiplicative decrease. While requests come back
+ * promptly and the limit is in use, it grows by about one per round of
+ * requests. When the host says it is overloaded (429 or 503), a request
+ * times out, or the latency climbs well above the fastest seen, the limit is
+ * halved, at most once per round so a single burst of failures doesn't
+ * collapse it to the minimum.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class AdaptiveLimiter {
+
+    /**
+     * A request is slow when it takes this many times the baseline latency.
+     */
+    static final int SLOW_FACTOR = 4;
+    /**
+     * Requests faster than this are never counted as slow.
+     */
+    static final long SLOW_FLOOR = 1000;
+
+    private final int minimum;
+    private int maximum;
+    private double limit;
+    private int inFlight;
+    private double baseline = -1;
+    private long lastDecrease;
+    private long pausedUntil;
+    private long decreases;
+
+    /**
+     * @param minimum The lowest limit, at least 1.
+     * @param maximum The highest limit, which it starts at.
+     */
+    public AdaptiveLimiter(int minimum, int maximum) {
+        this.minimum = Math.max(1, minimum);
+        this.maximum = Math.max(this.minimum, maximum);
+        this.limit = this.maximum;
+    }
+
+    /**
+     * Takes a slot, waiting until fewer requests than the limit are in
+     * flight and any pause is over.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (true) {
+            long paused = pausedUntil - System.currentTimeMillis();
+            if (paused > 0) {
+                wait(paused);
+            } else if (inFlight >= (int) limit) {
+                wait();
+            } else {
+                break;
+            }
+        }
+        inFlight++;
+    }
+
+    /**
+     * Holds back every request for a while, e.g. when the host has sent a
+     * Retry-After header.
+     *
+     * @param millis How long to wait before the next request.
+     */
+    public synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+    }
+
+    /**
+     * Gives back a slot and adjusts the limit from how the request went.
+     *
+     * @param millis How long the request took.
+     * @param overloaded Whether the host refused it as overloaded or it timed
+     * out.
+     */
+    public synchronized void release(long millis, boolean overloaded) {
+        boolean saturated = inFlight >= (int) limit;
+        inFlight--;
+        boolean slow = baseline > 0 && millis > Math.max(SLOW_FLOOR, SLOW_FACTOR * baseline);
+        if (!overloaded) {
+            // the fastest recent latency, drifting up slowly so it can recover from a lucky one
+            if (baseline < 0 || millis < baseline) {
+                baseline = millis;
+            } else {
+                baseline += (millis - baseline) / 100.0;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (overloaded || slow) {
+            // one decrease per round of requests
+            if (now - lastDecrease > Math.max(millis, baseline)) {
+                limit = Math.max(minimum, limit / 2);
+                lastDecrease = now;
+                decreases++;
+            }
+        } else if (saturated) {
+            limit = Math.min(maximum, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gives back a slot taken by acquire() for a request that was never sent,
+     * without it counting towards the limit.
+     */
+    public synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Changes the highest limit, e.g. when the connection pool for the host
+     * is resized.
+     *
+     * @param maximum The highest limit.
+     */
+    public synchronized void setMaximum(int maximum) {
+        this.maximum = Math.max(minimum, maximum);
+        limit = Math.min(limit, this.maximum);
+        notifyAll();
+    }
+
+    /**
+     * @return The current limit.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return How many times the limit has been cut.
+     */
+    public synchronized long getDecreaseCount() {
+        return decreases;
+    }
+}
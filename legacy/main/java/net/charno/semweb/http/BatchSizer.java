@@ -0,0 +1,61 @@
+package net.charno.semweb.http;
+
+/**
+ * Picks how many items to send in one batched request to an endpoint. The
+ * size doubles while batches come back well inside the target time, and
+ * halves when they take too long or fail, so it settles on the largest batch
+ * the endpoint handles comfortably.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class BatchSizer {
+
+    private final int minimum;
+    private final int maximum;
+    private final long target;
+    private int size;
+
+    /**
+     * @param initial The size of the first batch.
+     * @param minimum The smallest batch size.
+     * @param maximum The largest batch size.
+     * @param target The time in milliseconds a batch should take.
+     */
+    public BatchSizer(int initial, int minimum, int maximum, long target) {
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.target = target;
+        this.size = Math.max(minimum, Math.min(maximum, initial));
+    }
+
+    /**
+     * @return The number of items to put in the next batch.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records a batch that succeeded.
+     *
+     * @param batch The number of items in it.
+     * @param millis How long it took.
+     */
+    public synchronized void succeeded(int batch, long millis) {
+        if (millis > target) {
+            size = Math.max(minimum, Math.min(size, batch) / 2);
+        } else if (millis < target / 2 && batch >= size) {
+            // only a full batch says anything about a bigger one
+            size = Math.min(maximum, size * 2);
+        }
+    }
+
+    /**
+     * Records a batch that failed, e.g. timed out or was refused as too big.
+     *
+     * @param batch The number of items in it.
+     */
+    public synchronized void failed(int batch) {
+        size = Math.max(minimum, Math.min(size, batch) / 2);
+    }
+}
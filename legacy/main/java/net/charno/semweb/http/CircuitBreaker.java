@@ -0,0 +1,136 @@
+package net.charno.semweb.http;
+
+/**
+ * Stops sending requests to a host that has stopped answering. After a run
+ * of consecutive failures the circuit opens, and requests fail straight away
+ * rather than each waiting for a timeout. Once the open period is over a
+ * single request is let through as a probe: if it succeeds the circuit
+ * closes, and if it fails the circuit opens again for twice as long, up to a
+ * limit.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class CircuitBreaker {
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int threshold;
+    private final long openTime;
+    private final long maxOpenTime;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openFor;
+    private long openUntil;
+    private boolean probing;
+    private long rejected;
+
+    /**
+     * @param threshold The number of consecutive failures that opens the
+     * circuit.
+     * @param openTime How long in milliseconds the circuit first stays open.
+     * @param maxOpenTime The longest the circuit stays open between probes.
+     */
+    public CircuitBreaker(int threshold, long openTime, long maxOpenTime) {
+        this.threshold = Math.max(1, threshold);
+        this.openTime = openTime;
+        this.maxOpenTime = Math.max(openTime, maxOpenTime);
+        this.openFor = openTime;
+    }
+
+    /**
+     * Checks whether a request may be sent. When the open period is over,
+     * the first caller is let through as the probe and the rest are refused
+     * until it has finished. A caller that is let through must report the
+     * outcome with onSuccess, onFailure or onAbandoned.
+     *
+     * @return True if the request can go ahead.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /**
+     * Checks whether a request would be refused, without claiming the probe,
+     * so a caller can fail fast before waiting for anything else. A refusal
+     * is counted just as allowRequest counts it.
+     *
+     * @return True if the request should not go ahead.
+     */
+    public synchronized boolean refusesRequest() {
+        if (isOpen()) {
+            rejected++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Notes that the host answered.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+        openFor = openTime;
+    }
+
+    /**
+     * Notes that the host didn't answer, or answered with a server error.
+     */
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN) {
+            // the probe failed, so wait longer before the next one
+            openFor = Math.min(maxOpenTime, openFor * 2);
+            open();
+        } else if (state == State.CLOSED && failures >= threshold) {
+            open();
+        }
+    }
+
+    /**
+     * Notes that a request finished without saying anything about the host,
+     * e.g. because it was aborted.
+     */
+    public synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        probing = false;
+        openUntil = System.currentTimeMillis() + openFor;
+    }
+
+    /**
+     * @return True if requests are being refused and no probe is due yet.
+     */
+    public synchronized boolean isOpen() {
+        if (state == State.OPEN) {
+            return System.currentTimeMillis() < openUntil;
+        }
+        return state == State.HALF_OPEN && probing;
+    }
+
+    /**
+     * @return The number of requests refused so far.
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+}
@@ -0,0 +1,28 @@
+package net.charno.semweb.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to a host whose circuit is open, see
+ * CircuitBreaker. Lookups that catch it may answer from stale cached results
+ * or an offline index instead.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+    private final String host;
+
+    public CircuitOpenException(String host) {
+        super("Not sending requests to " + host + " while it is failing");
+        this.host = host;
+    }
+
+    /**
+     * @return The host that was not sent the request.
+     */
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,1033 @@
+package net.charno.semweb.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.net.ssl.SSLException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The shared HTTP transport used by every lookup client. A single pooled
+ * connection manager is kept for the life of the JVM, so repeated lookups to
+ * the same authority reuse kept-alive connections rather than opening a new
+ * socket per request.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public final class HttpTransport {
+
+    /**
+     * The maximum number of pooled connections across all hosts.
+     */
+    public static final int DEFAULT_MAX_TOTAL = 64;
+    /**
+     * The maximum number of pooled connections to any one host.
+     */
+    public static final int DEFAULT_MAX_PER_ROUTE = 8;
+    /**
+     * The time in milliseconds allowed to establish a connection.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /**
+     * The time in milliseconds allowed between packets once connected.
+     */
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    /**
+     * The time in milliseconds a caller will wait for a pooled connection.
+     */
+    public static final long DEFAULT_POOL_TIMEOUT = 30000;
+    /**
+     * How long in milliseconds to keep an idle connection alive when the
+     * server doesn't send a Keep-Alive header.
+     */
+    public static final long DEFAULT_KEEP_ALIVE = 30000;
+
+    /**
+     * Reads a response body as it arrives, rather than after it has all been
+     * buffered.
+     */
+    public interface BodyReader<T> {
+
+        /**
+         * @param reader The body, decoded with the charset the server gave or
+         * UTF-8. It may be left part read, and is closed by the transport.
+         * @return The value read from the body.
+         * @throws IOException If the body can't be read.
+         */
+        T read(Reader reader) throws IOException;
+    }
+
+    /**
+     * Reads a response body as it arrives, as bytes, for formats that say
+     * which they are by their media type.
+     */
+    public interface ContentReader<T> {
+
+        /**
+         * @param in The body. It may be left part read, and is closed by the
+         * transport.
+         * @param mimeType The media type of the body without parameters, or
+         * null if the server didn't give one.
+         * @param charset The charset the server gave, or UTF-8.
+         * @return The value read from the body.
+         * @throws IOException If the body can't be read.
+         */
+        T read(InputStream in, String mimeType, Charset charset) throws IOException;
+    }
+
+    /**
+     * The longest pause a Retry-After header can ask for, in milliseconds.
+     */
+    public static final long MAX_RETRY_AFTER = 600000;
+    /**
+     * How many times a failed request is retried, if the retry budget allows.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    /**
+     * The backoff before the first retry in milliseconds, doubling for each
+     * one after. The actual wait is a random time up to this.
+     */
+    public static final long DEFAULT_RETRY_BACKOFF = 200;
+    /**
+     * The longest backoff before a retry in milliseconds.
+     */
+    public static final long MAX_RETRY_BACKOFF = 5000;
+    /**
+     * The retries and hedges allowed per request sent, across every host.
+     */
+    public static final double RETRY_RATIO = 0.1;
+    /**
+     * The most retries and hedges that can be saved up.
+     */
+    public static final int RETRY_CAPACITY = 20;
+    /**
+     * A hedged request is sent once the first has taken longer than this
+     * percentile of recent response times from the host.
+     */
+    public static final double HEDGE_PERCENTILE = 95;
+    /**
+     * The number of response times needed from a host before requests to it
+     * are hedged.
+     */
+    public static final int HEDGE_MIN_SAMPLES = 20;
+    /**
+     * The shortest wait before a hedged request, in milliseconds.
+     */
+    public static final long HEDGE_MIN_DELAY = 50;
+    /**
+     * The number of consecutive failures that stops requests to a host.
+     */
+    public static final int DEFAULT_CIRCUIT_FAILURES = 5;
+    /**
+     * How long in milliseconds requests to a failing host are stopped before
+     * one is let through to see if it has recovered.
+     */
+    public static final long DEFAULT_CIRCUIT_OPEN = 30000;
+    /**
+     * The longest time in milliseconds between requests to see if a failing
+     * host has recovered.
+     */
+    public static final long MAX_CIRCUIT_OPEN = 600000;
+
+    private static PoolingClientConnectionManager connectionManager;
+    private static DefaultHttpClient httpClient;
+    private static Thread idleMonitor;
+    private static int defaultMaxPerRoute = DEFAULT_MAX_PER_ROUTE;
+    private static final ConcurrentHashMap<String, TokenBucket> rateLimits = new ConcurrentHashMap<String, TokenBucket>();
+    private static final ConcurrentHashMap<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<String, AdaptiveLimiter>();
+    private static final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<String, LatencyTracker>();
+    private static final ConcurrentHashMap<String, Integer> socketTimeouts = new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentHashMap<String, Boolean> hedging = new ConcurrentHashMap<String, Boolean>();
+    private static final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private static final RetryBudget retryBudget = new RetryBudget(RETRY_RATIO, RETRY_CAPACITY);
+    private static volatile int maxRetries = Integer.getInteger("http.retries", DEFAULT_MAX_RETRIES);
+    private static ExecutorService hedgeExecutor;
+
+    private HttpTransport() {
+    }
+
+    /**
+     * Replaces the shared client with one built from the given settings. Any
+     * connections held by the previous client are closed.
+     *
+     * @param maxTotal The maximum number of pooled connections.
+     * @param maxPerRoute The maximum number of pooled connections per host.
+     * @param connectTimeout The connect timeout in milliseconds.
+     * @param socketTimeout The socket read timeout in milliseconds.
+     * @param keepAlive The default keep-alive in milliseconds.
+     */
+    public static synchronized void configure(int maxTotal, int maxPerRoute, int connectTimeout, int socketTimeout, long keepAlive) {
+        shutdown();
+
+        connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        defaultMaxPerRoute = maxPerRoute;
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+        HttpConnectionParams.setSoTimeout(params, socketTimeout);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, DEFAULT_POOL_TIMEOUT);
+
+        httpClient = new DefaultHttpClient(connectionManager, params);
+        httpClient.setKeepAliveStrategy(new FallbackKeepAliveStrategy(keepAlive));
+
+        idleMonitor = new IdleConnectionMonitor(connectionManager, keepAlive);
+        idleMonitor.start();
+    }
+
+    /**
+     * Overrides the connection limit for a single host, e.g. to allow more
+     * parallel requests to a local triple store than to a public endpoint.
+     *
+     * @param host The host name.
+     * @param port The port, or -1 for the scheme default.
+     * @param maxPerRoute The maximum number of pooled connections to the host.
+     */
+    public static synchronized void setMaxPerRoute(String host, int port, int maxPerRoute) {
+        getClient();
+        connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost(host, port)), maxPerRoute);
+        getLimiter(host).setMaximum(maxPerRoute);
+    }
+
+    /**
+     * Limits the rate of requests to a host, e.g. to stay within an API's
+     * hourly credits. A limit can also be set with -Dhttp.rate.host, in
+     * requests per second, and -Dhttp.burst.host.
+     *
+     * @param host The host name.
+     * @param perSecond The sustained requests per second, or 0 for no limit.
+     * @param burst The number of requests allowed at once after a quiet spell.
+     */
+    public static void setRateLimit(String host, double perSecond, int burst) {
+        if (perSecond > 0) {
+            rateLimits.put(host, new TokenBucket(perSecond, burst));
+        } else {
+            rateLimits.remove(host);
+        }
+    }
+
+    /**
+     * @param host The host name.
+     * @return The rate limit for the host, or null if it has none.
+     */
+    public static TokenBucket getRateLimit(String host) {
+        TokenBucket bucket = rateLimits.get(host);
+        if (bucket == null) {
+            String rate = System.getProperty("http.rate." + host);
+            if (rate != null) {
+                try {
+                    setRateLimit(host, Double.parseDouble(rate), Integer.getInteger("http.burst." + host, 1));
+                } catch (NumberFormatException ex) {
+                    System.out.println("Ignoring the rate limit for " + host + ": " + ex);
+                    setRateLimit(host, 0, 0);
+                }
+                bucket = rateLimits.get(host);
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the limiter on concurrent requests to a host, which starts at
+     * the host's connection limit and adapts to how the host copes.
+     *
+     * @param host The host name.
+     * @return The host's limiter.
+     */
+    public static AdaptiveLimiter getLimiter(String host) {
+        AdaptiveLimiter limiter = limiters.get(host);
+        if (limiter == null) {
+            limiter = new AdaptiveLimiter(1, defaultMaxPerRoute);
+            AdaptiveLimiter existing = limiters.putIfAbsent(host, limiter);
+            if (existing != null) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Returns the shared client, creating it with the default settings on
+     * first use.
+     *
+     * @return The shared, thread safe HttpClient.
+     */
+    public static synchronized DefaultHttpClient getClient() {
+        if (httpClient == null) {
+            configure(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE,
+                    Integer.getInteger("http.connect.timeout", DEFAULT_CONNECT_TIMEOUT),
+                    Integer.getInteger("http.socket.timeout", DEFAULT_SOCKET_TIMEOUT),
+                    DEFAULT_KEEP_ALIVE);
+        }
+        return httpClient;
+    }
+
+    /**
+     * Overrides the socket read timeout for a single host, e.g. to give up
+     * sooner on an endpoint that sometimes hangs. It can also be set with
+     * -Dhttp.socket.timeout.host.
+     *
+     * @param host The host name.
+     * @param millis The socket read timeout in milliseconds, or 0 to use the
+     * shared client's.
+     */
+    public static void setSocketTimeout(String host, int millis) {
+        if (millis > 0) {
+            socketTimeouts.put(host, millis);
+        } else {
+            socketTimeouts.remove(host);
+        }
+    }
+
+    /**
+     * Sets how many times a failed request is retried. Only failures before
+     * any of the body has been read are retried: connection errors,
+     * timeouts waiting for the response, 429 and 5xx. Retries back off with
+     * random jitter and are limited by a budget shared across every host. It
+     * can also be set with -Dhttp.retries.
+     *
+     * @param retries The number of retries, or 0 for none.
+     */
+    public static void setMaxRetries(int retries) {
+        maxRetries = Math.max(0, retries);
+    }
+
+    /**
+     * @return The budget limiting retries and hedged requests.
+     */
+    public static RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Turns hedging on or off for a host. A hedged GET that hasn't had a
+     * response within the host's usual time (its 95th percentile) is sent
+     * again, and whichever copy answers first is used. The other is
+     * aborted. Hedging can also be turned on with -Dhttp.hedge.host, or for
+     * every host with -Dhttp.hedge.
+     *
+     * @param host The host name.
+     * @param enabled Whether to hedge requests to the host.
+     */
+    public static void setHedging(String host, boolean enabled) {
+        hedging.put(host, enabled);
+    }
+
+    /**
+     * @param host The host name.
+     * @return Whether requests to the host are hedged.
+     */
+    public static boolean isHedging(String host) {
+        Boolean enabled = hedging.get(host);
+        if (enabled == null) {
+            return Boolean.getBoolean("http.hedge." + host) || Boolean.getBoolean("http.hedge");
+        }
+        return enabled;
+    }
+
+    /**
+     * Returns the circuit breaker for a host, which stops requests to it
+     * after a run of failures: connection errors, timeouts and 5xx
+     * responses. The threshold and how long requests are stopped can be set
+     * with -Dhttp.circuit.failures and -Dhttp.circuit.open (in milliseconds).
+     *
+     * @param host The host name.
+     * @return The host's circuit breaker.
+     */
+    public static CircuitBreaker getCircuitBreaker(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(Integer.getInteger("http.circuit.failures", DEFAULT_CIRCUIT_FAILURES),
+                    Long.getLong("http.circuit.open", DEFAULT_CIRCUIT_OPEN), MAX_CIRCUIT_OPEN);
+            CircuitBreaker existing = breakers.putIfAbsent(host, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Checks whether requests to a host are being sent, e.g. to answer from
+     * an offline index instead while it is down.
+     *
+     * @param host The host name.
+     * @return False if the host's circuit is open.
+     */
+    public static boolean isAvailable(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        return breaker == null || !breaker.isOpen();
+    }
+
+    /**
+     * @param host The host name.
+     * @return The recent response times from the host.
+     */
+    public static LatencyTracker getLatency(String host) {
+        LatencyTracker latency = latencies.get(host);
+        if (latency == null) {
+            latency = new LatencyTracker(256);
+            LatencyTracker existing = latencies.putIfAbsent(host, latency);
+            if (existing != null) {
+                latency = existing;
+            }
+        }
+        return latency;
+    }
+
+    /**
+     * Executes a request on the shared client. The response entity is always
+     * consumed before returning, so the connection goes back to the pool.
+     * <p>
+     * The request first waits for the host's rate limit, if it has one, and
+     * for a slot under its concurrency limit. A 429 or 503 response or a 
+     * timeout cuts the concurrency limit, and a Retry-After header holds 
+     * back every request to the host until then.
+     * <p>
+     * Failures before the response body has been handed to the handler are
+     * retried, see setMaxRetries, and GETs to hosts with hedging on are
+     * hedged, see setHedging. Requests to a host that keeps failing aren't
+     * sent at all, see getCircuitBreaker.
+     *
+     * @param request The request to send.
+     * @param handler A handler that turns the response into a value.
+     * @return Whatever the handler returns.
+     * @throws IOException If the request fails, or CircuitOpenException if it
+     * wasn't sent because the host is failing.
+     */
+    public static <T> T execute(HttpUriRequest request, ResponseHandler<T> handler) throws IOException {
+        String host = request.getURI().getHost();
+        if (host == null) {
+            return getClient().execute(request, handler);
+        }
+        retryBudget.deposit();
+        for (int retry = 0; ; retry++) {
+            Integer timeout = getSocketTimeout(host);
+            if (timeout != null) {
+                HttpConnectionParams.setSoTimeout(request.getParams(), timeout);
+            }
+            Exchange exchange = new Exchange();
+            try {
+                long delay = hedgeDelay(host, request);
+                if (delay >= 0) {
+                    return hedged(host, request, handler, exchange, delay);
+                }
+                return send(host, request, new AttemptHandler<T>(handler, exchange, request));
+            } catch (IOException ex) {
+                HttpUriRequest next = retry < maxRetries && isRetryable(ex, exchange) ? copy(request) : null;
+                if (next == null || !retryBudget.tryWithdraw()) {
+                    throw ex;
+                }
+                backoff(host, retry);
+                request = next;
+            }
+        }
+    }
+
+    /**
+     * Sends a request once, within the host's rate and concurrency limits,
+     * unless its circuit is open. The circuit is only asked to let the
+     * request through once it is ready to go, so a half open circuit's probe
+     * isn't left waiting for the rate limit while everyone else is refused.
+     */
+    private static <T> T send(String host, HttpUriRequest request, AttemptHandler<T> handler) throws IOException {
+        CircuitBreaker breaker = getCircuitBreaker(host);
+        if (breaker.refusesRequest()) {
+            throw new CircuitOpenException(host);
+        }
+        TokenBucket bucket = getRateLimit(host);
+        AdaptiveLimiter limiter = getLimiter(host);
+        try {
+            if (bucket != null) {
+                bucket.acquire();
+            }
+            limiter.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to send a request to " + host);
+        }
+        if (!breaker.allowRequest()) {
+            limiter.cancel();
+            throw new CircuitOpenException(host);
+        }
+        handler.start(limiter, getLatency(host));
+        boolean timedOut = false;
+        boolean abandoned = false;
+        try {
+            return getClient().execute(request, handler);
+        } catch (InterruptedIOException ex) {
+            // socket and connect timeouts
+            timedOut = !(ex instanceof ConnectionPoolTimeoutException);
+            abandoned = !timedOut;
+            throw ex;
+        } catch (IOException ex) {
+            abandoned = request.isAborted();
+            throw ex;
+        } finally {
+            limiter.release(System.currentTimeMillis() - handler.started, timedOut || handler.overloaded);
+            if (handler.status > 0) {
+                if (handler.status >= 500) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            } else if (abandoned || Thread.currentThread().isInterrupted()) {
+                breaker.onAbandoned();
+            } else {
+                breaker.onFailure();
+            }
+        }
+    }
+
+    /**
+     * Sends a request and, if it hasn't been answered after the delay, a copy
+     * of it, returning whichever is answered first.
+     */
+    private static <T> T hedged(final String host, final HttpUriRequest request, final ResponseHandler<T> handler, final Exchange exchange, long delay) throws IOException {
+        CompletableFuture<T> first = sendAsync(host, request, new AttemptHandler<T>(handler, exchange, request));
+        try {
+            return first.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // slower than usual, so hedge
+        } catch (InterruptedException ex) {
+            request.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a response from " + host);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        }
+        final HttpUriRequest hedge = exchange.claimed.get() ? null : copy(request);
+        if (hedge == null || !retryBudget.tryWithdraw()) {
+            return await(host, first, request);
+        }
+        CompletableFuture<T> second = sendAsync(host, hedge, new AttemptHandler<T>(handler, exchange, hedge));
+
+        // the first answer wins, and a failure only counts once both have failed
+        final CompletableFuture<T> winner = new CompletableFuture<T>();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        first.whenComplete((value, error) -> {
+            if (error == null) {
+                hedge.abort();
+                winner.complete(value);
+            } else {
+                failed(winner, failures, failure, error);
+            }
+        });
+        second.whenComplete((value, error) -> {
+            if (error == null) {
+                request.abort();
+                winner.complete(value);
+            } else {
+                failed(winner, failures, failure, error);
+            }
+        });
+        try {
+            return await(host, winner, request);
+        } finally {
+            if (!second.isDone()) {
+                // the wait was interrupted
+                hedge.abort();
+            }
+        }
+    }
+
+    private static <T> void failed(CompletableFuture<T> winner, AtomicInteger failures, AtomicReference<Throwable> failure, Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        // losing the race isn't the failure worth reporting
+        if (!(cause instanceof HedgeLostException)) {
+            failure.compareAndSet(null, cause);
+        }
+        if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(failure.get() != null ? failure.get() : cause);
+        }
+    }
+
+    private static <T> CompletableFuture<T> sendAsync(final String host, final HttpUriRequest request, final AttemptHandler<T> handler) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        getHedgeExecutor().execute(() -> {
+            try {
+                result.complete(send(host, request, handler));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    private static <T> T await(String host, CompletableFuture<T> result, HttpUriRequest request) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            request.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a response from " + host);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * @return How long to wait before hedging a request, or -1 if it
+     * shouldn't be.
+     */
+    private static long hedgeDelay(String host, HttpUriRequest request) {
+        if (!(request instanceof HttpGet) || !isHedging(host)) {
+            return -1;
+        }
+        LatencyTracker latency = getLatency(host);
+        if (latency.size() < HEDGE_MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(HEDGE_MIN_DELAY, latency.getPercentile(HEDGE_PERCENTILE));
+    }
+
+    /**
+     * Whether a failure is worth retrying: nothing of the body has been read,
+     * so the handler has had no chance to act on part of it, and the failure
+     * may well be temporary.
+     */
+    private static boolean isRetryable(IOException ex, Exchange exchange) {
+        if (exchange.delivered || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (ex instanceof HttpResponseException) {
+            int status = ((HttpResponseException) ex).getStatusCode();
+            return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+        }
+        // a full pool, an unknown host or a malformed request won't be helped by trying again
+        return !(ex instanceof CircuitOpenException || ex instanceof ConnectionPoolTimeoutException || ex instanceof UnknownHostException
+                || ex instanceof ClientProtocolException || ex instanceof SSLException);
+    }
+
+    /**
+     * Waits a random time up to an exponentially growing limit, so that
+     * clients that failed together don't all retry together.
+     */
+    private static void backoff(String host, int retry) throws IOException {
+        long limit = Math.min(MAX_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF << Math.min(retry, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to retry a request to " + host);
+        }
+    }
+
+    /**
+     * Copies a request so it can be sent again, or returns null if it can't
+     * be, e.g. because its body can only be read once.
+     */
+    private static HttpUriRequest copy(HttpUriRequest request) {
+        HttpRequestBase copy;
+        if (request instanceof HttpGet) {
+            copy = new HttpGet(request.getURI());
+        } else if (request instanceof HttpPost) {
+            HttpEntity entity = ((HttpPost) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return null;
+            }
+            HttpPost post = new HttpPost(request.getURI());
+            post.setEntity(entity);
+            copy = post;
+        } else {
+            return null;
+        }
+        copy.setHeaders(request.getAllHeaders());
+        copy.setParams(request.getParams());
+        return copy;
+    }
+
+    private static Integer getSocketTimeout(String host) {
+        Integer timeout = socketTimeouts.get(host);
+        if (timeout == null) {
+            timeout = Integer.getInteger("http.socket.timeout." + host);
+            if (timeout != null) {
+                setSocketTimeout(host, timeout);
+            }
+        }
+        return timeout;
+    }
+
+    private static synchronized ExecutorService getHedgeExecutor() {
+        if (hedgeExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            hedgeExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "http-hedge-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return hedgeExecutor;
+    }
+
+    /**
+     * A convenience method to GET a url and return the body as a String.
+     *
+     * @param url The url to request.
+     * @return The response body.
+     * @throws IOException If the request fails or the status isn't 2xx.
+     */
+    public static String getString(String url) throws IOException {
+        return execute(new HttpGet(url), new CheckedStringResponseHandler());
+    }
+
+    /**
+     * GETs a url and streams the body to a reader, so it never has to be held
+     * in memory whole. If the reader stops early, the rest of the body is
+     * skipped so the connection can be reused.
+     *
+     * @param url The url to request.
+     * @param reader Reads the body.
+     * @return Whatever the reader returns, or null if there's no body.
+     * @throws IOException If the request fails or the status isn't 2xx.
+     */
+    public static <T> T get(String url, BodyReader<T> reader) throws IOException {
+        return execute(new HttpGet(url), new StreamingResponseHandler<T>(decoding(reader)));
+    }
+
+    /**
+     * GETs a url, asking for the given media types, and streams the body to a
+     * reader along with the type the server chose.
+     *
+     * @param url The url to request.
+     * @param accept The Accept header.
+     * @param reader Reads the body.
+     * @return Whatever the reader returns, or null if there's no body.
+     * @throws IOException If the request fails or the status isn't 2xx.
+     */
+    public static <T> T get(String url, String accept, ContentReader<T> reader) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.setHeader("Accept", accept);
+        return execute(get, new StreamingResponseHandler<T>(reader));
+    }
+
+    /**
+     * POSTs form parameters to a url, e.g. a SPARQL query too long to send in
+     * the query string.
+     * 
+     * @param url The url to post to.
+     * @param parameters The form parameters.
+     * @return The response body.
+     * @throws IOException If the request fails or the status isn't 2xx.
+     */
+    public static String postForm(String url, Map<String, String> parameters) throws IOException {
+        return execute(formPost(url, parameters), new CheckedStringResponseHandler());
+    }
+
+    /**
+     * POSTs form parameters to a url and streams the body to a reader, see
+     * get(String, BodyReader).
+     *
+     * @param url The url to post to.
+     * @param parameters The form parameters.
+     * @param reader Reads the body.
+     * @return Whatever the reader returns, or null if there's no body.
+     * @throws IOException If the request fails or the status isn't 2xx.
+     */
+    public static <T> T postForm(String url, Map<String, String> parameters, BodyReader<T> reader) throws IOException {
+        return execute(formPost(url, parameters), new StreamingResponseHandler<T>(decoding(reader)));
+    }
+
+    /**
+     * POSTs form parameters to a url, asking for the given media types, see
+     * get(String, String, ContentReader).
+     *
+     * @param url The url to post to.
+     * @param parameters The form parameters.
+     * @param accept The Accept header.
+     * @param reader Reads the body.
+     * @return Whatever the reader returns, or null if there's no body.
+     * @throws IOException If the request fails or the status isn't 2xx.
+     */
+    public static <T> T postForm(String url, Map<String, String> parameters, String accept, ContentReader<T> reader) throws IOException {
+        HttpPost post = formPost(url, parameters);
+        post.setHeader("Accept", accept);
+        return execute(post, new StreamingResponseHandler<T>(reader));
+    }
+
+    private static <T> ContentReader<T> decoding(final BodyReader<T> reader) {
+        return (in, mimeType, charset) -> reader.read(new InputStreamReader(in, charset));
+    }
+
+    private static HttpPost formPost(String url, Map<String, String> parameters) throws IOException {
+        List<NameValuePair> form = new ArrayList<NameValuePair>();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            form.add(new BasicNameValuePair(parameter.getKey(), parameter.getValue()));
+        }
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new UrlEncodedFormEntity(form, "UTF-8"));
+        return post;
+    }
+
+    /**
+     * Closes every pooled connection and discards the shared client. The next
+     * request will create a new one.
+     */
+    public static synchronized void shutdown() {
+        if (idleMonitor != null) {
+            idleMonitor.interrupt();
+            idleMonitor = null;
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+        }
+        httpClient = null;
+    }
+
+    /**
+     * Reads the whole response body into a String, failing on anything but a
+     * 2xx status. Bodies without a charset are read as UTF-8.
+     */
+    private static class CheckedStringResponseHandler implements ResponseHandler<String> {
+        
+        public String handleResponse(HttpResponse response) throws IOException {
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                EntityUtils.consume(response.getEntity());
+                throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+            }
+            if (response.getEntity() == null) {
+                return null;
+            }
+            return EntityUtils.toString(response.getEntity(), "UTF-8");
+        }
+    }
+
+    /**
+     * Hands the response body to a ContentReader, failing on anything but a
+     * 2xx status.
+     */
+    private static class StreamingResponseHandler<T> implements ResponseHandler<T> {
+
+        private final ContentReader<T> reader;
+
+        StreamingResponseHandler(ContentReader<T> reader) {
+            this.reader = reader;
+        }
+
+        public T handleResponse(HttpResponse response) throws IOException {
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                EntityUtils.consume(response.getEntity());
+                throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return null;
+            }
+            String mimeType = null;
+            Charset charset = null;
+            try {
+                ContentType type = ContentType.get(entity);
+                if (type != null) {
+                    mimeType = type.getMimeType();
+                    charset = type.getCharset();
+                }
+            } catch (RuntimeException ex) {
+                // a malformed or unknown charset, so fall back to the default
+            }
+            InputStream in = entity.getContent();
+            try {
+                return reader.read(in, mimeType, charset != null ? charset : Charset.forName("UTF-8"));
+            } finally {
+                // drains what the reader left, so the connection goes back to the pool
+                EntityUtils.consume(entity);
+            }
+        }
+    }
+
+    /**
+     * One try at a request, shared by its hedged copies if it has any.
+     */
+    private static class Exchange {
+
+        /**
+         * Set by the first copy to get a response, which is the one used.
+         */
+        final AtomicBoolean claimed = new AtomicBoolean();
+        /**
+         * Set once a 2xx response has been handed to the handler, after which
+         * it can't be retried.
+         */
+        volatile boolean delivered;
+    }
+
+    /**
+     * Thrown by the copy of a hedged request that got its response second.
+     */
+    private static class HedgeLostException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        HedgeLostException() {
+            super("Answered by the other copy of a hedged request");
+        }
+    }
+
+    /**
+     * Notes the response time and whether the host said it was overloaded
+     * before handing the response on, if no other copy of the request got
+     * there first.
+     */
+    private static class AttemptHandler<T> implements ResponseHandler<T> {
+
+        private final ResponseHandler<T> handler;
+        private final Exchange exchange;
+        private final HttpUriRequest request;
+        private AdaptiveLimiter limiter;
+        private LatencyTracker latency;
+        private long started;
+        private boolean overloaded;
+        private volatile int status;
+
+        AttemptHandler(ResponseHandler<T> handler, Exchange exchange, HttpUriRequest request) {
+            this.handler = handler;
+            this.exchange = exchange;
+            this.request = request;
+        }
+
+        void start(AdaptiveLimiter limiter, LatencyTracker latency) {
+            this.limiter = limiter;
+            this.latency = latency;
+            this.started = System.currentTimeMillis();
+        }
+
+        public T handleResponse(HttpResponse response) throws IOException {
+            int status = response.getStatusLine().getStatusCode();
+            this.status = status;
+            if (status == 429 || status == 503) {
+                overloaded = true;
+                Header retryAfter = response.getFirstHeader("Retry-After");
+                if (retryAfter != null) {
+                    try {
+                        long seconds = Long.parseLong(retryAfter.getValue().trim());
+                        limiter.pause(Math.min(MAX_RETRY_AFTER, TimeUnit.SECONDS.toMillis(seconds)));
+                    } catch (NumberFormatException ex) {
+                        // an HTTP date, which isn't worth parsing for this
+                    }
+                }
+            } else if (status < 500) {
+                latency.record(System.currentTimeMillis() - started);
+            }
+            if (!exchange.claimed.compareAndSet(false, true)) {
+                // closes the connection rather than reading a body nobody wants
+                request.abort();
+                throw new HedgeLostException();
+            }
+            exchange.delivered = status >= 200 && status < 300;
+            return handler.handleResponse(response);
+        }
+    }
+
+    /**
+     * Honours the server's Keep-Alive header, otherwise keeps the connection
+     * for a fixed period rather than indefinitely.
+     */
+    private static class FallbackKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final ConnectionKeepAliveStrategy delegate = new DefaultConnectionKeepAliveStrategy();
+        private final long keepAlive;
+
+        FallbackKeepAliveStrategy(long keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = delegate.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        }
+    }
+
+    /**
+     * Periodically evicts expired and long idle connections, so sockets the
+     * server has already closed don't sit in the pool.
+     */
+    private static class IdleConnectionMonitor extends Thread {
+
+        private final PoolingClientConnectionManager manager;
+        private final long idleTime;
+
+        IdleConnectionMonitor(PoolingClientConnectionManager manager, long idleTime) {
+            super("http-idle-connection-monitor");
+            setDaemon(true);
+            this.manager = manager;
+            this.idleTime = idleTime;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    Thread.sleep(Math.max(1000, idleTime / 2));
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(idleTime, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ex) {
+                // shutting down
+            }
+        }
+    }
+}
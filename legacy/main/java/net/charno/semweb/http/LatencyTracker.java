@@ -0,0 +1,56 @@
+package net.charno.semweb.http;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent response times to a host, to tell how long is
+ * unusually long to wait for one.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    /**
+     * @param size The number of recent response times to keep.
+     */
+    public LatencyTracker(int size) {
+        samples = new long[Math.max(1, size)];
+    }
+
+    /**
+     * @param millis A response time.
+     */
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    /**
+     * @return The number of response times kept.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100, e.g. 95.
+     * @return The response time that percentile of recent responses came
+     * within, or -1 if there are none yet.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
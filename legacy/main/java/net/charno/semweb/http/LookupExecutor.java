@@ -0,0 +1,74 @@
+package net.charno.semweb.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The shared executor behind the asynchronous lookup methods. Requests are
+ * queued without limit but only run on a fixed number of daemon threads,
+ * sized to match the HttpTransport connection pool, so thousands of pending
+ * lookups don't cost a thread each.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public final class LookupExecutor {
+
+    private static ThreadPoolExecutor executor;
+
+    private LookupExecutor() {
+    }
+
+    /**
+     * Replaces the shared executor with one running the given number of
+     * threads. Lookups already queued on the old executor still complete.
+     *
+     * @param parallelism The number of lookups allowed in flight at once.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new LookupThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the shared executor, creating it on first use.
+     *
+     * @return The executor used by the asynchronous lookup methods.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            setParallelism(HttpTransport.DEFAULT_MAX_TOTAL);
+        }
+        return executor;
+    }
+
+    /**
+     * Runs a blocking lookup on the shared executor.
+     *
+     * @param lookup The lookup to run.
+     * @return A future completed with the lookup's result.
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> lookup) {
+        return CompletableFuture.supplyAsync(lookup, getExecutor());
+    }
+
+    private static class LookupThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "lookup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.charno.semweb.http;
+
+/**
+ * Caps retries and hedged requests at a fraction of ordinary traffic, so that
+ * when a host is struggling the extra attempts don't multiply its load. Every
+ * request deposits a fraction of a token, and every retry or hedge has to
+ * withdraw a whole one. The balance starts full, so a quiet client can still
+ * retry a handful of early failures.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double capacity;
+    private double balance;
+    private long withdrawn;
+    private long refused;
+
+    /**
+     * @param ratio The retries allowed per request, e.g. 0.1 for one retry in
+     * ten requests.
+     * @param capacity The most retries that can be saved up.
+     */
+    public RetryBudget(double ratio, int capacity) {
+        this.ratio = ratio;
+        this.capacity = Math.max(1, capacity);
+        this.balance = this.capacity;
+    }
+
+    /**
+     * Notes that a request is being sent.
+     */
+    public synchronized void deposit() {
+        balance = Math.min(capacity, balance + ratio);
+    }
+
+    /**
+     * Takes a token for a retry or hedge, if there is one.
+     *
+     * @return True if the retry can go ahead.
+     */
+    public synchronized boolean tryWithdraw() {
+        if (balance >= 1) {
+            balance -= 1;
+            withdrawn++;
+            return true;
+        }
+        refused++;
+        return false;
+    }
+
+    /**
+     * @return The number of retries and hedges allowed so far.
+     */
+    public synchronized long getWithdrawnCount() {
+        return withdrawn;
+    }
+
+    /**
+     * @return The number of retries and hedges refused so far.
+     */
+    public synchronized long getRefusedCount() {
+        return refused;
+    }
+}
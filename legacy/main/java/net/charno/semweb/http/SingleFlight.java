@@ -0,0 +1,81 @@
+package net.charno.semweb.http;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent identical requests into one. The first caller for a
+ * key makes the request, and any caller asking for the same key while it is
+ * in flight waits for and shares its result, or its failure. Once the
+ * request finishes the key is forgotten, so this doesn't cache anything.
+ * <p>
+ * Waiters get the same result object as the caller that made the request,
+ * so a mutable result should be copied before it is handed out.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<V>> calls = new ConcurrentHashMap<String, CompletableFuture<V>>();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Runs a request, unless the same one is already in flight, in which case
+     * its result is waited for instead.
+     *
+     * @param key Identifies the request, e.g. its url.
+     * @param call Makes the request.
+     * @return The request's result.
+     * @throws Exception Whatever the request threw.
+     */
+    public V execute(String key, Callable<V> call) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<V>();
+        CompletableFuture<V> existing = calls.putIfAbsent(key, flight);
+        if (existing != null) {
+            shared.incrementAndGet();
+            return await(existing);
+        }
+        try {
+            V value = call.call();
+            flight.complete(value);
+            return value;
+        } catch (Exception ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } catch (Error err) {
+            flight.completeExceptionally(err);
+            throw err;
+        } finally {
+            calls.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return The number of callers that shared another caller's request.
+     */
+    public long getSharedCount() {
+        return shared.get();
+    }
+
+    /**
+     * @return The number of requests in flight.
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) throws Exception {
+        try {
+            return flight.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.charno.semweb.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests to a host. Tokens are added at a steady rate up
+ * to a burst size, and each request takes one, waiting for it if the bucket
+ * is empty. Callers queue by reserving tokens ahead, so waits are spread
+ * fairly rather than everyone waking at once.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class TokenBucket {
+
+    private final double perNano;
+    private final double burst;
+    private double tokens;
+    private long updated;
+
+    /**
+     * @param perSecond The sustained number of requests allowed per second.
+     * @param burst The number of requests that can be made at once after a
+     * quiet spell.
+     */
+    public TokenBucket(double perSecond, int burst) {
+        this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.updated = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting until one is available.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - updated) * perNano);
+            updated = now;
+            tokens -= 1;
+            wait = tokens >= 0 ? 0 : (long) (-tokens / perNano);
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @return The sustained number of requests allowed per second.
+     */
+    public double getRate() {
+        return perNano * TimeUnit.SECONDS.toNanos(1);
+    }
+}
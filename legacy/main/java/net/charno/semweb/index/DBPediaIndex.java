@@ -0,0 +1,652 @@
+package net.charno.semweb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import net.charno.utils.NTriplesReader;
+
+/**
+ * An offline dictionary of DBpedia labels, built from the labels_en and
+ * instance_types dumps so lookupSingleThing and lookupOrganization don't
+ * have to go to dbpedia.org.
+ *
+ * The labels are written to a sorted string table: the entries are sorted
+ * by label and stored in blocks of 32, with each label front coded against
+ * the one before it and the common resource namespace left out of the uris.
+ * The table is memory mapped, and only the position of each block is held
+ * on the heap, so even the full dumps can be searched with a small heap.
+ * Each entry also records which of a few chosen rdf:types its resource has,
+ * so lookups can be restricted to, say, organisations. Category: resources
+ * are left out.
+ *
+ * Approximate matching is the exception: fuzzy() copies the labels of a type
+ * into an on-heap FuzzyIndex, at a few hundred bytes a label, so it is only
+ * offered for types with at most FUZZY_LIMIT labels, or the number set with
+ * -Ddbpedia.fuzzy.limit.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class DBPediaIndex {
+
+    public static final String RDFS_LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+    public static final String RESOURCE = "http://dbpedia.org/resource/";
+    public static final String DBO_ORGANISATION = "http://dbpedia.org/ontology/Organisation";
+    public static final String[] DEFAULT_TYPES = {DBO_ORGANISATION};
+
+    private static final int MAGIC = 0x4c444442; // LDDB
+    private static final int VERSION = 1;
+    private static final int FOOTER_SIZE = 32;
+    private static final int BLOCK_SIZE = 32;
+    private static final int RUN_SIZE = 500000;
+    /**
+     * The file is mapped in segments of this size, and no block crosses from
+     * one segment into the next.
+     */
+    private static final long SEGMENT = 1L << 30;
+    private static final int RESOURCE_FLAG = 1;
+    /**
+     * The most labels fuzzy() will hold on the heap for one type.
+     */
+    public static final int FUZZY_LIMIT = 500000;
+
+    private final MappedByteBuffer[] segments;
+    private final long[] blocks;
+    private final long entryCount;
+    private final List<String> types;
+    private final Map<String, FuzzyIndex> fuzzy = new HashMap<String, FuzzyIndex>();
+
+    private DBPediaIndex(MappedByteBuffer[] segments, long[] blocks, long entryCount, List<String> types) {
+        this.segments = segments;
+        this.blocks = blocks;
+        this.entryCount = entryCount;
+        this.types = types;
+    }
+
+    /**
+     * Opens an index file made by build().
+     *
+     * @param file The index file.
+     * @return The index.
+     * @throws IOException If the file can't be read.
+     */
+    public static DBPediaIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            raf.seek(length - FOOTER_SIZE);
+            long directory = raf.readLong();
+            int blockCount = raf.readInt();
+            long entryCount = raf.readLong();
+            int typeCount = raf.readInt();
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException("Not a DBpedia index");
+            }
+            raf.seek(directory);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD()), 65536));
+            long[] blocks = new long[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = in.readLong();
+            }
+            List<String> types = new ArrayList<String>();
+            for (int i = 0; i < typeCount; i++) {
+                types.add(in.readUTF());
+            }
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((directory + SEGMENT - 1) / SEGMENT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT;
+                segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, directory - start));
+            }
+            return new DBPediaIndex(segments, blocks, entryCount, types);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Converts DBpedia N-Triples dumps, which may be gzipped, into an index
+     * file. The dumps are read twice, first for the types and then for the
+     * English rdfs:labels, and the labels are sorted on disk, so the heap
+     * only needs to hold the resources of the chosen types.
+     *
+     * @param index The index file to write.
+     * @param types The rdf:types to record for each resource, at most 31.
+     * instance_types_transitive gives every type rather than the most specific.
+     * @param dumps The labels and types dumps.
+     * @return The number of labels indexed.
+     * @throws IOException If a file can't be read or written.
+     */
+    public static long build(File index, String[] types, File... dumps) throws IOException {
+        return build(index, types, RUN_SIZE, dumps);
+    }
+
+    /**
+     * @param runSize The number of labels to sort in memory at a time.
+     */
+    static long build(File index, String[] types, final int runSize, File... dumps) throws IOException {
+        if (types.length > 31) {
+            throw new IllegalArgumentException("Only 31 types can be recorded");
+        }
+        final Map<String, Integer> typeBits = new HashMap<String, Integer>();
+        for (int i = 0; i < types.length; i++) {
+            typeBits.put(types[i], 1 << i);
+        }
+        final Map<String, Integer> masks = new HashMap<String, Integer>();
+        for (File dump : dumps) {
+            NTriplesReader.read(dump, (subject, predicate, object, literal, language) -> {
+                Integer bit = literal || !FuzzyIndex.RDF_TYPE.equals(predicate) ? null : typeBits.get(object);
+                if (bit != null) {
+                    Integer mask = masks.get(subject);
+                    masks.put(subject, mask == null ? bit : mask | bit);
+                }
+            });
+        }
+
+        final List<File> runs = new ArrayList<File>();
+        final List<Entry> run = new ArrayList<Entry>();
+        try {
+            for (File dump : dumps) {
+                NTriplesReader.read(dump, (subject, predicate, object, literal, language) -> {
+                    if (!literal || !RDFS_LABEL.equals(predicate) || subject.startsWith(RESOURCE + "Category:")
+                            || (language != null && !language.toLowerCase().startsWith("en"))) {
+                        return;
+                    }
+                    Integer mask = masks.get(subject);
+                    run.add(new Entry(object.getBytes(StandardCharsets.UTF_8), subject, mask == null ? 0 : mask));
+                    if (run.size() == runSize) {
+                        try {
+                            runs.add(writeRun(run));
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                });
+            }
+            if (!run.isEmpty()) {
+                runs.add(writeRun(run));
+            }
+            return merge(runs, index, types);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            for (File file : runs) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Finds the resources with exactly this label.
+     *
+     * @param label The label, which is case sensitive.
+     * @param type Only return resources of this type, which must be one the
+     * index was built with, or null for any type.
+     * @return The uris, in order.
+     */
+    public List<String> findExact(String label, String type) {
+        List<String> uris = new ArrayList<String>();
+        int mask = mask(type);
+        if (mask < 0 || blocks.length == 0) {
+            return uris;
+        }
+        byte[] key = label.getBytes(StandardCharsets.UTF_8);
+        // the last block starting before the key, as the key's entries may begin in it
+        int low = 0;
+        int high = blocks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(firstKey(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        BlockReader reader = new BlockReader(Math.max(0, low - 1));
+        while (reader.next()) {
+            int compare = compare(reader.key, reader.keyLength, key);
+            if (compare > 0) {
+                break;
+            }
+            if (compare == 0 && (reader.mask & mask) == mask) {
+                uris.add(reader.uri());
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Finds the first resource with exactly this label.
+     *
+     * @param label The label, which is case sensitive.
+     * @param type The type the resource must have, or null for any type.
+     * @return The uri, or null if there isn't one.
+     */
+    public String findFirst(String label, String type) {
+        List<String> uris = findExact(label, type);
+        return uris.isEmpty() ? null : uris.get(0);
+    }
+
+    /**
+     * Returns an approximate matcher over the labels of one type, which is
+     * built from the table the first time it's asked for. Unlike the table,
+     * the matcher is held on the heap, so types with more labels than the
+     * limit aren't given one.
+     *
+     * @param type One of the types the index was built with.
+     * @return The matcher, or null if the type has too many labels.
+     */
+    public synchronized FuzzyIndex fuzzy(String type) {
+        if (fuzzy.containsKey(type)) {
+            return fuzzy.get(type);
+        }
+        int mask = mask(type);
+        int limit = Integer.getInteger("dbpedia.fuzzy.limit", FUZZY_LIMIT);
+        // count first, so a type that's too large is never copied
+        int count = 0;
+        if (mask > 0 && blocks.length > 0) {
+            BlockReader reader = new BlockReader(0);
+            while (reader.next() && count <= limit) {
+                if ((reader.mask & mask) == mask) {
+                    count++;
+                }
+            }
+        }
+        if (count > limit) {
+            System.out.println("More than " + limit + " labels of " + type + ", too many to match approximately");
+            fuzzy.put(type, null);
+            return null;
+        }
+        String[] uris = new String[count];
+        String[] labels = new String[count];
+        if (count > 0) {
+            int i = 0;
+            BlockReader reader = new BlockReader(0);
+            while (reader.next()) {
+                if ((reader.mask & mask) == mask) {
+                    uris[i] = reader.uri();
+                    labels[i] = new String(reader.key, 0, reader.keyLength, StandardCharsets.UTF_8);
+                    i++;
+                }
+            }
+        }
+        FuzzyIndex index = new FuzzyIndex(uris, labels);
+        fuzzy.put(type, index);
+        return index;
+    }
+
+    /**
+     * @return The types recorded in the index.
+     */
+    public List<String> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    /**
+     * @return The number of labels in the index.
+     */
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * @return The bits for the type, 0 for any type or -1 for a type the index
+     * doesn't record.
+     */
+    private int mask(String type) {
+        if (type == null) {
+            return 0;
+        }
+        int i = types.indexOf(type);
+        return i < 0 ? -1 : 1 << i;
+    }
+
+    private byte[] firstKey(int block) {
+        ByteBuffer buffer = block(block);
+        readVarint(buffer); // entries
+        readVarint(buffer); // shared, always 0
+        byte[] key = new byte[readVarint(buffer)];
+        buffer.get(key);
+        return key;
+    }
+
+    private ByteBuffer block(int block) {
+        ByteBuffer buffer = segments[(int) (blocks[block] / SEGMENT)].duplicate();
+        buffer.position((int) (blocks[block] % SEGMENT));
+        return buffer;
+    }
+
+    /**
+     * Walks the entries from the start of a block to the end of the table.
+     */
+    private class BlockReader {
+
+        private int block;
+        private ByteBuffer buffer;
+        private int remaining;
+        byte[] key = new byte[256];
+        int keyLength;
+        int mask;
+        private boolean resource;
+        private byte[] uri = new byte[256];
+        private int uriLength;
+
+        BlockReader(int block) {
+            this.block = block - 1;
+        }
+
+        boolean next() {
+            if (remaining == 0) {
+                if (++block == blocks.length) {
+                    return false;
+                }
+                buffer = block(block);
+                remaining = readVarint(buffer);
+            }
+            remaining--;
+            int shared = readVarint(buffer);
+            int suffix = readVarint(buffer);
+            if (shared + suffix > key.length) {
+                key = Arrays.copyOf(key, Math.max(shared + suffix, key.length * 2));
+            }
+            buffer.get(key, shared, suffix);
+            keyLength = shared + suffix;
+            int flags = readVarint(buffer);
+            resource = (flags & RESOURCE_FLAG) != 0;
+            mask = flags >>> 1;
+            uriLength = readVarint(buffer);
+            if (uriLength > uri.length) {
+                uri = new byte[Math.max(uriLength, uri.length * 2)];
+            }
+            buffer.get(uri, 0, uriLength);
+            return true;
+        }
+
+        String uri() {
+            String value = new String(uri, 0, uriLength, StandardCharsets.UTF_8);
+            return resource ? RESOURCE + value : value;
+        }
+    }
+
+    private static File writeRun(List<Entry> run) throws IOException {
+        Collections.sort(run, ENTRY_ORDER);
+        File file = File.createTempFile("dbpedia", ".run");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            for (Entry entry : run) {
+                entry.write(out);
+            }
+        } finally {
+            out.close();
+        }
+        run.clear();
+        return file;
+    }
+
+    /**
+     * Merges the sorted runs into the table, dropping repeated entries.
+     */
+    private static long merge(List<File> runs, File index, String[] types) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+            public int compare(RunReader a, RunReader b) {
+                return ENTRY_ORDER.compare(a.entry, b.entry);
+            }
+        });
+        try {
+            for (File file : runs) {
+                RunReader reader = new RunReader(file);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(index), 65536));
+            DataOutputStream out = new DataOutputStream(counter);
+            try {
+                long[] blocks = new long[1024];
+                int blockCount = 0;
+                long entryCount = 0;
+                List<Entry> block = new ArrayList<Entry>(BLOCK_SIZE);
+                Entry previous = null;
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    Entry entry = reader.entry;
+                    if (reader.next()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                    if (previous != null && ENTRY_ORDER.compare(previous, entry) == 0) {
+                        continue;
+                    }
+                    previous = entry;
+                    entryCount++;
+                    block.add(entry);
+                    if (block.size() == BLOCK_SIZE) {
+                        if (blockCount == blocks.length) {
+                            blocks = Arrays.copyOf(blocks, blockCount * 2);
+                        }
+                        blocks[blockCount++] = writeBlock(counter, block);
+                    }
+                }
+                if (!block.isEmpty()) {
+                    if (blockCount == blocks.length) {
+                        blocks = Arrays.copyOf(blocks, blockCount + 1);
+                    }
+                    blocks[blockCount++] = writeBlock(counter, block);
+                }
+                long directory = counter.count;
+                for (int i = 0; i < blockCount; i++) {
+                    out.writeLong(blocks[i]);
+                }
+                for (String type : types) {
+                    out.writeUTF(type);
+                }
+                out.writeLong(directory);
+                out.writeInt(blockCount);
+                out.writeLong(entryCount);
+                out.writeInt(types.length);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                return entryCount;
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a block, padding to the next segment first if it wouldn't fit
+     * in this one.
+     *
+     * @return Where the block starts.
+     */
+    private static long writeBlock(CountingOutputStream out, List<Entry> block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        writeVarint(bytes, block.size());
+        byte[] previous = new byte[0];
+        for (Entry entry : block) {
+            int shared = 0;
+            int max = Math.min(previous.length, entry.label.length);
+            while (shared < max && previous[shared] == entry.label[shared]) {
+                shared++;
+            }
+            writeVarint(bytes, shared);
+            writeVarint(bytes, entry.label.length - shared);
+            bytes.write(entry.label, shared, entry.label.length - shared);
+            boolean resource = entry.uri.startsWith(RESOURCE);
+            byte[] uri = (resource ? entry.uri.substring(RESOURCE.length()) : entry.uri).getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes, entry.mask << 1 | (resource ? RESOURCE_FLAG : 0));
+            writeVarint(bytes, uri.length);
+            bytes.write(uri, 0, uri.length);
+            previous = entry.label;
+        }
+        long start = out.count;
+        if (start % SEGMENT + bytes.size() > SEGMENT) {
+            long padding = SEGMENT - start % SEGMENT;
+            for (long i = 0; i < padding; i++) {
+                out.write(0);
+            }
+            start += padding;
+        }
+        bytes.writeTo(out);
+        block.clear();
+        return start;
+    }
+
+    /**
+     * Counts the bytes written, as DataOutputStream.size() stops at 2GB.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        return compare(a, a.length, b);
+    }
+
+    /**
+     * Compares UTF-8 byte strings, unsigned, which sorts them by code point.
+     */
+    private static int compare(byte[] a, int aLength, byte[] b) {
+        int length = Math.min(aLength, b.length);
+        for (int i = 0; i < length; i++) {
+            int compare = (a[i] & 0xff) - (b[i] & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return aLength - b.length;
+    }
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int compare = DBPediaIndex.compare(a.label, b.label);
+            return compare != 0 ? compare : a.uri.compareTo(b.uri);
+        }
+    };
+
+    private static class Entry {
+
+        final byte[] label;
+        final String uri;
+        final int mask;
+
+        Entry(byte[] label, String uri, int mask) {
+            this.label = label;
+            this.uri = uri;
+            this.mask = mask;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(label.length);
+            out.write(label);
+            out.writeUTF(uri);
+            out.writeInt(mask);
+        }
+    }
+
+    private static class RunReader {
+
+        private final DataInputStream in;
+        Entry entry;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        }
+
+        boolean next() throws IOException {
+            try {
+                byte[] label = new byte[in.readInt()];
+                in.readFully(label);
+                entry = new Entry(label, in.readUTF(), in.readInt());
+                return true;
+            } catch (EOFException ex) {
+                return false;
+            }
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds an index from the command line, recording the DEFAULT_TYPES.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java net.charno.semweb.index.DBPediaIndex [INDEX_FILE] [DUMP_FILE]...");
+            return;
+        }
+        File[] dumps = new File[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            dumps[i - 1] = new File(args[i]);
+        }
+        long labels = build(new File(args[0]), DEFAULT_TYPES, dumps);
+        System.out.println(labels + " labels written to " + args[0]);
+    }
+}
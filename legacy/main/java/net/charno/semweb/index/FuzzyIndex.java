@@ -0,0 +1,398 @@
+package net.charno.semweb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.charno.semweb.bindings.ScoredURILabelBinding;
+import net.charno.utils.NTriplesReader;
+
+/**
+ * An approximate label matcher, used in place of the FILTER regex SPARQL
+ * queries that the endpoints answer by scanning every label.
+ *
+ * Each label is broken into trigrams, with a list of the labels holding each
+ * trigram. A search counts the trigrams each label shares with the query and
+ * only labels sharing enough of them to be within the allowed number of
+ * edits are checked, using an edit distance against the closest part of the
+ * label. The allowed edits grow with the length of the query, from none for
+ * up to five characters to three for twelve or more.
+ *
+ * Queries of one or two characters have no trigrams to filter on, so rather
+ * than check every label they only match the start of one, looked up in the
+ * sorted labels, and only the first SHORT_QUERY_SCAN such labels in
+ * alphabetical order are ranked.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class FuzzyIndex {
+
+    public static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+    /**
+     * The most labels ranked for a query too short to have a trigram.
+     */
+    public static final int SHORT_QUERY_SCAN = 1000;
+
+    private static final Comparator<ScoredURILabelBinding> BEST_FIRST = new Comparator<ScoredURILabelBinding>() {
+        public int compare(ScoredURILabelBinding a, ScoredURILabelBinding b) {
+            if (a.getScore() != b.getScore()) {
+                return a.getScore() > b.getScore() ? -1 : 1;
+            }
+            return a.getLabel().compareTo(b.getLabel());
+        }
+    };
+
+    private final String[] uris;
+    private final String[] labels;
+    private final String[] keys;
+    private final Map<Long, int[]> postings;
+    /** The entries in order of their keys, for exact and short matches. */
+    private final int[] sorted;
+    /**
+     * The trigrams each label shares with the query, kept per thread and
+     * cleared after each search rather than allocated for every one.
+     */
+    private final ThreadLocal<int[]> counts = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[keys.length];
+        }
+    };
+
+    /**
+     * @param uris The uri of each label.
+     * @param labels The labels to search.
+     */
+    public FuzzyIndex(String[] uris, String[] labels) {
+        this(uris, labels, labels);
+    }
+
+    /**
+     * @param uris The uri of each label.
+     * @param labels The label to return for each entry.
+     * @param matchLabels The label to search for each entry, such as an
+     * altLabel standing in for its concept's prefLabel.
+     */
+    FuzzyIndex(String[] uris, String[] labels, String[] matchLabels) {
+        this.uris = uris;
+        this.labels = labels;
+        this.keys = new String[matchLabels.length];
+        // the first element of each list is the number of labels in it
+        Map<Long, int[]> lists = new HashMap<Long, int[]>();
+        for (int i = 0; i < matchLabels.length; i++) {
+            keys[i] = SkosIndex.normalise(matchLabels[i]);
+            for (int j = 0; j + 3 <= keys[i].length(); j++) {
+                Long trigram = trigram(keys[i], j);
+                int[] list = lists.get(trigram);
+                if (list == null) {
+                    list = new int[4];
+                    lists.put(trigram, list);
+                } else if (list[list[0]] == i) {
+                    continue;
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    lists.put(trigram, list);
+                }
+                list[++list[0]] = i;
+            }
+        }
+        this.postings = new HashMap<Long, int[]>(lists.size() * 2);
+        for (Map.Entry<Long, int[]> entry : lists.entrySet()) {
+            int[] list = entry.getValue();
+            postings.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+        }
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return keys[a].compareTo(keys[b]);
+            }
+        });
+        this.sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = order[i];
+        }
+    }
+
+    /**
+     * Reads the labels with the given predicate from N-Triples files, which may
+     * be gzipped. Only English or untagged labels are kept.
+     *
+     * @param labelPredicate The label property, such as rdfs:label.
+     * @param type Only keep resources with this rdf:type, or null to keep all.
+     * The types may be in different files to the labels.
+     * @param files The dumps.
+     * @return The index.
+     * @throws IOException If a file can't be read.
+     */
+    public static FuzzyIndex load(final String labelPredicate, final String type, File... files) throws IOException {
+        final Set<String> typed = new HashSet<String>();
+        if (type != null) {
+            for (File file : files) {
+                NTriplesReader.read(file, (subject, predicate, object, literal, language) -> {
+                    if (!literal && RDF_TYPE.equals(predicate) && type.equals(object)) {
+                        typed.add(subject);
+                    }
+                });
+            }
+        }
+        final List<String> uris = new ArrayList<String>();
+        final List<String> labels = new ArrayList<String>();
+        for (File file : files) {
+            NTriplesReader.read(file, (subject, predicate, object, literal, language) -> {
+                if (literal && labelPredicate.equals(predicate)
+                        && (language == null || language.toLowerCase().startsWith("en"))
+                        && (type == null || typed.contains(subject))) {
+                    uris.add(subject);
+                    labels.add(object);
+                }
+            });
+        }
+        return new FuzzyIndex(uris.toArray(new String[0]), labels.toArray(new String[0]));
+    }
+
+    /**
+     * Finds the labels containing the text, or something close to it,
+     * ignoring case. Like FILTER regex(?label, "text", "i") but tolerant of
+     * typos.
+     *
+     * @param text The text to look for.
+     * @param limit The maximum number of results.
+     * @return The matches, best first, with one result per uri.
+     */
+    public List<ScoredURILabelBinding> findSimilar(String text, int limit) {
+        return search(text, limit, false);
+    }
+
+    /**
+     * Finds the labels starting with the text, or something close to it,
+     * ignoring case. Like FILTER regex(?label, "^text", "i") but tolerant of
+     * typos.
+     *
+     * @param text The start of the label.
+     * @param limit The maximum number of results.
+     * @return The matches, best first, with one result per uri.
+     */
+    public List<ScoredURILabelBinding> findStartingWith(String text, int limit) {
+        return search(text, limit, true);
+    }
+
+    /**
+     * Finds the labels that are the text, ignoring case and surrounding space, with no
+     * allowance for typos.
+     *
+     * @param text The label.
+     * @param limit The maximum number of results.
+     * @return The matches, with one result per uri.
+     */
+    public List<ScoredURILabelBinding> findExact(String text, int limit) {
+        List<ScoredURILabelBinding> results = new ArrayList<ScoredURILabelBinding>();
+        String key = SkosIndex.normalise(text);
+        Set<String> seen = new HashSet<String>();
+        for (int s = lowerBound(key); s < sorted.length && results.size() < limit && keys[sorted[s]].equals(key); s++) {
+            int i = sorted[s];
+            if (seen.add(uris[i])) {
+                results.add(new ScoredURILabelBinding(uris[i], labels[i], 1.0));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return The number of labels in the index.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    private List<ScoredURILabelBinding> search(String text, int limit, boolean prefix) {
+        List<ScoredURILabelBinding> matches = new ArrayList<ScoredURILabelBinding>();
+        String query = SkosIndex.normalise(text);
+        int m = query.length();
+        if (m == 0 || limit <= 0) {
+            return matches;
+        }
+        int k = maxEdits(m);
+        int[] candidates = m < 3 ? startingWith(query) : candidates(query, k);
+        for (int i : candidates) {
+            String key = keys[i];
+            if (key.length() < m - k) {
+                continue;
+            }
+            int d = prefix ? prefixDistance(query, key, k) : substringDistance(query, key);
+            if (d <= k) {
+                double score = (1.0 - (double) d / m) * (0.5 + 0.5 * m / Math.max(m, key.length()));
+                matches.add(new ScoredURILabelBinding(uris[i], labels[i], score));
+            }
+        }
+        Collections.sort(matches, BEST_FIRST);
+
+        List<ScoredURILabelBinding> results = new ArrayList<ScoredURILabelBinding>();
+        Set<String> seen = new HashSet<String>();
+        for (ScoredURILabelBinding match : matches) {
+            if (results.size() == limit) {
+                break;
+            }
+            if (seen.add(match.getUri())) {
+                results.add(match);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The edits allowed for a query of the given length. It is kept low enough
+     * that a match always shares a trigram with the query.
+     */
+    static int maxEdits(int length) {
+        return length < 6 ? 0 : Math.min(3, (length - 3) / 3);
+    }
+
+    /**
+     * @return The first SHORT_QUERY_SCAN labels starting with the query.
+     */
+    private int[] startingWith(String query) {
+        int start = lowerBound(query);
+        int end = start;
+        while (end < sorted.length && end - start < SHORT_QUERY_SCAN && keys[sorted[end]].startsWith(query)) {
+            end++;
+        }
+        return Arrays.copyOfRange(sorted, start, end);
+    }
+
+    /**
+     * @return The position in sorted of the first key not before the given
+     * one.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[sorted[middle]].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the labels sharing enough trigrams with the query to contain it
+     * within k edits. Every edit breaks at most three of the query's
+     * trigrams, so a match shares at least m - 2 - 3k of them, which is at
+     * least one for any query of three or more characters.
+     *
+     * @return The candidate labels.
+     */
+    private int[] candidates(String query, int k) {
+        int needed = query.length() - 2 - 3 * k;
+        Map<Long, Integer> weights = new HashMap<Long, Integer>();
+        for (int j = 0; j + 3 <= query.length(); j++) {
+            Long trigram = trigram(query, j);
+            Integer weight = weights.get(trigram);
+            weights.put(trigram, weight == null ? 1 : weight + 1);
+        }
+        int[] counts = this.counts.get();
+        int[] found = new int[16];
+        int size = 0;
+        for (Map.Entry<Long, Integer> weight : weights.entrySet()) {
+            int[] list = postings.get(weight.getKey());
+            if (list == null) {
+                continue;
+            }
+            for (int i : list) {
+                int before = counts[i];
+                counts[i] += weight.getValue();
+                if (before < needed && counts[i] >= needed) {
+                    if (size == found.length) {
+                        found = Arrays.copyOf(found, size * 2);
+                    }
+                    found[size++] = i;
+                }
+            }
+        }
+        // clear what this search counted, for the next one on this thread
+        for (Long trigram : weights.keySet()) {
+            int[] list = postings.get(trigram);
+            if (list != null) {
+                for (int i : list) {
+                    counts[i] = 0;
+                }
+            }
+        }
+        return Arrays.copyOf(found, size);
+    }
+
+    private static Long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * The fewest edits turning the query into any part of the label.
+     */
+    static int substringDistance(String query, String label) {
+        int m = query.length();
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            previous[i] = i;
+        }
+        int best = previous[m];
+        for (int j = 0; j < label.length() && best > 0; j++) {
+            char c = label.charAt(j);
+            current[0] = 0;
+            for (int i = 1; i <= m; i++) {
+                int substitute = previous[i - 1] + (query.charAt(i - 1) == c ? 0 : 1);
+                current[i] = Math.min(substitute, Math.min(previous[i], current[i - 1]) + 1);
+            }
+            best = Math.min(best, current[m]);
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return best;
+    }
+
+    /**
+     * The fewest edits turning the query into the start of the label.
+     */
+    static int prefixDistance(String query, String label, int k) {
+        int m = query.length();
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            previous[i] = i;
+        }
+        int best = previous[m];
+        for (int j = 0; j < label.length() && best > 0; j++) {
+            char c = label.charAt(j);
+            current[0] = j + 1;
+            int lowest = current[0];
+            for (int i = 1; i <= m; i++) {
+                int substitute = previous[i - 1] + (query.charAt(i - 1) == c ? 0 : 1);
+                current[i] = Math.min(substitute, Math.min(previous[i], current[i - 1]) + 1);
+                lowest = Math.min(lowest, current[i]);
+            }
+            best = Math.min(best, current[m]);
+            // every cell is over the limit, so a longer prefix can't do better
+            if (lowest > k) {
+                break;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,345 @@
+package net.charno.semweb.index;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import net.charno.semweb.bindings.GeonamesBinding;
+
+/**
+ * An offline gazetteer built from the Geonames dump files (allCountries.txt
+ * or a single country such as GB.txt), so place lookups don't count against
+ * the api.geonames.org quota.
+ *
+ * Only administrative (A) and populated place (P) features are kept, as in
+ * the GeonamesClient searches. The dump is converted once into an index file
+ * holding a sorted table of hashed, normalised names (the name, ascii name and
+ * every alternate name) followed by one compact record per place. The index
+ * file is memory mapped, so searching it needs almost no heap.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class GeonamesIndex {
+
+    private static final int MAGIC = 0x4c444749; // LDGI
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final String URI = "http://sws.geonames.org/";
+
+    private final MappedByteBuffer buffer;
+    private final int keyCount;
+    private final int recordsStart;
+
+    private GeonamesIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a geonames index");
+        }
+        this.keyCount = buffer.getInt(8);
+        this.recordsStart = buffer.getInt(12);
+    }
+
+    /**
+     * Opens an index file made by build().
+     *
+     * @param file The index file.
+     * @return The index.
+     * @throws IOException If the file can't be read.
+     */
+    public static GeonamesIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new GeonamesIndex(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Converts Geonames dump files into an index file.
+     *
+     * @param index The index file to write.
+     * @param dumps The tab separated dump files, which may be gzipped.
+     * @return The number of places indexed.
+     * @throws IOException If a file can't be read or written.
+     */
+    public static int build(File index, File... dumps) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(1 << 20);
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        long[] hashes = new long[1 << 16];
+        int[] offsets = new int[1 << 16];
+        int keys = 0;
+        int places = 0;
+
+        for (File dump : dumps) {
+            InputStream in = new FileInputStream(dump);
+            if (dump.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 65536);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 65536);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length < 15 || !("A".equals(fields[6]) || "P".equals(fields[6]))) {
+                        continue;
+                    }
+                    int offset = records.size();
+                    records.writeInt(Integer.parseInt(fields[0]));
+                    records.writeLong(fields[14].isEmpty() ? 0 : Long.parseLong(fields[14]));
+                    writeString(records, fields[1]);
+                    writeString(records, fields[8]);
+                    writeString(records, fields[6]);
+                    writeString(records, fields[7]);
+                    places++;
+
+                    Set<Long> names = new HashSet<Long>();
+                    names.add(hash(fields[1]));
+                    names.add(hash(fields[2]));
+                    for (String alternate : fields[3].split(",")) {
+                        if (!alternate.isEmpty()) {
+                            names.add(hash(alternate));
+                        }
+                    }
+                    for (Long name : names) {
+                        if (keys == hashes.length) {
+                            hashes = Arrays.copyOf(hashes, keys * 2);
+                            offsets = Arrays.copyOf(offsets, keys * 2);
+                        }
+                        hashes[keys] = name;
+                        offsets[keys++] = offset;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        records.close();
+        sort(hashes, offsets, 0, keys - 1);
+
+        long recordsStart = HEADER_SIZE + keys * 12L;
+        if (recordsStart + records.size() > Integer.MAX_VALUE) {
+            throw new IOException("Too many places for one index file, build one per country instead");
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys);
+            out.writeInt((int) recordsStart);
+            for (int i = 0; i < keys; i++) {
+                out.writeLong(hashes[i]);
+            }
+            for (int i = 0; i < keys; i++) {
+                out.writeInt(offsets[i]);
+            }
+            recordBytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+        return places;
+    }
+
+    /**
+     * Finds the places with a name or alternate name equal to the location,
+     * ignoring case, with the most populous first.
+     *
+     * @param location The place name.
+     * @param country A country code to restrict the search to, or null.
+     * @param countryBias A country code whose places are listed first, or null.
+     * @param results The maximum number of places to return.
+     * @return The places, keyed by their Geonames uri, in order.
+     */
+    public Map<String, GeonamesBinding> find(String location, String country, String countryBias, int results) {
+        List<Place> places = new ArrayList<Place>();
+        long hash = hash(location);
+        for (int i = lowerBound(hash); i < keyCount && buffer.getLong(HEADER_SIZE + i * 8) == hash; i++) {
+            Place place = readPlace(buffer.getInt(HEADER_SIZE + keyCount * 8 + i * 4));
+            if (country == null || country.equalsIgnoreCase(place.countryCode)) {
+                places.add(place);
+            }
+        }
+        Collections.sort(places, new PlaceComparator(countryBias));
+
+        Map<String, GeonamesBinding> bindings = new LinkedHashMap<String, GeonamesBinding>();
+        for (Place place : places) {
+            if (bindings.size() == results) {
+                break;
+            }
+            GeonamesBinding geonamesBinding = new GeonamesBinding();
+            geonamesBinding.setToponymName(place.name);
+            geonamesBinding.setCountryCode(place.countryCode);
+            geonamesBinding.setFunctionClass(place.featureClass);
+            geonamesBinding.setFunctionCode(place.featureCode);
+            bindings.put(URI + place.geonameId, geonamesBinding);
+        }
+        return bindings;
+    }
+
+    /**
+     * @return The number of names in the index.
+     */
+    public int size() {
+        return keyCount;
+    }
+
+    private int lowerBound(long hash) {
+        int low = 0;
+        int high = keyCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(HEADER_SIZE + mid * 8) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Place readPlace(int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(recordsStart + offset);
+        Place place = new Place();
+        place.geonameId = record.getInt();
+        place.population = record.getLong();
+        place.name = readString(record);
+        place.countryCode = readString(record);
+        place.featureClass = readString(record);
+        place.featureCode = readString(record);
+        return place;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xffff];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the normalised name.
+     */
+    static long hash(String name) {
+        String normalised = name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalised.length(); i++) {
+            hash ^= normalised.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Sorts the hashes, keeping each offset alongside its hash.
+     */
+    private static void sort(long[] hashes, int[] offsets, int low, int high) {
+        while (low < high) {
+            long pivot = hashes[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (hashes[i] < pivot) {
+                    i++;
+                }
+                while (hashes[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long h = hashes[i];
+                    hashes[i] = hashes[j];
+                    hashes[j] = h;
+                    int o = offsets[i];
+                    offsets[i] = offsets[j];
+                    offsets[j] = o;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half to keep the stack shallow
+            if (j - low < high - i) {
+                sort(hashes, offsets, low, j);
+                low = i;
+            } else {
+                sort(hashes, offsets, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static class Place {
+
+        int geonameId;
+        long population;
+        String name;
+        String countryCode;
+        String featureClass;
+        String featureCode;
+    }
+
+    private static class PlaceComparator implements Comparator<Place> {
+
+        private final String countryBias;
+
+        PlaceComparator(String countryBias) {
+            this.countryBias = countryBias;
+        }
+
+        public int compare(Place a, Place b) {
+            if (countryBias != null) {
+                boolean aBiased = countryBias.equalsIgnoreCase(a.countryCode);
+                boolean bBiased = countryBias.equalsIgnoreCase(b.countryCode);
+                if (aBiased != bBiased) {
+                    return aBiased ? -1 : 1;
+                }
+            }
+            if (a.population != b.population) {
+                return a.population > b.population ? -1 : 1;
+            }
+            return a.geonameId - b.geonameId;
+        }
+    }
+
+    /**
+     * Builds an index from the command line.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java net.charno.semweb.index.GeonamesIndex [INDEX_FILE] [DUMP_FILE]...");
+            return;
+        }
+        File[] dumps = new File[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            dumps[i - 1] = new File(args[i]);
+        }
+        int places = build(new File(args[0]), dumps);
+        System.out.println(places + " places written to " + args[0]);
+    }
+}
@@ -0,0 +1,374 @@
+package net.charno.semweb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import net.charno.semweb.bindings.ScoredURILabelBinding;
+import net.charno.semweb.bindings.URILabelBinding;
+import net.charno.utils.NTriplesReader;
+
+/**
+ * An in-memory index of SKOS concept schemes loaded from N-Triples dumps, so
+ * vocabulary lookups such as the heritagedata.org periods and object types
+ * can be answered without going to the network.
+ *
+ * For each scheme the index holds a sorted table of lower cased prefLabels
+ * and altLabels, which is binary searched for exact and prefix matches, and
+ * a suffix array over the same labels for substring matches. Approximate
+ * matches go through a FuzzyIndex over the same labels.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class SkosIndex {
+
+    public static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+    public static final String SKOS_IN_SCHEME = SKOS + "inScheme";
+    public static final String SKOS_PREF_LABEL = SKOS + "prefLabel";
+    public static final String SKOS_ALT_LABEL = SKOS + "altLabel";
+
+    private final String[] uris;
+    private final String[] prefLabels;
+    private final Map<String, LabelTable> tables;
+
+    private SkosIndex(String[] uris, String[] prefLabels, Map<String, LabelTable> tables) {
+        this.uris = uris;
+        this.prefLabels = prefLabels;
+        this.tables = tables;
+    }
+
+    /**
+     * Loads every concept with a skos:inScheme from the given N-Triples files,
+     * which may be gzipped.
+     *
+     * @param files The SKOS dumps.
+     * @return The index.
+     * @throws IOException If a file can't be read.
+     */
+    public static SkosIndex load(File... files) throws IOException {
+        Builder builder = new Builder();
+        for (File file : files) {
+            NTriplesReader.read(file, builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Finds a concept whose prefLabel matches the label, ignoring case.
+     *
+     * @param scheme The concept scheme uri.
+     * @param label The label to match.
+     * @return The concept uri, or null if there isn't one.
+     */
+    public String findExact(String scheme, String label) {
+        LabelTable table = tables.get(scheme);
+        if (table == null) {
+            return null;
+        }
+        String key = normalise(label);
+        for (int i = table.lowerBound(key); i < table.labels.length && table.labels[i].equals(key); i++) {
+            if (table.preferred[i]) {
+                return uris[table.concepts[i]];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds a concept whose prefLabel starts with the prefix, ignoring case.
+     * The shortest, then alphabetically first, matching label wins.
+     *
+     * @param scheme The concept scheme uri.
+     * @param prefix The start of the label.
+     * @return The concept uri, or null if there isn't one.
+     */
+    public String findPrefix(String scheme, String prefix) {
+        LabelTable table = tables.get(scheme);
+        if (table == null) {
+            return null;
+        }
+        String key = normalise(prefix);
+        int best = -1;
+        for (int i = table.lowerBound(key); i < table.labels.length && table.labels[i].startsWith(key); i++) {
+            if (table.preferred[i] && (best < 0 || table.labels[i].length() < table.labels[best].length())) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : uris[table.concepts[best]];
+    }
+
+    /**
+     * Finds every concept with a prefLabel or altLabel containing the text,
+     * ignoring case, in the same form as the heritagedata.org
+     * getConceptLabelMatch service.
+     *
+     * @param scheme The concept scheme uri.
+     * @param text The text to look for.
+     * @return The matching concepts and their prefLabels, sorted by label.
+     */
+    public List<URILabelBinding> findContaining(String scheme, String text) {
+        List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+        LabelTable table = tables.get(scheme);
+        if (table == null) {
+            return results;
+        }
+        BitSet matches = table.substrings().find(normalise(text));
+        BitSet concepts = new BitSet();
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            int concept = table.concepts[i];
+            if (!concepts.get(concept)) {
+                concepts.set(concept);
+                String label = prefLabels[concept] != null ? prefLabels[concept] : table.labels[i];
+                results.add(new URILabelBinding(uris[concept], label));
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    /**
+     * Finds the concepts with a prefLabel or altLabel containing the text, or
+     * something close to it, ignoring case.
+     *
+     * @param scheme The concept scheme uri.
+     * @param text The text to look for.
+     * @param limit The maximum number of results.
+     * @return The matching concepts and their prefLabels, best first.
+     */
+    public List<ScoredURILabelBinding> findSimilar(String scheme, String text, int limit) {
+        LabelTable table = tables.get(scheme);
+        if (table == null) {
+            return new ArrayList<ScoredURILabelBinding>();
+        }
+        return table.fuzzy(uris, prefLabels).findSimilar(text, limit);
+    }
+
+    /**
+     * Finds the concepts with a prefLabel or altLabel starting with the text,
+     * or something close to it, ignoring case.
+     *
+     * @param scheme The concept scheme uri.
+     * @param text The start of the label.
+     * @param limit The maximum number of results.
+     * @return The matching concepts and their prefLabels, best first.
+     */
+    public List<ScoredURILabelBinding> findStartingWith(String scheme, String text, int limit) {
+        LabelTable table = tables.get(scheme);
+        if (table == null) {
+            return new ArrayList<ScoredURILabelBinding>();
+        }
+        return table.fuzzy(uris, prefLabels).findStartingWith(text, limit);
+    }
+
+    /**
+     * @return The uris of the schemes in the index.
+     */
+    public Set<String> getSchemes() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * @return The number of concepts in the index.
+     */
+    public int size() {
+        return uris.length;
+    }
+
+    public String getUri(int concept) {
+        return uris[concept];
+    }
+
+    public String getPrefLabel(int concept) {
+        return prefLabels[concept];
+    }
+
+    static String normalise(String label) {
+        return label.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The sorted labels of one scheme, with the concept each belongs to.
+     */
+    static class LabelTable {
+
+        final String[] labels;
+        final int[] concepts;
+        final boolean[] preferred;
+        private SubstringIndex substrings;
+        private FuzzyIndex fuzzy;
+
+        LabelTable(String[] labels, int[] concepts, boolean[] preferred) {
+            this.labels = labels;
+            this.concepts = concepts;
+            this.preferred = preferred;
+        }
+
+        /**
+         * Builds the substring index the first time it's needed.
+         */
+        synchronized SubstringIndex substrings() {
+            if (substrings == null) {
+                substrings = new SubstringIndex(labels);
+            }
+            return substrings;
+        }
+
+        /**
+         * Builds the approximate matcher the first time it's needed.
+         */
+        synchronized FuzzyIndex fuzzy(String[] uris, String[] prefLabels) {
+            if (fuzzy == null) {
+                String[] labelUris = new String[labels.length];
+                String[] displayLabels = new String[labels.length];
+                for (int i = 0; i < labels.length; i++) {
+                    labelUris[i] = uris[concepts[i]];
+                    displayLabels[i] = prefLabels[concepts[i]] != null ? prefLabels[concepts[i]] : labels[i];
+                }
+                fuzzy = new FuzzyIndex(labelUris, displayLabels, labels);
+            }
+            return fuzzy;
+        }
+
+        int lowerBound(String key) {
+            int low = 0;
+            int high = labels.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (labels[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Collects the triples of interest, then freezes them into arrays.
+     */
+    private static class Builder implements NTriplesReader.TripleHandler {
+
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> uris = new ArrayList<String>();
+        private final List<String> prefLabels = new ArrayList<String>();
+        private final List<List<String>> altLabels = new ArrayList<List<String>>();
+        private final List<List<String>> schemes = new ArrayList<List<String>>();
+        private final BitSet englishPrefLabels = new BitSet();
+
+        public void triple(String subject, String predicate, String object, boolean literal, String language) {
+            if (SKOS_IN_SCHEME.equals(predicate) && !literal) {
+                List<String> conceptSchemes = schemes.get(id(subject));
+                if (!conceptSchemes.contains(object)) {
+                    conceptSchemes.add(object);
+                }
+            } else if (SKOS_PREF_LABEL.equals(predicate) && literal) {
+                int id = id(subject);
+                // prefer an english label when there is more than one, and keep the others as altLabels
+                if (prefLabels.get(id) == null) {
+                    prefLabels.set(id, object);
+                    englishPrefLabels.set(id, isEnglish(language));
+                } else if (isEnglish(language) && !englishPrefLabels.get(id)) {
+                    altLabels.get(id).add(prefLabels.get(id));
+                    prefLabels.set(id, object);
+                    englishPrefLabels.set(id);
+                } else {
+                    altLabels.get(id).add(object);
+                }
+            } else if (SKOS_ALT_LABEL.equals(predicate) && literal) {
+                altLabels.get(id(subject)).add(object);
+            }
+        }
+
+        private int id(String uri) {
+            Integer id = ids.get(uri);
+            if (id == null) {
+                id = uris.size();
+                ids.put(uri, id);
+                uris.add(uri);
+                prefLabels.add(null);
+                altLabels.add(new ArrayList<String>(1));
+                schemes.add(new ArrayList<String>(1));
+            }
+            return id;
+        }
+
+        private static boolean isEnglish(String language) {
+            return language == null || language.toLowerCase(Locale.ENGLISH).startsWith("en");
+        }
+
+        SkosIndex build() {
+            // drop anything that isn't in a scheme, e.g. the schemes themselves
+            List<Integer> kept = new ArrayList<Integer>();
+            for (int id = 0; id < uris.size(); id++) {
+                if (!schemes.get(id).isEmpty()) {
+                    kept.add(id);
+                }
+            }
+            String[] keptUris = new String[kept.size()];
+            String[] keptLabels = new String[kept.size()];
+            Map<String, List<LabelEntry>> entries = new HashMap<String, List<LabelEntry>>();
+            for (int concept = 0; concept < kept.size(); concept++) {
+                int id = kept.get(concept);
+                keptUris[concept] = uris.get(id);
+                keptLabels[concept] = prefLabels.get(id);
+                for (String scheme : schemes.get(id)) {
+                    List<LabelEntry> schemeEntries = entries.get(scheme);
+                    if (schemeEntries == null) {
+                        schemeEntries = new ArrayList<LabelEntry>();
+                        entries.put(scheme, schemeEntries);
+                    }
+                    if (prefLabels.get(id) != null) {
+                        schemeEntries.add(new LabelEntry(normalise(prefLabels.get(id)), concept, true));
+                    }
+                    for (String altLabel : altLabels.get(id)) {
+                        schemeEntries.add(new LabelEntry(normalise(altLabel), concept, false));
+                    }
+                }
+            }
+            Map<String, LabelTable> tables = new HashMap<String, LabelTable>();
+            for (Map.Entry<String, List<LabelEntry>> scheme : entries.entrySet()) {
+                LabelEntry[] sorted = scheme.getValue().toArray(new LabelEntry[0]);
+                Arrays.sort(sorted);
+                String[] labels = new String[sorted.length];
+                int[] concepts = new int[sorted.length];
+                boolean[] preferred = new boolean[sorted.length];
+                for (int i = 0; i < sorted.length; i++) {
+                    labels[i] = sorted[i].label;
+                    concepts[i] = sorted[i].concept;
+                    preferred[i] = sorted[i].preferred;
+                }
+                tables.put(scheme.getKey(), new LabelTable(labels, concepts, preferred));
+            }
+            return new SkosIndex(keptUris, keptLabels, tables);
+        }
+    }
+
+    private static class LabelEntry implements Comparable<LabelEntry> {
+
+        final String label;
+        final int concept;
+        final boolean preferred;
+
+        LabelEntry(String label, int concept, boolean preferred) {
+            this.label = label;
+            this.concept = concept;
+            this.preferred = preferred;
+        }
+
+        public int compareTo(LabelEntry other) {
+            int compare = label.compareTo(other.label);
+            if (compare == 0 && preferred != other.preferred) {
+                return preferred ? -1 : 1;
+            }
+            return compare;
+        }
+    }
+}
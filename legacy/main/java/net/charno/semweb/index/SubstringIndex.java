@@ -0,0 +1,139 @@
+package net.charno.semweb.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * A suffix array over the labels of one scheme, used to find every label
+ * containing a piece of text. A search is a binary search over the
+ * suffixes plus a walk over the matches, so it is fast enough to run on
+ * every keystroke of an autocomplete box.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+class SubstringIndex {
+
+    /**
+     * Separates the labels in the text. It sorts before any other character,
+     * so a suffix ending at a label boundary sorts like the end of a string.
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    private final char[] text;
+    private final int[] suffixes;
+    private final int[] starts;
+
+    /**
+     * @param labels The normalised labels to index.
+     */
+    SubstringIndex(String[] labels) {
+        int length = 0;
+        for (String label : labels) {
+            length += label.length() + 1;
+        }
+        text = new char[length];
+        starts = new int[labels.length];
+        int position = 0;
+        int suffixCount = 0;
+        for (int i = 0; i < labels.length; i++) {
+            starts[i] = position;
+            labels[i].getChars(0, labels[i].length(), text, position);
+            position += labels[i].length();
+            text[position++] = SEPARATOR;
+            suffixCount += labels[i].length();
+        }
+        Integer[] sorted = new Integer[suffixCount];
+        int s = 0;
+        for (int i = 0; i < text.length; i++) {
+            if (text[i] != SEPARATOR) {
+                sorted[s++] = i;
+            }
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return compareSuffixes(a, b);
+            }
+        });
+        suffixes = new int[suffixCount];
+        for (int i = 0; i < suffixCount; i++) {
+            suffixes[i] = sorted[i];
+        }
+    }
+
+    /**
+     * Finds the labels containing the query.
+     *
+     * @param query The normalised text to look for.
+     * @return A set of the positions of the matching labels in the array
+     * passed to the constructor.
+     */
+    BitSet find(String query) {
+        BitSet matches = new BitSet();
+        if (query.isEmpty()) {
+            matches.set(0, starts.length);
+            return matches;
+        }
+        for (int i = lowerBound(query); i < suffixes.length && startsWith(suffixes[i], query); i++) {
+            matches.set(labelAt(suffixes[i]));
+        }
+        return matches;
+    }
+
+    private int lowerBound(String query) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareToQuery(suffixes[mid], query) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds which label a position in the text falls in.
+     */
+    private int labelAt(int position) {
+        int i = Arrays.binarySearch(starts, position);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private boolean startsWith(int suffix, String query) {
+        if (suffix + query.length() > text.length) {
+            return false;
+        }
+        for (int i = 0; i < query.length(); i++) {
+            if (text[suffix + i] != query.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int compareToQuery(int suffix, String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = text[suffix + i];
+            if (c != query.charAt(i)) {
+                return c - query.charAt(i);
+            }
+        }
+        return 0;
+    }
+
+    private int compareSuffixes(int a, int b) {
+        while (true) {
+            char ca = text[a++];
+            char cb = text[b++];
+            if (ca != cb) {
+                return ca - cb;
+            }
+            if (ca == SEPARATOR) {
+                return 0;
+            }
+        }
+    }
+}
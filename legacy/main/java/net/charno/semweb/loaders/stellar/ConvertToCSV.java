@@ -1,27 +1,52 @@
 package net.charno.semweb.loaders.stellar;
 
 import au.com.bytecode.opencsv.CSVWriter;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 import net.charno.gml.Attributes;
-import net.charno.gml.GML;
+import net.charno.gml.GeoJSONWriter;
+import net.charno.gml.WKBWriter;
+import net.charno.gml.WKTWriter;
+import net.charno.utils.FeatureFileWriter;
+import net.charno.utils.GMLReader;
 import net.charno.utils.GMLUtils;
 import net.charno.utils.StreamGobbler;
 
 /**
+ * Converts a GML file to CSV, one row per feature. Each feature is written as
+ * soon as it has been read, so the whole file is never held in memory. The
+ * output goes to gml_output.csv, or the file named with -Dgml.output, which is
+ * gzipped if its name ends in .gz.
+ * <p>
+ * -Dgml.format picks what is written, straight from the parsed coordinates:
+ * <ul>
+ * <li>csv, the default, with the geometry as WKT</li>
+ * <li>wkb, CSV with the geometry as hex WKB, which PostGIS casts without
+ * parsing text</li>
+ * <li>geojson, one GeoJSON feature per line, to gml_output.geojsonl by
+ * default</li>
+ * <li>binary, a FeatureFileWriter file, to gml_output.bin by default</li>
+ * </ul>
  *
  * @author mdc502
  */
 public class ConvertToCSV {
 
+    private static final int BUFFER_SIZE = 65536;
+
     private static String filePath;
     private static String contextHeader;
     private static List<String> attributeList = new LinkedList<String>();
-    private GML gml;
+    private static String format = System.getProperty("gml.format", "csv").toLowerCase();
+    private static String outputPath = System.getProperty("gml.output", "gml_output." + extension(format));
 
     public static void main(String[] args) {
         if ((args.length == 0) || (args.length == 1)) {
@@ -42,13 +67,11 @@ public class ConvertToCSV {
         contextHeader = args[1];
 
         if (filePath.toLowerCase().endsWith(".gml")) {
-            converter.parseGML();
+            converter.convertGML();
         } else if (filePath.toLowerCase().endsWith(".shp")) {
 //            converter.convertSHP();
             throw new UnsupportedOperationException("Shapefile support not yet implemented");
         }
-
-        converter.write();
     }
 
     private void convertSHP() {
@@ -60,33 +83,118 @@ public class ConvertToCSV {
         // objectify created file and point at gml variable
     }
 
-    private void parseGML() {
-        this.gml = GMLUtils.objectifyGML(filePath, contextHeader, attributeList);
+    private void convertGML() {
+        int rows = 0;
+        try (GMLReader reader = GMLUtils.openGML(filePath, contextHeader, attributeList)) {
+            if ("geojson".equals(format)) {
+                rows = writeGeoJSON(reader);
+            } else if ("binary".equals(format)) {
+                rows = writeBinary(reader);
+            } else if ("wkb".equals(format) || "csv".equals(format)) {
+                rows = writeCSV(reader, "wkb".equals(format));
+            } else {
+                System.out.println("ERROR: Unknown gml.format " + format + ", use csv, wkb, geojson or binary");
+                return;
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (UncheckedIOException ex) {
+            ex.getCause().printStackTrace();
+        }
+        System.out.println("Wrote " + rows + " features to " + outputPath);
     }
 
-    private void write() {
-        try {
-            CSVWriter writer = new CSVWriter(new FileWriter("gml_output.csv"));
-
-            List _headers = new ArrayList();
-            _headers.add("FID");
-            _headers.add("CONTEXT_ID");
-            _headers.addAll(attributeList);
-            _headers.add("GEOMETRY");
-            writer.writeNext((String[]) _headers.toArray(new String[0]));
-
-            for (Attributes gmlAttributes : this.gml.getGmlAttributes()) {
-                List _arrayList = new ArrayList();
-                _arrayList.add(gmlAttributes.getFid());
-                _arrayList.add(gmlAttributes.getContextID());
-                _arrayList.addAll(gmlAttributes.getAttributeList().values());
-                _arrayList.add(gmlAttributes.getGeometry().getWktPoints().toString());
-                writer.writeNext((String[]) _arrayList.toArray(new String[0]));
+    private static int writeCSV(GMLReader reader, boolean wkb) throws IOException {
+        int rows = 0;
+        try (CSVWriter writer = new CSVWriter(openOutput(outputPath))) {
+            String[] row = new String[attributeList.size() + 3];
+            row[0] = "FID";
+            row[1] = "CONTEXT_ID";
+            for (int i = 0; i < attributeList.size(); i++) {
+                row[i + 2] = attributeList.get(i);
             }
+            row[row.length - 1] = "GEOMETRY";
+            writer.writeNext(row);
+
+            // one buffer for every row's geometry, as the writer only takes Strings
+            StringBuilder geometry = new StringBuilder(256);
+            byte[] bytes = new byte[256];
+            while (reader.hasNext()) {
+                Attributes gmlAttributes = reader.next();
+                row[0] = gmlAttributes.getFid();
+                row[1] = gmlAttributes.getContextID();
+                // in the header's order, whatever order the map keeps them in
+                for (int i = 0; i < attributeList.size(); i++) {
+                    row[i + 2] = gmlAttributes.getAttributeList().get(attributeList.get(i));
+                }
+                geometry.setLength(0);
+                if (wkb) {
+                    int size = WKBWriter.size(gmlAttributes.getGeometry());
+                    if (size > bytes.length) {
+                        bytes = new byte[Math.max(size, bytes.length * 2)];
+                    }
+                    WKBWriter.write(gmlAttributes.getGeometry(), bytes, 0);
+                    WKBWriter.writeHex(bytes, 0, size, geometry);
+                } else {
+                    WKTWriter.write(gmlAttributes.getGeometry(), geometry);
+                }
+                row[row.length - 1] = geometry.toString();
+                writer.writeNext(row);
+                rows++;
+            }
+            // the writer keeps its errors to itself until asked
+            if (writer.checkError()) {
+                System.out.println("Couldn't write all of " + outputPath);
+            }
+        }
+        return rows;
+    }
 
-            writer.close();
+    private static int writeGeoJSON(GMLReader reader) throws IOException {
+        int rows = 0;
+        try (BufferedWriter writer = openOutput(outputPath)) {
+            while (reader.hasNext()) {
+                GeoJSONWriter.writeFeature(reader.next(), "CONTEXT_ID", attributeList, writer);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static int writeBinary(GMLReader reader) throws IOException {
+        int rows = 0;
+        try (FeatureFileWriter writer = new FeatureFileWriter(openStream(outputPath), "CONTEXT_ID", attributeList)) {
+            while (reader.hasNext()) {
+                writer.write(reader.next());
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static String extension(String format) {
+        if ("geojson".equals(format)) {
+            return "geojsonl";
+        } else if ("binary".equals(format)) {
+            return "bin";
+        }
+        return "csv";
+    }
+
+    private static BufferedWriter openOutput(String path) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(openStream(path), "UTF-8"), BUFFER_SIZE);
+    }
+
+    private static OutputStream openStream(String path) throws IOException {
+        OutputStream out = new FileOutputStream(path);
+        try {
+            if (path.toLowerCase().endsWith(".gz")) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            return out;
         } catch (IOException ex) {
-            ex.printStackTrace();
+            out.close();
+            throw ex;
         }
     }
 
@@ -1,8 +1,20 @@
 
 package net.charno.semweb.lookups;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import net.charno.semweb.bindings.URILabelBinding;
+import net.charno.semweb.cache.LookupCache;
+import net.charno.semweb.cache.LookupCaches;
+import net.charno.semweb.http.BatchSizer;
+import net.charno.semweb.http.LookupExecutor;
+import net.charno.semweb.index.DBPediaIndex;
+import net.charno.semweb.index.FuzzyIndex;
 import net.charno.utils.StringUtils;
 
 /**
@@ -15,34 +27,118 @@ public class DBPediaClient extends SparqlClient {
     private static final String SPARQL_ORG_2 = "%22@en)%20&&%20langMatches(%20lang(%3Flabel),%20%22en%22))%7D%20LIMIT%20";
     private static final String SPARQL_THING_1 = "PREFIX%20rdfs%3A%20%3Chttp%3A%2F%2Fwww.w3.org%2F2000%2F01%2Frdf-schema%23%3E%20SELECT%20%3Furi%20WHERE%20%7B%20%3Furi%20rdfs%3Alabel%20%22";
     private static final String SPARQL_THING_2 = "%22%40en%20FILTER%20(%20!strstarts(str(%3Furi)%2C%20%22http%3A%2F%2Fdbpedia.org%2Fresource%2FCategory%3A%22)%20)%20%7D%20LIMIT%201";
-    private static final String SPARQL_OUTPUT = "&format=json";
+    private static final String SPARQL_OUTPUT = "format";
+    private static final String SPARQL_POST_URL = "http://dbpedia.org/sparql";
+    
+    /**
+     * An offline copy of the DBpedia labels. When set, lookups are answered
+     * from it instead of dbpedia.org. It can be opened at startup with
+     * -Ddbpedia.index, pointing at a file made by DBPediaIndex.build().
+     */
+    private static volatile DBPediaIndex localIndex = openLocalIndex(System.getProperty("dbpedia.index"));
+    
+    /**
+     * Switches the client to local mode, or back to the endpoint if the index
+     * is null.
+     * 
+     * @param index An index of the DBpedia labels.
+     */
+    public static void setLocalIndex(DBPediaIndex index) {
+        localIndex = index;
+    }
+    
+    public static DBPediaIndex getLocalIndex() {
+        return localIndex;
+    }
+    
+    private static DBPediaIndex openLocalIndex(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            DBPediaIndex index = DBPediaIndex.open(new File(path));
+            System.out.println("Opened " + index.size() + " DBpedia labels from " + path);
+            return index;
+        } catch (IOException ex) {
+            System.out.println("Can't open the DBpedia index " + path + ": " + ex);
+            return null;
+        }
+    }
     
     public static List<URILabelBinding> lookupOrganization(String organization, int results) {
         // parameter check
         if (results < 0 || results > 100) {
             results = 10;
         }
+        DBPediaIndex index = localIndex;
+        FuzzyIndex organisations = index != null && index.getTypes().contains(DBPediaIndex.DBO_ORGANISATION)
+                ? index.fuzzy(DBPediaIndex.DBO_ORGANISATION) : null;
+        if (organisations != null) {
+            return new ArrayList<URILabelBinding>(organisations.findSimilar(organization, results));
+        }
         // build SPARQL query
-        String url = URL + SPARQL_ORG_1 + StringUtils.makeURLSafe(organization) + SPARQL_ORG_2 + results + SPARQL_OUTPUT;
+        String url = URL + SPARQL_ORG_1 + StringUtils.makeURLSafe(organization) + SPARQL_ORG_2 + results;
         // send query
-        String json = getResultsFromEndpoint(url);
-        
-        return parseStandardJSON(json);
+        return lookupURIs(url, SPARQL_OUTPUT);
     }
     
     public static String lookupSingleThing(String material) {
-        String uri = null;
         // build SPARQL query
-        String url = URL + SPARQL_THING_1 + StringUtils.makeURLSafe(StringUtils.capitalise(material)) + SPARQL_THING_2 + SPARQL_OUTPUT;
-        // send query
-        String json = getResultsFromEndpoint(url);
-        // loop through results and grab the first entry
-        List<URILabelBinding> resultsList = parseStandardJSON(json);
-        for (URILabelBinding result : resultsList) {
-            uri = result.getUri();
-            break;
+        final String thing = StringUtils.capitalise(material);
+        DBPediaIndex index = localIndex;
+        if (index != null) {
+            return index.findFirst(thing, null);
+        }
+        final String url = URL + SPARQL_THING_1 + StringUtils.makeURLSafe(thing) + SPARQL_THING_2;
+        
+        final String key = LookupCache.key("dbpedia_thing", thing);
+        // send query, keeping the first result
+        return LookupCaches.URIS.get(key, () -> LookupCaches.stored(key, () -> lookupFirstURI(url, SPARQL_OUTPUT)));
+    }
+    
+    /**
+     * Looks up many things at once, see lookupSingleThing().
+     * 
+     * @param materials The labels.
+     * @return The uri for each label that has one.
+     */
+    public static Map<String,String> lookupSingleThingBatch(Collection<String> materials) {
+        if (localIndex != null) {
+            return lookupEach(materials, THING_BATCH);
+        }
+        return lookupBatch(materials, THING_BATCH);
+    }
+    
+    private static final BatchQuery THING_BATCH = new BatchQuery(SPARQL_POST_URL, SPARQL_OUTPUT, new BatchSizer(50, 1, 500, 5000)) {
+        
+        protected String value(String label) {
+            return StringUtils.capitalise(label);
+        }
+        
+        protected String key(String label) {
+            return LookupCache.key("dbpedia_thing", StringUtils.capitalise(label));
         }
         
-        return uri;
+        protected String literal(String value) {
+            return SparqlClient.literal(value, "en");
+        }
+        
+        protected String query(String values) {
+            return "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#> "
+                    + "SELECT (STR(?label) AS ?value) (SAMPLE(?u) AS ?uri) WHERE { VALUES ?label { " + values + "} "
+                    + "?u rdfs:label ?label FILTER ( !strstarts(str(?u), \"http://dbpedia.org/resource/Category:\") ) } GROUP BY ?label";
+        }
+        
+        protected String lookupSingle(String label) {
+            return lookupSingleThing(label);
+        }
+    };
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupOrganizationAsync(String organization, int results) {
+        return LookupExecutor.supply(() -> lookupOrganization(organization, results));
+    }
+    
+    public static CompletableFuture<String> lookupSingleThingAsync(String material) {
+        return LookupExecutor.supply(() -> lookupSingleThing(material));
     }
-}
\ No newline at end of file
+}
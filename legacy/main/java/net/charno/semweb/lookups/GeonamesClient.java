@@ -5,18 +5,20 @@
 package net.charno.semweb.lookups;
 
 import net.charno.semweb.bindings.GeonamesBinding;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import net.charno.semweb.cache.LookupCache;
+import net.charno.semweb.cache.LookupCaches;
+import net.charno.semweb.http.HttpTransport;
+import net.charno.semweb.http.LookupExecutor;
+import net.charno.semweb.http.SingleFlight;
+import net.charno.semweb.index.GeonamesIndex;
+import net.charno.utils.JSONPullParser;
 import net.charno.utils.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 /**
  *
@@ -32,49 +34,180 @@ public class GeonamesClient extends SparqlClient{
     private static String VAR_CONTINENT = "&continentCode=";
     private static String VAR_SUFFIX = "&featureClass=A&featureClass=P&style=SHORT&type=json&username=";
     private static String URI = "http://sws.geonames.org/";
+    private static final String HOST = "api.geonames.org";
+    /**
+     * A free Geonames account has 1000 credits an hour and a search costs 
+     * one, so searches are paced to stay inside that, unless a rate is set 
+     * with -Dhttp.rate.api.geonames.org.
+     */
+    private static final int HOURLY_CREDITS = 1000;
+    private static final int BURST = 20;
     
-    private static Map<String,GeonamesBinding> parseJSON(String json) {
+    static {
+        if (System.getProperty("http.rate." + HOST) == null) {
+            HttpTransport.setRateLimit(HOST, (HOURLY_CREDITS - BURST) / 3600.0, BURST);
+        }
+    }
+    
+    /**
+     * An offline gazetteer built from the Geonames dumps. When set, the
+     * precise searches by country, in the world and favouring the UK are
+     * answered from it instead of api.geonames.org. It can be opened at
+     * startup with -Dgeonames.index.
+     */
+    private static volatile GeonamesIndex localIndex = openLocalIndex(System.getProperty("geonames.index"));
+    
+    /**
+     * Switches the client to local mode, or back to the live service if the
+     * index is null.
+     * 
+     * @param index An index built by GeonamesIndex.build().
+     */
+    public static void setLocalIndex(GeonamesIndex index) {
+        localIndex = index;
+    }
+    
+    public static GeonamesIndex getLocalIndex() {
+        return localIndex;
+    }
+    
+    private static GeonamesIndex openLocalIndex(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            GeonamesIndex index = GeonamesIndex.open(new File(path));
+            System.out.println("Opened " + index.size() + " geonames place names from " + path);
+            return index;
+        } catch (IOException ex) {
+            System.out.println("Can't open the geonames index " + path + ": " + ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Reads a Geonames search response as it arrives.
+     * 
+     * @throws IOException If the response can't be read or is a Geonames 
+     * error, such as the hourly limit being exceeded.
+     */
+    private static Map<String,GeonamesBinding> readJSON(Reader reader) throws IOException {
         Map<String,GeonamesBinding> results = new HashMap<String, GeonamesBinding>();
-        JSONParser parser = new JSONParser();
+        JSONPullParser parser = new JSONPullParser(reader);
+        if (parser.next() != JSONPullParser.Token.START_OBJECT) {
+            throw new JSONPullParser.SyntaxException("Expected an object", 0);
+        }
         // process json results
-        try {
-            JSONObject jsonObject = (JSONObject) parser.parse(json);
-            JSONArray jsonGeonames = (JSONArray) jsonObject.get("geonames");
-            for (Object binding : jsonGeonames) {
-                JSONObject jsonBinding = (JSONObject) binding;
-                Long geonameId = (Long) jsonBinding.get("geonameId");
-                String toponymName = (String) jsonBinding.get("toponymName");
-                String countryCode = (String) jsonBinding.get("countryCode");
-                String fcl = (String) jsonBinding.get("fcl");
-                String fcode = (String) jsonBinding.get("fcode");
-                
+        while (parser.next() == JSONPullParser.Token.FIELD_NAME) {
+            String field = parser.getText();
+            parser.next();
+            if ("status".equals(field) && parser.getToken() == JSONPullParser.Token.START_OBJECT) {
+                throw new IOException("Geonames error: " + parser.readObject().get("message"));
+            } else if (!"geonames".equals(field) || parser.getToken() != JSONPullParser.Token.START_ARRAY) {
+                parser.skipValue();
+                continue;
+            }
+            while (parser.next() == JSONPullParser.Token.START_OBJECT) {
+                Map<String,String> jsonBinding = parser.readObject();
                 GeonamesBinding geonamesBinding = new GeonamesBinding();
-                geonamesBinding.setToponymName(toponymName);
-                geonamesBinding.setCountryCode(countryCode);
-                geonamesBinding.setFunctionClass(fcl);
-                geonamesBinding.setFunctionCode(fcode);
-                String uri = URI + geonameId;
+                geonamesBinding.setToponymName(jsonBinding.get("toponymName"));
+                geonamesBinding.setCountryCode(jsonBinding.get("countryCode"));
+                geonamesBinding.setFunctionClass(jsonBinding.get("fcl"));
+                geonamesBinding.setFunctionCode(jsonBinding.get("fcode"));
+                String uri = URI + jsonBinding.get("geonameId");
                 results.put(uri, geonamesBinding);
             }
-        } catch (ParseException pe) {
-            System.out.println("position: " + pe.getPosition());
-            System.out.println(pe);
         }
         
         return results;
     }
     
+    /**
+     * Searches in flight, so concurrent identical searches are sent once.
+     */
+    private static final SingleFlight<Map<String,GeonamesBinding>> SEARCHES = new SingleFlight<Map<String,GeonamesBinding>>();
+    
+    /**
+     * Sends a search to Geonames, unless the same search is already cached.
+     * 
+     * @param key The cache key for the search.
+     * @param url The search url.
+     * @return A new map of the results, which the caller is free to change.
+     */
+    private static Map<String,GeonamesBinding> lookup(final String key, final String url) {
+        Map<String,GeonamesBinding> results = LookupCaches.GEONAMES.get(key, () -> {
+            if (LookupCaches.STORE == null) {
+                return fetch(url);
+            }
+            return decode(LookupCaches.STORE.get(key, () -> encode(fetch(url))));
+        });
+        
+        return results == null ? new HashMap<String, GeonamesBinding>() : new HashMap<String, GeonamesBinding>(results);
+    }
+    
+    private static Map<String,GeonamesBinding> fetch(final String url) throws IOException {
+        // send query, or wait for the same one already in flight
+        Map<String,GeonamesBinding> results = coalesced(SEARCHES, url, () -> HttpTransport.get(url, GeonamesClient::readJSON));
+        if (results == null) {
+            throw new IOException("NULL RETURNED FROM " + url);
+        }
+        return results;
+    }
+    
+    /**
+     * Flattens search results to one line per result for the lookup store,
+     * with null standing for no results.
+     */
+    private static String encode(Map<String,GeonamesBinding> results) {
+        if (results.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,GeonamesBinding> entry : results.entrySet()) {
+            GeonamesBinding binding = entry.getValue();
+            sb.append(entry.getKey()).append('\t')
+                    .append(field(binding.getToponymName())).append('\t')
+                    .append(field(binding.getCountryCode())).append('\t')
+                    .append(field(binding.getFunctionClass())).append('\t')
+                    .append(field(binding.getFunctionCode())).append('\n');
+        }
+        return sb.toString();
+    }
+    
+    private static Map<String,GeonamesBinding> decode(String stored) {
+        Map<String,GeonamesBinding> results = new HashMap<String, GeonamesBinding>();
+        if (stored == null) {
+            return results;
+        }
+        for (String line : stored.split("\n")) {
+            String[] fields = line.split("\t", -1);
+            GeonamesBinding geonamesBinding = new GeonamesBinding();
+            geonamesBinding.setToponymName(fields[1]);
+            geonamesBinding.setCountryCode(fields[2]);
+            geonamesBinding.setFunctionClass(fields[3]);
+            geonamesBinding.setFunctionCode(fields[4]);
+            results.put(fields[0], geonamesBinding);
+        }
+        return results;
+    }
+    
+    private static String field(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+    }
+    
     public static Map<String,GeonamesBinding> lookupPreciseLocationInCountry(String location, String country, int results, String username) {
         // parameter check
         if (results < 0 || results > 100) {
             results = 10;
         }
+        GeonamesIndex index = localIndex;
+        if (index != null) {
+            return index.find(location, country, null, results);
+        }
         // build SPARQL query
         String url = URL_PRECISE + StringUtils.makeURLSafe(location) + VAR_COUNTRY + country + VAR_ROWS + results + VAR_SUFFIX + username;
-        // send query
-        String json = getResultsFromEndpoint(url);
         
-        return parseJSON(json);
+        return lookup(LookupCache.key("lookupPreciseLocationInCountry", location, country, results), url);
     }
     
     public static Map<String,GeonamesBinding> lookupPreciseLocationInContinent(String location, String continent, int results, String username) {
@@ -84,10 +217,8 @@ public class GeonamesClient extends SparqlClient{
         }
         // build SPARQL query
         String url = URL_PRECISE + StringUtils.makeURLSafe(location) + VAR_CONTINENT + continent + VAR_ROWS + results + VAR_SUFFIX + username;
-        // send query
-        String json = getResultsFromEndpoint(url);
         
-        return parseJSON(json);
+        return lookup(LookupCache.key("lookupPreciseLocationInContinent", location, continent, results), url);
     }
     
     public static Map<String,GeonamesBinding> lookupPreciseLocationInWorld(String location, int results, String username) {
@@ -95,12 +226,14 @@ public class GeonamesClient extends SparqlClient{
         if (results < 0 || results > 100) {
             results = 10;
         }
+        GeonamesIndex index = localIndex;
+        if (index != null) {
+            return index.find(location, null, null, results);
+        }
         // build SPARQL query
         String url = URL_PRECISE + StringUtils.makeURLSafe(location) + VAR_ROWS + results + VAR_SUFFIX + username;
-        // send query
-        String json = getResultsFromEndpoint(url);
         
-        return parseJSON(json);
+        return lookup(LookupCache.key("lookupPreciseLocationInWorld", location, results), url);
     }
     
     public static Map<String,GeonamesBinding> lookupLocationFavorUK(String location, int results, String username) {
@@ -108,12 +241,14 @@ public class GeonamesClient extends SparqlClient{
         if (results < 0 || results > 100) {
             results = 10;
         }
+        GeonamesIndex index = localIndex;
+        if (index != null) {
+            return index.find(location, null, "GB", results);
+        }
         // build SPARQL query
         String url = URL_PRECISE + StringUtils.makeURLSafe(location) + VAR_FAVOR_UK + VAR_ROWS + results + VAR_SUFFIX + username;
-        // send query
-        String json = getResultsFromEndpoint(url);
         
-        return parseJSON(json);
+        return lookup(LookupCache.key("lookupLocationFavorUK", location, results), url);
     }
     
     public static Map<String,GeonamesBinding> lookupFuzzyLocationInCountry(String location, String country, int results, String username) {
@@ -123,10 +258,8 @@ public class GeonamesClient extends SparqlClient{
         }
         // build SPARQL query
         String url = URL_FUZZY + StringUtils.makeURLSafe(location) + VAR_COUNTRY + country + VAR_ROWS + results + VAR_SUFFIX + username;
-        // send query
-        String json = getResultsFromEndpoint(url);
         
-        return parseJSON(json);
+        return lookup(LookupCache.key("lookupFuzzyLocationInCountry", location, country, results), url);
     }
     
     public static Map<String,GeonamesBinding> lookupFuzzyLocationInContinent(String location, String continent, int results, String username) {
@@ -136,9 +269,31 @@ public class GeonamesClient extends SparqlClient{
         }
         // build SPARQL query
         String url = URL_FUZZY + StringUtils.makeURLSafe(location) + VAR_CONTINENT + continent + VAR_ROWS + results + VAR_SUFFIX + username;
-        // send query
-        String json = getResultsFromEndpoint(url);
         
-        return parseJSON(json);
+        return lookup(LookupCache.key("lookupFuzzyLocationInContinent", location, continent, results), url);
+    }
+    
+    public static CompletableFuture<Map<String,GeonamesBinding>> lookupPreciseLocationInCountryAsync(String location, String country, int results, String username) {
+        return LookupExecutor.supply(() -> lookupPreciseLocationInCountry(location, country, results, username));
+    }
+    
+    public static CompletableFuture<Map<String,GeonamesBinding>> lookupPreciseLocationInContinentAsync(String location, String continent, int results, String username) {
+        return LookupExecutor.supply(() -> lookupPreciseLocationInContinent(location, continent, results, username));
+    }
+    
+    public static CompletableFuture<Map<String,GeonamesBinding>> lookupPreciseLocationInWorldAsync(String location, int results, String username) {
+        return LookupExecutor.supply(() -> lookupPreciseLocationInWorld(location, results, username));
+    }
+    
+    public static CompletableFuture<Map<String,GeonamesBinding>> lookupLocationFavorUKAsync(String location, int results, String username) {
+        return LookupExecutor.supply(() -> lookupLocationFavorUK(location, results, username));
+    }
+    
+    public static CompletableFuture<Map<String,GeonamesBinding>> lookupFuzzyLocationInCountryAsync(String location, String country, int results, String username) {
+        return LookupExecutor.supply(() -> lookupFuzzyLocationInCountry(location, country, results, username));
+    }
+    
+    public static CompletableFuture<Map<String,GeonamesBinding>> lookupFuzzyLocationInContinentAsync(String location, String continent, int results, String username) {
+        return LookupExecutor.supply(() -> lookupFuzzyLocationInContinent(location, continent, results, username));
     }
 }
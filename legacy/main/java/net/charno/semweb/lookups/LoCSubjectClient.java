@@ -1,20 +1,21 @@
 
 package net.charno.semweb.lookups;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.util.concurrent.CompletableFuture;
 import net.charno.semweb.bindings.URILabelBinding;
+import net.charno.semweb.http.HttpTransport;
+import net.charno.semweb.http.LookupExecutor;
+import net.charno.semweb.http.SingleFlight;
+import net.charno.semweb.index.SkosIndex;
 import net.charno.utils.LoCSAXHandler;
+import net.charno.utils.SparqlResultsReader;
 import net.charno.utils.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.xml.sax.InputSource;
 
 /**
  *
@@ -28,84 +29,245 @@ public class LoCSubjectClient {
     private static final String SPARQL_SUBJ_STARTS_SUFFIX = "%27%40en%2C%20%27i%27)%0A%7D%0ALIMIT%20300";
     private static final String SPARQL_SUBJ_FUZZY_PREFIX = "PREFIX%20skos%3A%20%20%20%20%3Chttp%3A%2F%2Fwww.w3.org%2F2004%2F02%2Fskos%2Fcore%23%3E%0Aselect%20%3Furi%20%3Flabel%20%7B%0A%20%20%3Furi%20skos%3AprefLabel%20%3Flabel%20.%0A%20%20FILTER%20regex(str(%3Flabel)%2C%20%27";
     private static final String SPARQL_SUBJ_FUZZY_SUFFIX = "%27%40en%2C%20%27i%27)%0A%7D%0ALIMIT%20500";
+    private static final String SPARQL_SUBJ_PREFIXES_1 = "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> select ?uri ?label { VALUES ?label { ";
+    private static final String SPARQL_SUBJ_PREFIXES_2 = "} ?uri skos:prefLabel ?label . }";
+    private static final String LCSH_SCHEME = "http://id.loc.gov/authorities/subjects";
+    private static final int STARTS_LIMIT = 300;
+    private static final int FUZZY_LIMIT = 500;
     
-    private static String getResultsFromLoC(String url) {
-        String locResults = null;
-        
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        HttpGet httpGet = new HttpGet(url);
+    /**
+     * An offline copy of the LC subject headings. When set, subject lookups 
+     * are answered from it instead of the SPARQL endpoint, with approximate 
+     * matching in place of the regex filters. It can be loaded at startup from
+     * a comma separated list of N-Triples files with -Dloc.skos.
+     */
+    private static volatile SkosIndex localIndex = loadLocalIndex(System.getProperty("loc.skos"));
+    
+    /**
+     * Switches the client to local mode, or back to the endpoint if the index
+     * is null.
+     * 
+     * @param index An index of the LCSH SKOS dump.
+     */
+    public static void setLocalIndex(SkosIndex index) {
+        localIndex = index;
+    }
+    
+    public static SkosIndex getLocalIndex() {
+        return localIndex;
+    }
+    
+    private static SkosIndex loadLocalIndex(String paths) {
+        if (paths == null) {
+            return null;
+        }
+        List<File> files = new ArrayList<File>();
+        for (String path : paths.split(",")) {
+            files.add(new File(path.trim()));
+        }
         try {
-            HttpResponse httpResponse = httpClient.execute(httpGet);
-            locResults = EntityUtils.toString(httpResponse.getEntity());
+            SkosIndex index = SkosIndex.load(files.toArray(new File[0]));
+            System.out.println("Loaded " + index.size() + " subject headings from " + paths);
+            return index;
         } catch (IOException ex) {
-            ex.printStackTrace();
+            System.out.println("Can't load the subject headings " + paths + ": " + ex);
+            return null;
         }
-        
-        return locResults;
     }
     
-    private static List<URILabelBinding> parseXML(String xml) {
-        List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+    /**
+     * Returns the local index if it holds the subject headings, otherwise null
+     * to say the lookup should go to the endpoint.
+     */
+    private static SkosIndex localIndex() {
+        SkosIndex index = localIndex;
+        if (index != null && index.getSchemes().contains(LCSH_SCHEME)) {
+            return index;
+        }
+        return null;
+    }
+    
+    private static final SingleFlight<List<URILabelBinding>> QUERIES = new SingleFlight<List<URILabelBinding>>();
+    
+    /**
+     * Sends a query to the store, which answers in TSV or CSV if it can and
+     * in SPARQL XML otherwise, and reads the results as they arrive.
+     * 
+     * @return The results, or null if the request failed.
+     */
+    private static List<URILabelBinding> getResultsFromLoC(final String url) {
+        List<URILabelBinding> locResults = null;
+        
         try {
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            SAXParser parser = spf.newSAXParser();
-            LoCSAXHandler handler = new LoCSAXHandler();
-            parser.parse(new InputSource(new StringReader(xml)), handler);
-            List<URILabelBinding> resultList = handler.getResultList();
-            for (URILabelBinding binding : resultList) {
-                results.add(new URILabelBinding(binding.getUri(), binding.getLabel()));
-            }
-        } catch (Exception ex) {
+            // concurrent identical queries share one request
+            locResults = SparqlClient.coalesced(QUERIES, url, () -> HttpTransport.get(url, SparqlResultsReader.ACCEPT, LoCSubjectClient::readResults));
+        } catch (IOException ex) {
             ex.printStackTrace();
         }
         
+        return locResults == null ? null : new ArrayList<URILabelBinding>(locResults);
+    }
+    
+    private static List<URILabelBinding> readResults(InputStream in, String mimeType, Charset charset) throws IOException {
+        final List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+        if (mimeType == null || SparqlResultsReader.isXML(mimeType)) {
+            LoCSAXHandler.parse(in, results::add);
+        } else {
+            SparqlResultsReader.read(in, mimeType, charset, row -> results.add(new URILabelBinding(row.get("uri"), row.get("label"))));
+        }
         return results;
     }
     
     public static List<URILabelBinding> lookupSubjectExact(String subject) {
+        SkosIndex index = localIndex();
+        if (index != null) {
+            List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+            String uri = index.findExact(LCSH_SCHEME, subject);
+            if (uri != null) {
+                results.add(new URILabelBinding(uri, subject));
+            }
+            return results;
+        }
         String url = URL + SPARQL_SUBJ_PRECISE_PREFIX + StringUtils.makeURLSafe(subject) + SPARQL_SUBJ_PRECISE_SUFFIX;
         
         return processLookup(url);
     }
     
     public static List<URILabelBinding> lookupSubjectStartsWith(String subject) {
+        SkosIndex index = localIndex();
+        if (index != null) {
+            return new ArrayList<URILabelBinding>(index.findStartingWith(LCSH_SCHEME, subject, STARTS_LIMIT));
+        }
         String url = URL + SPARQL_SUBJ_STARTS_PREFIX + StringUtils.makeURLSafe(subject.toLowerCase()) + SPARQL_SUBJ_STARTS_SUFFIX;
         
         return processLookup(url);
     }
     
     public static List<URILabelBinding> lookupSubjectFuzzy(String subject) {
+        SkosIndex index = localIndex();
+        if (index != null) {
+            return new ArrayList<URILabelBinding>(index.findSimilar(LCSH_SCHEME, subject, FUZZY_LIMIT));
+        }
         String url = URL + SPARQL_SUBJ_FUZZY_PREFIX + StringUtils.makeURLSafe(subject.toLowerCase()) + SPARQL_SUBJ_FUZZY_SUFFIX;
         
         return processLookup(url);
     }
     
     private static List<URILabelBinding> processLookup(String url) {
-        String xml = getResultsFromLoC(url);
+        List<URILabelBinding> results = getResultsFromLoC(url);
         
-        return parseXML(xml);
+        return results == null ? new ArrayList<URILabelBinding>() : results;
     }
     
+    /**
+     * Looks up a subdivided heading such as A--B--C, falling back to the
+     * longest of its headings A--B and A that exists. All of them are asked 
+     * for in one query and the longest match is kept, so a heading costs one 
+     * round trip however deeply it is subdivided. Only if the store rejects
+     * the query are the headings looked up one by one; if it can't be 
+     * reached, nothing is found.
+     * 
+     * @param subject The heading.
+     * @return The bindings for the longest heading found, or an empty list.
+     */
     public static List<URILabelBinding> lookupSubjectCMSValues(String subject) {
-//        System.out.println("\t" + subject);
         // quick fixeroo
         subject = subject.replace(" -- ", "--").replace(" --", "--").replace("-- ", "--");
+        List<String> headings = headingPrefixes(subject);
+        SkosIndex index = localIndex();
+        if (index != null) {
+            return lookupLongest(headings);
+        }
         // build SPARQL query
-        String url = URL + SPARQL_SUBJ_PRECISE_PREFIX + StringUtils.makeURLSafe(subject) + SPARQL_SUBJ_PRECISE_SUFFIX;
+        StringBuilder values = new StringBuilder();
+        for (String heading : headings) {
+            values.append(SparqlClient.literal(heading, "en")).append(' ');
+        }
+        String url = URL + StringUtils.makeURLSafe(SPARQL_SUBJ_PREFIXES_1 + values + SPARQL_SUBJ_PREFIXES_2);
         // send query
-        String xml = getResultsFromLoC(url);
-//        System.out.println(xml);
-        List<URILabelBinding> results = parseXML(xml);
-        // try shrinking the string to see if another one exists
-        if (results.isEmpty()) {
-            if (subject.lastIndexOf("--") != -1) {
-                subject = subject.substring(0, subject.lastIndexOf("--"));
-                results = lookupSubjectCMSValues(subject);
+        List<URILabelBinding> found;
+        try {
+            found = SparqlClient.coalesced(QUERIES, url, () -> HttpTransport.get(url, SparqlResultsReader.ACCEPT, LoCSubjectClient::readResults));
+        } catch (IOException ex) {
+            if (SparqlClient.rejectsQuery(ex)) {
+                // the endpoint doesn't take VALUES, so try each heading in turn
+                return lookupLongest(headings);
+            }
+            ex.printStackTrace();
+            return new ArrayList<URILabelBinding>();
+        }
+        return longest(found);
+    }
+    
+    /**
+     * Keeps the bindings with the longest label, i.e. for the most specific
+     * heading that came back.
+     */
+    static List<URILabelBinding> longest(List<URILabelBinding> found) {
+        List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+        if (found == null) {
+            return results;
+        }
+        int longest = -1;
+        for (URILabelBinding binding : found) {
+            if (binding.getLabel() == null || binding.getUri() == null) {
+                continue;
+            }
+            int length = binding.getLabel().length();
+            if (length > longest) {
+                results.clear();
+                longest = length;
+            }
+            if (length == longest) {
+                results.add(binding);
             }
         }
         return results;
     }
     
+    /**
+     * Returns a heading and the headings above it, from the broadest to the
+     * heading itself, e.g. A, A--B and A--B--C for A--B--C.
+     */
+    static List<String> headingPrefixes(String subject) {
+        List<String> headings = new ArrayList<String>();
+        int end = subject.indexOf("--");
+        while (end != -1) {
+            if (end > 0) {
+                headings.add(subject.substring(0, end));
+            }
+            end = subject.indexOf("--", end + 2);
+        }
+        headings.add(subject);
+        return headings;
+    }
+    
+    private static List<URILabelBinding> lookupLongest(List<String> headings) {
+        for (int i = headings.size() - 1; i >= 0; i--) {
+            List<URILabelBinding> results = lookupSubjectExact(headings.get(i));
+            if (!results.isEmpty()) {
+                return results;
+            }
+        }
+        return new ArrayList<URILabelBinding>();
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupSubjectExactAsync(String subject) {
+        return LookupExecutor.supply(() -> lookupSubjectExact(subject));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupSubjectStartsWithAsync(String subject) {
+        return LookupExecutor.supply(() -> lookupSubjectStartsWith(subject));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupSubjectFuzzyAsync(String subject) {
+        return LookupExecutor.supply(() -> lookupSubjectFuzzy(subject));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupSubjectCMSValuesAsync(String subject) {
+        return LookupExecutor.supply(() -> lookupSubjectCMSValues(subject));
+    }
+    
     public static void main(String[] args) {
         List<URILabelBinding> test;
         test = lookupSubjectFuzzy("archaeology");
@@ -2,18 +2,20 @@
 package net.charno.semweb.lookups;
 
 import net.charno.semweb.bindings.OSBinding;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import net.charno.semweb.bindings.ScoredURILabelBinding;
+import net.charno.semweb.http.HttpTransport;
+import net.charno.semweb.http.SingleFlight;
+import net.charno.semweb.index.FuzzyIndex;
+import net.charno.semweb.index.SkosIndex;
+import net.charno.utils.JSONPullParser;
 import net.charno.utils.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 /**
  *
@@ -21,68 +23,117 @@ import org.json.simple.parser.ParseException;
  */
 public class OSClient {
     private static String URL = "http://api.talis.com/stores/ordnance-survey/services/sparql?query=";
+    private static final String HOST = "api.talis.com";
     private static String SPARQL_PREFIX_PRECISE = "PREFIX+admingeo%3A+%3Chttp%3A%2F%2Fdata.ordnancesurvey.co.uk%2Fontology%2Fadmingeo%2F%3E%0D%0APREFIX+skos%3A+%3Chttp%3A%2F%2Fwww.w3.org%2F2004%2F02%2Fskos%2Fcore%23%3E%0D%0ASELECT+%3FprefLabel+%3Fid%0D%0AWHERE+%7B%0D%0A++%3Fid+%3FaltLabel+%22";
     private static String SPARQL_SUFFIX_PRECISE = "%22+.%0D%0A++%3Fid+skos%3AprefLabel+%3FprefLabel+.%0D%0A++%3Fid+admingeo%3AgssCode+%3FgssCode+.%0D%0A%7D%0D%0ALIMIT+";
     private static String SPARQL_PREFIX_FUZZY = "PREFIX+admingeo%3A+<http%3A%2F%2Fdata.ordnancesurvey.co.uk%2Fontology%2Fadmingeo%2F>%0D%0APREFIX+skos%3A+<http%3A%2F%2Fwww.w3.org%2F2004%2F02%2Fskos%2Fcore%23>%0D%0ASELECT+%3FprefLabel+%3Ftype+%3Fid%0D%0AWHERE+{%0D%0A++%3Fid+skos%3AprefLabel+%3FprefLabel+%3B%0D%0A++++++a+%3Ftype+%3B%0D%0A++++++admingeo%3AgssCode+%3FgssCode+.%0D%0A++FILTER+regex(%3FprefLabel%2C+%22";
     private static String SPARQL_SUFFIX_FUZZY = "%22)%0D%0A}%0D%0ALIMIT+";
-    private static String SPARQL_OUTPUT = "&output=json";
+    private static String SPARQL_OUTPUT = "output";
     
-    private static String getResultsFromOS(String url) {
-        String osResults = null;
-        // make SPARQL query
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        HttpGet httpGet = new HttpGet(url);
+    /**
+     * An offline copy of the Ordnance Survey place names. When set, fuzzy
+     * location lookups are answered from it instead of the regex query, and
+     * precise ones by an exact label match while the endpoint is down. It can
+     * be loaded at startup from a comma separated list of N-Triples files with
+     * -Dos.labels.
+     */
+    private static volatile FuzzyIndex localIndex = loadLocalIndex(System.getProperty("os.labels"));
+    
+    /**
+     * Switches fuzzy lookups to local mode, or back to the endpoint if the
+     * index is null.
+     * 
+     * @param index An index of the OS skos:prefLabels.
+     */
+    public static void setLocalIndex(FuzzyIndex index) {
+        localIndex = index;
+    }
+    
+    public static FuzzyIndex getLocalIndex() {
+        return localIndex;
+    }
+    
+    private static FuzzyIndex loadLocalIndex(String paths) {
+        if (paths == null) {
+            return null;
+        }
+        List<File> files = new ArrayList<File>();
+        for (String path : paths.split(",")) {
+            files.add(new File(path.trim()));
+        }
         try {
-            HttpResponse httpResponse = httpClient.execute(httpGet);
-            osResults = EntityUtils.toString(httpResponse.getEntity());
+            FuzzyIndex index = FuzzyIndex.load(SkosIndex.SKOS_PREF_LABEL, null, files.toArray(new File[0]));
+            System.out.println("Loaded " + index.size() + " OS place names from " + paths);
+            return index;
+        } catch (IOException ex) {
+            System.out.println("Can't load the OS place names " + paths + ": " + ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Queries in flight, so concurrent identical queries are sent once.
+     */
+    private static final SingleFlight<Map<String,OSBinding>> QUERIES = new SingleFlight<Map<String,OSBinding>>();
+    
+    private static Map<String,OSBinding> lookup(final String url) {
+        try {
+            return new HashMap<String, OSBinding>(SparqlClient.coalesced(QUERIES, url, () -> query(url)));
         } catch (IOException ex) {
             ex.printStackTrace();
+            return new HashMap<String, OSBinding>();
         }
-        
-        return osResults;
     }
     
-    private static Map<String,OSBinding> parseJSON(String json) {
-        Map<String,OSBinding> results = new HashMap<String, OSBinding>();
-        JSONParser parser = new JSONParser();
-        // process json results
+    private static Map<String,OSBinding> query(String url) {
+        final Map<String,OSBinding> results = new HashMap<String, OSBinding>();
+        // make SPARQL query, reading the results as they arrive
         try {
-            JSONObject jsonObject = (JSONObject) parser.parse(json);
-            JSONObject jsonResults = (JSONObject) jsonObject.get("results");
-            JSONArray jsonBindings = (JSONArray) jsonResults.get("bindings");
-            for (Object binding : jsonBindings) {
-                JSONObject jsonBinding = (JSONObject) binding;
-                JSONObject jsonId = (JSONObject) jsonBinding.get("id");
-                JSONObject jsonPrefLabel = (JSONObject) jsonBinding.get("prefLabel");
-                JSONObject jsonType = (JSONObject) jsonBinding.get("type");
-                
-                String id = (String) jsonId.get("value");
-                OSBinding osBinding = new OSBinding();
-                osBinding.setPrefLabel((String) jsonPrefLabel.get("value"));
-                if (jsonType != null) {
-                    osBinding.setType((String) jsonType.get("value"));
+            SparqlClient.select(url, SPARQL_OUTPUT, row -> {
+                String id = row.get("id");
+                if (id != null) {
+                    OSBinding osBinding = new OSBinding();
+                    osBinding.setPrefLabel(row.get("prefLabel"));
+                    osBinding.setType(row.get("type"));
+                    results.put(id, osBinding);
                 }
-                results.put(id, osBinding);
-            }
-        } catch (ParseException pe) {
-            System.out.println("position: " + pe.getPosition());
-            System.out.println(pe);
+                return true;
+            });
+        } catch (JSONPullParser.SyntaxException ex) {
+            System.out.println("position: " + ex.getPosition());
+            System.out.println(ex);
+        } catch (IOException ex) {
+            ex.printStackTrace();
         }
         
         return results;
     }
     
+    private static Map<String,OSBinding> toBindings(List<ScoredURILabelBinding> matches) {
+        // the dumps don't say which type each place is, so only the label is set
+        Map<String,OSBinding> places = new LinkedHashMap<String, OSBinding>();
+        for (ScoredURILabelBinding match : matches) {
+            OSBinding osBinding = new OSBinding();
+            osBinding.setPrefLabel(match.getLabel());
+            places.put(match.getUri(), osBinding);
+        }
+        return places;
+    }
+    
     public static Map<String,OSBinding> lookupPreciseLocation(String location, int results) {
         // parameter check
         if (results < 0 || results > 100) {
             results = 10;
         }
+        FuzzyIndex index = localIndex;
+        if (index != null && !HttpTransport.isAvailable(HOST)) {
+            // the endpoint is down, so the same exact label match from the dumps
+            return toBindings(index.findExact(location, results));
+        }
         // build SPARQL query
-        String url = URL + SPARQL_PREFIX_PRECISE + StringUtils.makeURLSafe(location) + SPARQL_SUFFIX_PRECISE + results + SPARQL_OUTPUT;
+        String url = URL + SPARQL_PREFIX_PRECISE + StringUtils.makeURLSafe(location) + SPARQL_SUFFIX_PRECISE + results;
         // send query
-        String json = getResultsFromOS(url);
-        
-        return parseJSON(json);
+        return lookup(url);
     }
     
     public static Map<String,OSBinding> lookupFuzzyLocation(String location, int results) {
@@ -90,11 +141,13 @@ public class OSClient {
         if (results < 0 || results > 100) {
             results = 10;
         }
+        FuzzyIndex index = localIndex;
+        if (index != null) {
+            return toBindings(index.findSimilar(location, results));
+        }
         // build SPARQL query
-        String url = URL + SPARQL_PREFIX_FUZZY + StringUtils.makeURLSafe(location) + SPARQL_SUFFIX_FUZZY + results + SPARQL_OUTPUT;
+        String url = URL + SPARQL_PREFIX_FUZZY + StringUtils.makeURLSafe(location) + SPARQL_SUFFIX_FUZZY + results;
         // send query
-        String json = getResultsFromOS(url);
-        
-        return parseJSON(json);
+        return lookup(url);
     }
 }
@@ -1,9 +1,20 @@
 
 package net.charno.semweb.lookups;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import net.charno.semweb.bindings.URILabelBinding;
 import static net.charno.semweb.lookups.SparqlClient.getResultsFromEndpoint;
+import net.charno.semweb.cache.LookupCache;
+import net.charno.semweb.cache.LookupCaches;
+import net.charno.semweb.http.BatchSizer;
+import net.charno.semweb.http.LookupExecutor;
+import net.charno.semweb.index.SkosIndex;
 import net.charno.utils.StringUtils;
 
 /**
@@ -16,7 +27,9 @@ public class SeneschalClient extends SparqlClient {
     private static final String SPARQL_EH_PERIOD_2 = "%22%40en%20.%20%7D%20LIMIT%20";
     private static final String SPARQL_MDA_OBJ_1 = "PREFIX%20skos%3A%20%3Chttp%3A%2F%2Fwww.w3.org%2F2004%2F02%2Fskos%2Fcore%23%3E%20SELECT%20%3Furi%20WHERE%20%7B%20%3Furi%20skos%3AinScheme%20%3Chttp%3A%2F%2Fpurl.org%2Fheritagedata%2Fschemes%2Fmda_obj%3E%20%3B%20skos%3AprefLabel%20%3Flabel%20.%20FILTER%20regex(%3Flabel%2C%20%22%5E";
     private static final String SPARQL_MDA_OBJ_2 = "%22%2C%20%22i%22%20)%7D%20LIMIT%20";
-    private static final String SPARQL_OUTPUT = "&output=json";
+    private static final String SPARQL_OUTPUT = "output";
+    private static final String SPARQL_POST_URL = "http://heritagedata.org/live/sparql";
+    private static final String SPARQL_PREFIX = "PREFIX skos: <http://www.w3.org/2004/02/skos/core#> ";
     
     private static final String REST_URL = "http://www.heritagedata.org/live/services/";
     private static final String REST_MATCH = "getConceptLabelMatch?schemeURI=";
@@ -38,101 +51,232 @@ public class SeneschalClient extends SparqlClient {
     private static final String REST_COMPONENTS_ENG_URL = "http://purl.org/heritagedata/schemes/eh_com";
     private static final String REST_ARCHAEOLOGICAL_SCIENCES_ENG_URL = "http://purl.org/heritagedata/schemes/560";
     
+    /**
+     * An offline copy of the heritagedata schemes. When set, lookups to the
+     * schemes it holds are answered from it instead of the live services. It can be
+     * loaded at startup from a comma separated list of N-Triples files with
+     * -Dseneschal.skos.
+     */
+    private static volatile SkosIndex localIndex = loadLocalIndex(System.getProperty("seneschal.skos"));
+    
+    /**
+     * Switches the client to local mode, or back to the live services if the
+     * index is null.
+     * 
+     * @param index An index of the heritagedata SKOS dumps.
+     */
+    public static void setLocalIndex(SkosIndex index) {
+        localIndex = index;
+    }
+    
+    public static SkosIndex getLocalIndex() {
+        return localIndex;
+    }
+    
+    private static SkosIndex loadLocalIndex(String paths) {
+        if (paths == null) {
+            return null;
+        }
+        List<File> files = new ArrayList<File>();
+        for (String path : paths.split(",")) {
+            files.add(new File(path.trim()));
+        }
+        try {
+            SkosIndex index = SkosIndex.load(files.toArray(new File[0]));
+            System.out.println("Loaded " + index.size() + " heritagedata concepts from " + paths);
+            return index;
+        } catch (IOException ex) {
+            System.out.println("Can't load the heritagedata dumps " + paths + ": " + ex);
+            return null;
+        }
+    }
+    
     public static List<URILabelBinding> lookupEHPeriods(String period) {
-        String url = REST_URL + REST_MATCH + REST_PERIOD_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(period);
-        return lookup(url);
+        return lookupMatch(REST_PERIOD_ENG_URL, period);
     }
     
     public static List<URILabelBinding> lookupRCAHMWPeriods(String period) {
-        String url = REST_URL + REST_MATCH + REST_PERIOD_WAL_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(period);
-        return lookup(url);
+        return lookupMatch(REST_PERIOD_WAL_URL, period);
     }
     
     public static boolean engMonumentExists(String monument) {
-        String url = REST_URL + REST_EXISTS + REST_MONUMENT_ENG_URL + REST_ATTRS_LABEL + StringUtils.makeURLSafe(monument);
-        return exists(url);
+        return exists(REST_MONUMENT_ENG_URL, monument);
     }
     
     public static List<URILabelBinding> lookupEHMonuments(String monument) {
-        String url = REST_URL + REST_MATCH + REST_MONUMENT_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(monument);
-        return lookup(url);
+        return lookupMatch(REST_MONUMENT_ENG_URL, monument);
     }
     
     public static List<URILabelBinding> lookupRCAHMSMonuments(String monument) {
-        String url = REST_URL + REST_MATCH + REST_MONUMENT_SCO_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(monument);
-        return lookup(url);
+        return lookupMatch(REST_MONUMENT_SCO_URL, monument);
     }
     
     public static List<URILabelBinding> lookupRCAHMWMonuments(String monument) {
-        String url = REST_URL + REST_MATCH + REST_MONUMENT_WAL_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(monument);
-        return lookup(url);
+        return lookupMatch(REST_MONUMENT_WAL_URL, monument);
     }
     
     public static List<URILabelBinding> lookupEHMaritimeCraft(String craft) {
-        String url = REST_URL + REST_MATCH + REST_MARITIME_CRAFT_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(craft);
-        return lookup(url);
+        return lookupMatch(REST_MARITIME_CRAFT_ENG_URL, craft);
     }
     
     public static List<URILabelBinding> lookupRCAHMSMaritimeCraft(String craft) {
-        String url = REST_URL + REST_MATCH + REST_MARITIME_CRAFT_SCO_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(craft);
-        return lookup(url);
+        return lookupMatch(REST_MARITIME_CRAFT_SCO_URL, craft);
     }
     
     public static boolean engObjectExists(String obj) {
-        String url = REST_URL + REST_EXISTS + REST_OBJECTS_ENG_URL + REST_ATTRS_LABEL + StringUtils.makeURLSafe(obj);
-        return exists(url);
+        return exists(REST_OBJECTS_ENG_URL, obj);
     }
     
     public static List<URILabelBinding> lookupEHObjects(String obj) {
-        String url = REST_URL + REST_MATCH + REST_OBJECTS_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(obj);
-        return lookup(url);
+        return lookupMatch(REST_OBJECTS_ENG_URL, obj);
     }
     
     public static List<URILabelBinding> lookupRCAHMSObjects(String obj) {
-        String url = REST_URL + REST_MATCH + REST_OBJECTS_SCO_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(obj);
-        return lookup(url);
+        return lookupMatch(REST_OBJECTS_SCO_URL, obj);
     }
     
     public static boolean engEventExists(String event) {
-        String url = REST_URL + REST_EXISTS + REST_EVENT_ENG_URL + REST_ATTRS_LABEL + StringUtils.makeURLSafe(event);
-        return exists(url);
+        return exists(REST_EVENT_ENG_URL, event);
     }
     
     public static List<URILabelBinding> lookupEHEvent(String event) {
-        String url = REST_URL + REST_MATCH + REST_EVENT_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(event);
-        return lookup(url);
+        return lookupMatch(REST_EVENT_ENG_URL, event);
     }
     
     public static List<URILabelBinding> lookupEHBuildingMaterials(String material) {
-        String url = REST_URL + REST_MATCH + REST_BUILDING_MATERIALS_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(material);
-        return lookup(url);
+        return lookupMatch(REST_BUILDING_MATERIALS_ENG_URL, material);
     }
     
     public static List<URILabelBinding> lookupEHEvidence(String evidence) {
-        String url = REST_URL + REST_MATCH + REST_EVIDENCE_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(evidence);
-        return lookup(url);
+        return lookupMatch(REST_EVIDENCE_ENG_URL, evidence);
     }
     
     public static List<URILabelBinding> lookupEHComponents(String components) {
-        String url = REST_URL + REST_MATCH + REST_COMPONENTS_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(components);
-        return lookup(url);
+        return lookupMatch(REST_COMPONENTS_ENG_URL, components);
     }
     
     public static List<URILabelBinding> lookupEHArchaeologicalSciences(String science) {
-        String url = REST_URL + REST_MATCH + REST_ARCHAEOLOGICAL_SCIENCES_ENG_URL + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(science);
-        return lookup(url);
+        return lookupMatch(REST_ARCHAEOLOGICAL_SCIENCES_ENG_URL, science);
     }
     
     public static String lookupSingleFISHObject(String object) {
+        SkosIndex index = localIndexFor(REST_OBJECTS_ENG_URL);
+        if (index != null) {
+            // the same ^prefix match as the query, so the answer doesn't depend on the data used
+            return index.findPrefix(REST_OBJECTS_ENG_URL, object);
+        }
         // build SPARQL query
-        String url = SPARQL_URL + SPARQL_MDA_OBJ_1 + StringUtils.makeURLSafe(object) + SPARQL_MDA_OBJ_2 + "1" + SPARQL_OUTPUT;
-        return lookupSingle(url);
+        String url = SPARQL_URL + SPARQL_MDA_OBJ_1 + StringUtils.makeURLSafe(object) + SPARQL_MDA_OBJ_2 + "1";
+        // the regex is case insensitive, so the case of the object doesn't matter
+        return lookupSingle(LookupCache.key("mda_obj", object.toLowerCase()), url);
     }
     
     public static String lookupSingleEHPeriod(String period) {
+        SkosIndex index = localIndexFor(REST_PERIOD_ENG_URL);
+        if (index != null) {
+            return index.findExact(REST_PERIOD_ENG_URL, period);
+        }
         // build SPARQL query
-        String url = SPARQL_URL + SPARQL_EH_PERIOD_1 + StringUtils.makeURLSafe(period.toUpperCase()) + SPARQL_EH_PERIOD_2 + "1" + SPARQL_OUTPUT;
-        return lookupSingle(url);
+        String url = SPARQL_URL + SPARQL_EH_PERIOD_1 + StringUtils.makeURLSafe(period.toUpperCase()) + SPARQL_EH_PERIOD_2 + "1";
+        return lookupSingle(LookupCache.key("eh_period", period.toUpperCase()), url);
+    }
+    
+    /**
+     * Looks up many periods at once, see lookupSingleEHPeriod().
+     * 
+     * @param periods The period labels.
+     * @return The uri for each period that has one.
+     */
+    public static Map<String,String> lookupSingleEHPeriodBatch(Collection<String> periods) {
+        if (localIndexFor(REST_PERIOD_ENG_URL) != null) {
+            return lookupEach(periods, EH_PERIOD_BATCH);
+        }
+        return lookupBatch(periods, EH_PERIOD_BATCH);
+    }
+    
+    /**
+     * Looks up many object types at once, see lookupSingleFISHObject().
+     * 
+     * @param objects The object type labels, or their beginnings.
+     * @return The uri for each object type that has one.
+     */
+    public static Map<String,String> lookupSingleFISHObjectBatch(Collection<String> objects) {
+        if (localIndexFor(REST_OBJECTS_ENG_URL) != null) {
+            return lookupEach(objects, FISH_OBJECT_BATCH);
+        }
+        return lookupBatch(objects, FISH_OBJECT_BATCH);
+    }
+    
+    private static final BatchSizer BATCH_SIZER = new BatchSizer(50, 1, 500, 5000);
+    
+    private static final BatchQuery EH_PERIOD_BATCH = new BatchQuery(SPARQL_POST_URL, SPARQL_OUTPUT, BATCH_SIZER) {
+        
+        protected String value(String label) {
+            return label.toUpperCase();
+        }
+        
+        protected String key(String label) {
+            return LookupCache.key("eh_period", label.toUpperCase());
+        }
+        
+        protected String literal(String value) {
+            return SparqlClient.literal(value, "en");
+        }
+        
+        protected String query(String values) {
+            return SPARQL_PREFIX + "SELECT (STR(?label) AS ?value) (SAMPLE(?u) AS ?uri) WHERE { VALUES ?label { " + values + "} "
+                    + "?u skos:inScheme <" + REST_PERIOD_ENG_URL + "> ; skos:prefLabel ?label . } GROUP BY ?label";
+        }
+        
+        protected String lookupSingle(String label) {
+            return lookupSingleEHPeriod(label);
+        }
+    };
+    
+    private static final BatchQuery FISH_OBJECT_BATCH = new BatchQuery(SPARQL_POST_URL, SPARQL_OUTPUT, BATCH_SIZER) {
+        
+        protected String value(String label) {
+            return label.toLowerCase();
+        }
+        
+        protected String key(String label) {
+            return LookupCache.key("mda_obj", label.toLowerCase());
+        }
+        
+        protected String literal(String value) {
+            return SparqlClient.literal(value, null);
+        }
+        
+        protected String query(String values) {
+            return SPARQL_PREFIX + "SELECT ?value (SAMPLE(?u) AS ?uri) WHERE { VALUES ?value { " + values + "} "
+                    + "?u skos:inScheme <" + REST_OBJECTS_ENG_URL + "> ; skos:prefLabel ?label . "
+                    + "FILTER(STRSTARTS(LCASE(STR(?label)), ?value)) } GROUP BY ?value";
+        }
+        
+        protected String lookupSingle(String label) {
+            return lookupSingleFISHObject(label);
+        }
+    };
+    
+    /**
+     * Returns the local index if it holds the scheme, otherwise null to say 
+     * the lookup should go to the live services.
+     */
+    private static SkosIndex localIndexFor(String scheme) {
+        SkosIndex index = localIndex;
+        if (index != null && index.getSchemes().contains(scheme)) {
+            return index;
+        }
+        return null;
+    }
+    
+    private static boolean exists(String scheme, String label) {
+        SkosIndex index = localIndexFor(scheme);
+        if (index != null) {
+            return index.findExact(scheme, label) != null;
+        }
+        String url = REST_URL + REST_EXISTS + scheme + REST_ATTRS_LABEL + StringUtils.makeURLSafe(label);
+        return exists(url);
     }
     
     private static boolean exists(String url) {
@@ -148,24 +292,98 @@ public class SeneschalClient extends SparqlClient {
         return false;
     }
     
+    private static List<URILabelBinding> lookupMatch(String scheme, String value) {
+        SkosIndex index = localIndexFor(scheme);
+        if (index != null) {
+            return index.findContaining(scheme, value);
+        }
+        String url = REST_URL + REST_MATCH + scheme + REST_ATTRS_CONTAINS + StringUtils.makeURLSafe(value);
+        return lookup(url);
+    }
+    
     private static List<URILabelBinding> lookup(String url) {
-        String json = getResultsFromEndpoint(url);
-        
-        return parseRootArrayJSON(json);
+        return lookupRootArrayJSON(url);
     }
     
-    private static String lookupSingle(String url) {
-        String uri = null;
-        // send query
-        String json = getResultsFromEndpoint(url);
-        // loop through results and grab first entry
-        List<URILabelBinding> resultsList = parseStandardJSON(json);
-        for (URILabelBinding entry : resultsList) {
-            uri = entry.getUri();
-            break;
-        }
-        
-        return uri;
+    private static String lookupSingle(final String key, final String url) {
+        // send query, keeping the first result
+        return LookupCaches.URIS.get(key, () -> LookupCaches.stored(key, () -> lookupFirstURI(url, SPARQL_OUTPUT)));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHPeriodsAsync(String period) {
+        return LookupExecutor.supply(() -> lookupEHPeriods(period));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupRCAHMWPeriodsAsync(String period) {
+        return LookupExecutor.supply(() -> lookupRCAHMWPeriods(period));
+    }
+    
+    public static CompletableFuture<Boolean> engMonumentExistsAsync(String monument) {
+        return LookupExecutor.supply(() -> engMonumentExists(monument));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHMonumentsAsync(String monument) {
+        return LookupExecutor.supply(() -> lookupEHMonuments(monument));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupRCAHMSMonumentsAsync(String monument) {
+        return LookupExecutor.supply(() -> lookupRCAHMSMonuments(monument));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupRCAHMWMonumentsAsync(String monument) {
+        return LookupExecutor.supply(() -> lookupRCAHMWMonuments(monument));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHMaritimeCraftAsync(String craft) {
+        return LookupExecutor.supply(() -> lookupEHMaritimeCraft(craft));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupRCAHMSMaritimeCraftAsync(String craft) {
+        return LookupExecutor.supply(() -> lookupRCAHMSMaritimeCraft(craft));
+    }
+    
+    public static CompletableFuture<Boolean> engObjectExistsAsync(String obj) {
+        return LookupExecutor.supply(() -> engObjectExists(obj));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHObjectsAsync(String obj) {
+        return LookupExecutor.supply(() -> lookupEHObjects(obj));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupRCAHMSObjectsAsync(String obj) {
+        return LookupExecutor.supply(() -> lookupRCAHMSObjects(obj));
+    }
+    
+    public static CompletableFuture<Boolean> engEventExistsAsync(String event) {
+        return LookupExecutor.supply(() -> engEventExists(event));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHEventAsync(String event) {
+        return LookupExecutor.supply(() -> lookupEHEvent(event));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHBuildingMaterialsAsync(String material) {
+        return LookupExecutor.supply(() -> lookupEHBuildingMaterials(material));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHEvidenceAsync(String evidence) {
+        return LookupExecutor.supply(() -> lookupEHEvidence(evidence));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHComponentsAsync(String components) {
+        return LookupExecutor.supply(() -> lookupEHComponents(components));
+    }
+    
+    public static CompletableFuture<List<URILabelBinding>> lookupEHArchaeologicalSciencesAsync(String science) {
+        return LookupExecutor.supply(() -> lookupEHArchaeologicalSciences(science));
+    }
+    
+    public static CompletableFuture<String> lookupSingleFISHObjectAsync(String object) {
+        return LookupExecutor.supply(() -> lookupSingleFISHObject(object));
+    }
+    
+    public static CompletableFuture<String> lookupSingleEHPeriodAsync(String period) {
+        return LookupExecutor.supply(() -> lookupSingleEHPeriod(period));
     }
     
     public static void main(String[] args) {
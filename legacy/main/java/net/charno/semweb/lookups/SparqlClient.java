@@ -6,16 +6,25 @@ package net.charno.semweb.lookups;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
 import net.charno.semweb.bindings.URILabelBinding;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import net.charno.semweb.cache.LookupCaches;
+import net.charno.semweb.http.BatchSizer;
+import net.charno.semweb.http.HttpTransport;
+import net.charno.semweb.http.SingleFlight;
+import net.charno.utils.JSONPullParser;
+import net.charno.utils.SparqlResultsReader;
+import org.apache.http.client.HttpResponseException;
+import org.xml.sax.SAXException;
 
 /**
  *
@@ -23,14 +32,26 @@ import org.json.simple.parser.ParseException;
  */
 public abstract class SparqlClient {
     
-    protected static String getResultsFromEndpoint(String url) {
+    /**
+     * The longest query to send in one batch. Endpoints and the proxies in 
+     * front of them tend to refuse larger requests, even by POST.
+     */
+    private static final int MAX_QUERY_LENGTH = 16000;
+    
+    /**
+     * Collapse concurrent requests for the same url into one, so a burst of 
+     * callers looking up the same label only reaches the endpoint once.
+     */
+    private static final SingleFlight<String> RESPONSES = new SingleFlight<String>();
+    private static final SingleFlight<String> FIRST_URIS = new SingleFlight<String>();
+    private static final SingleFlight<List<URILabelBinding>> URI_LISTS = new SingleFlight<List<URILabelBinding>>();
+    private static final SingleFlight<List<URILabelBinding>> ROOT_ARRAYS = new SingleFlight<List<URILabelBinding>>();
+    
+    protected static String getResultsFromEndpoint(final String url) {
         String results = null;
         
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        HttpGet httpGet = new HttpGet(url);
         try {
-            HttpResponse httpResponse = httpClient.execute(httpGet);
-            results = EntityUtils.toString(httpResponse.getEntity());
+            results = coalesced(RESPONSES, url, () -> HttpTransport.getString(url));
         } catch (IOException ex) {
             System.out.println(ex);
         }
@@ -38,59 +59,369 @@ public abstract class SparqlClient {
         return results;
     }
     
-    protected static List<URILabelBinding> parseRootArrayJSON(String json) {
-        List<URILabelBinding> results = new ArrayList<URILabelBinding>();
-        JSONParser parser = new JSONParser();
-        
+    /**
+     * Runs a request through a SingleFlight, so that it is shared with any
+     * identical request already in flight.
+     * 
+     * @param flight The requests in flight.
+     * @param key Identifies the request, e.g. its url.
+     * @param call Makes the request.
+     * @return The request's result, which may be shared with other callers.
+     * @throws IOException If the request fails.
+     */
+    protected static <V> V coalesced(SingleFlight<V> flight, String key, Callable<V> call) throws IOException {
+        try {
+            return flight.execute(key, call);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    /**
+     * Whether to ask endpoints for TSV or CSV results rather than JSON. They 
+     * are smaller and quicker to read, and endpoints without them still send
+     * JSON or XML, so this is only worth turning off for an endpoint that 
+     * handles the Accept header badly, with -Dsparql.compact=false.
+     */
+    private static volatile boolean compactResults = !"false".equals(System.getProperty("sparql.compact"));
+    
+    public static void setCompactResults(boolean compact) {
+        compactResults = compact;
+    }
+    
+    public static boolean isCompactResults() {
+        return compactResults;
+    }
+    
+    /**
+     * Runs a SELECT query, passing each row of the results to a handler as it
+     * is read. The results are negotiated with the Accept header, unless 
+     * compact results are turned off, in which case JSON is asked for with 
+     * the endpoint's output parameter.
+     * 
+     * @param url The query url.
+     * @param outputParameter The endpoint's parameter for asking for JSON.
+     * @param handler Receives each row as a map of variable to value, and 
+     * returns false to stop reading.
+     * @throws IOException If the request fails or the results can't be read.
+     */
+    protected static void select(String url, String outputParameter, Predicate<Map<String,String>> handler) throws IOException {
+        if (!compactResults) {
+            url = url + "&" + outputParameter + "=json";
+        }
+        HttpTransport.get(url, SparqlResultsReader.ACCEPT, (in, mimeType, charset) -> {
+            SparqlResultsReader.read(in, mimeType, charset, handler);
+            return null;
+        });
+    }
+    
+    /**
+     * Runs a SELECT query and returns the ?uri of each row.
+     * 
+     * @param url The query url.
+     * @param outputParameter The endpoint's parameter for asking for JSON.
+     * @return A binding with the uri of each row, which may be null, or as 
+     * many as were read before an error.
+     */
+    protected static List<URILabelBinding> lookupURIs(final String url, final String outputParameter) {
         try {
-            Object jsonObject = parser.parse(json);
-            JSONArray jsonArray = (JSONArray) jsonObject;
-            for (int i=0; i<jsonArray.size(); i++) {
-                JSONObject result = (JSONObject) jsonArray.get(i);
-                String uri = (String) result.get("uri");
-                String label = (String) result.get("label");
-                if (uri != null && label != null) {
-                    results.add(new URILabelBinding(uri, label));
+            return new ArrayList<URILabelBinding>(coalesced(URI_LISTS, url, () -> {
+                List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+                try {
+                    select(url, outputParameter, row -> results.add(new URILabelBinding(row.get("uri"), null)));
+                } catch (JSONPullParser.SyntaxException ex) {
+                    System.out.println("position: " + ex.getPosition());
+                    System.out.println(ex);
+                } catch (IOException ex) {
+                    System.out.println(ex);
                 }
+                return results;
+            }));
+        } catch (IOException ex) {
+            System.out.println(ex);
+            return new ArrayList<URILabelBinding>();
+        }
+    }
+    
+    /**
+     * Runs a SELECT query and returns the ?uri of the first row. The rest of
+     * the results aren't parsed.
+     * 
+     * @param url The query url.
+     * @param outputParameter The endpoint's parameter for asking for JSON.
+     * @return The uri, or null if there are no results.
+     * @throws IOException If the request fails or the results can't be read.
+     */
+    protected static String lookupFirstURI(final String url, final String outputParameter) throws IOException {
+        return coalesced(FIRST_URIS, url, () -> {
+            final String[] uri = new String[1];
+            select(url, outputParameter, row -> {
+                uri[0] = row.get("uri");
+                return false;
+            });
+            return uri[0];
+        });
+    }
+    
+    /**
+     * GETs a JSON array of objects with uri and label fields, as returned by
+     * the heritagedata.org REST services.
+     * 
+     * @param url The request url.
+     * @return The objects with both fields, or as many as were read before an
+     * error.
+     */
+    protected static List<URILabelBinding> lookupRootArrayJSON(final String url) {
+        try {
+            return new ArrayList<URILabelBinding>(coalesced(ROOT_ARRAYS, url, () -> {
+                List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+                try {
+                    HttpTransport.get(url, reader -> {
+                        JSONPullParser parser = new JSONPullParser(reader);
+                        if (parser.next() != JSONPullParser.Token.START_ARRAY) {
+                            throw new JSONPullParser.SyntaxException("Expected an array", 0);
+                        }
+                        while (parser.next() == JSONPullParser.Token.START_OBJECT) {
+                            Map<String,String> result = parser.readObject();
+                            String uri = result.get("uri");
+                            String label = result.get("label");
+                            if (uri != null && label != null) {
+                                results.add(new URILabelBinding(uri, label));
+                            }
+                        }
+                        return null;
+                    });
+                } catch (JSONPullParser.SyntaxException ex) {
+                    System.out.println("ERROR at position: " + ex.getPosition());
+                    System.out.println(ex);
+                } catch (IOException ex) {
+                    System.out.println(ex);
+                }
+                return results;
+            }));
+        } catch (IOException ex) {
+            System.out.println(ex);
+            return new ArrayList<URILabelBinding>();
+        }
+    }
+    
+    /**
+     * Whether a failure means the endpoint couldn't take the query, as 
+     * opposed to not answering it: a 4xx other than a timeout or rate limit,
+     * e.g. 400, 413 or 414, or results that can't be parsed. Only then is it
+     * worth asking again in another form.
+     * 
+     * @param ex The failure.
+     * @return Whether the query was refused.
+     */
+    protected static boolean rejectsQuery(IOException ex) {
+        if (ex instanceof HttpResponseException) {
+            int status = ((HttpResponseException) ex).getStatusCode();
+            return status >= 400 && status < 500 && status != 408 && status != 429;
+        }
+        return ex instanceof JSONPullParser.SyntaxException || ex.getCause() instanceof SAXException;
+    }
+    
+    /**
+     * Writes a value as a SPARQL string literal.
+     * 
+     * @param value The value.
+     * @param language A language tag, or null for a plain literal.
+     * @return The quoted and escaped literal.
+     */
+    protected static String literal(String value, String language) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '"': sb.append("\\\""); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default: sb.append(c);
             }
-            
-        } catch (ParseException pe) {
-            System.out.println("ERROR at position: " + pe.getPosition());
-            System.out.println(pe);
+        }
+        sb.append('"');
+        if (language != null) {
+            sb.append('@').append(language);
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * A lookup that can resolve many labels with one VALUES query.
+     */
+    protected abstract static class BatchQuery {
+        
+        private final String endpoint;
+        private final String outputParameter;
+        private final BatchSizer sizer;
+        
+        /**
+         * @param endpoint The SPARQL endpoint, without a query string.
+         * @param outputParameter The endpoint's parameter for asking for JSON,
+         * used when compact results are turned off.
+         * @param sizer Sizes the batches sent to this endpoint.
+         */
+        protected BatchQuery(String endpoint, String outputParameter, BatchSizer sizer) {
+            this.endpoint = endpoint;
+            this.outputParameter = outputParameter;
+            this.sizer = sizer;
         }
         
-        return results;
+        /**
+         * @return The value to send for a label, and which comes back as ?value.
+         */
+        protected abstract String value(String label);
+        
+        /**
+         * @return The cache key the single lookup uses for the label.
+         */
+        protected abstract String key(String label);
+        
+        /**
+         * @return The query for a VALUES block of literals, selecting ?value 
+         * and ?uri with at most one row per value.
+         */
+        protected abstract String query(String values);
+        
+        /**
+         * @return The literal for a value in the VALUES block.
+         */
+        protected abstract String literal(String value);
+        
+        /**
+         * The single lookup, used for labels whose batch failed.
+         */
+        protected abstract String lookupSingle(String label);
     }
     
-    protected static List<URILabelBinding> parseStandardJSON(String json) {
-        List<URILabelBinding> results = new ArrayList<URILabelBinding>();
-        JSONParser parser = new JSONParser();
-        // check if the json String is null
-        if (json == null) {
-            System.out.println("ERROR! The interenet connection may be down, because i just got a NULL String"
-                    + "for the JSON results from the endpoint...");
+    /**
+     * Resolves many labels to uris with as few requests as possible. Labels
+     * that are already cached are answered from the cache, and the rest are 
+     * sent in VALUES queries by POST, in batches sized to the endpoint. A
+     * batch the endpoint refuses is split in two and retried, and a single 
+     * label that is still refused falls back to the single lookup. A batch 
+     * that fails any other way, e.g. because the endpoint is down, is given
+     * up on, and its labels go unanswered. The results are cached under the
+     * same keys as the single lookups.
+     * 
+     * @param labels The labels to look up.
+     * @param query How to look them up.
+     * @return The uri for each label that has one.
+     */
+    protected static Map<String,String> lookupBatch(Collection<String> labels, BatchQuery query) {
+        // the distinct values still to look up
+        Set<String> pending = new LinkedHashSet<String>();
+        for (String label : labels) {
+            if (!LookupCaches.isCached(query.key(label))) {
+                pending.add(query.value(label));
+            }
         }
-        // process json results
-        try {
-            JSONObject jsonObject = (JSONObject) parser.parse(json);
-            JSONObject jsonResults = (JSONObject) jsonObject.get("results");
-            JSONArray jsonBindings = (JSONArray) jsonResults.get("bindings");
-            for (Object binding : jsonBindings) {
-                JSONObject jsonBinding = (JSONObject) binding;
-                JSONObject jsonUri = (JSONObject) jsonBinding.get("uri");
-                
-                String uri = null;
-                if (jsonUri != null) {
-                    uri = (String) jsonUri.get("value");
+        Map<String,String> resolved = new HashMap<String, String>();
+        Set<String> answered = new HashSet<String>();
+        Set<String> abandoned = new HashSet<String>();
+        List<String> values = new ArrayList<String>(pending);
+        int emptyLength = query.query("").length();
+        int next = 0;
+        while (next < values.size()) {
+            int size = query.sizer.size();
+            int length = emptyLength;
+            List<String> batch = new ArrayList<String>();
+            while (next < values.size() && batch.size() < size) {
+                int literalLength = query.literal(values.get(next)).length() + 1;
+                if (!batch.isEmpty() && length + literalLength > MAX_QUERY_LENGTH) {
+                    break;
                 }
-                results.add(new URILabelBinding(uri, null));
+                length += literalLength;
+                batch.add(values.get(next++));
             }
-            
-        } catch (ParseException pe) {
-            System.out.println("position: " + pe.getPosition());
-            System.out.println(pe);
-        } 
+            resolveBatch(batch, query, resolved, answered, abandoned);
+        }
         
+        Map<String,String> results = new LinkedHashMap<String, String>();
+        for (String label : labels) {
+            final String value = query.value(label);
+            String uri;
+            if (answered.contains(value)) {
+                final String key = query.key(label);
+                uri = LookupCaches.URIS.get(key, () -> LookupCaches.stored(key, () -> resolved.get(value)));
+            } else if (abandoned.contains(value)) {
+                uri = null;
+            } else {
+                uri = query.lookupSingle(label);
+            }
+            if (uri != null) {
+                results.put(label, uri);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Looks up each label on its own, e.g. when the client is answering from 
+     * a local index and batching would gain nothing.
+     * 
+     * @param labels The labels to look up.
+     * @param query The lookup.
+     * @return The uri for each label that has one.
+     */
+    protected static Map<String,String> lookupEach(Collection<String> labels, BatchQuery query) {
+        Map<String,String> results = new LinkedHashMap<String, String>();
+        for (String label : labels) {
+            String uri = query.lookupSingle(label);
+            if (uri != null) {
+                results.put(label, uri);
+            }
+        }
         return results;
     }
+    
+    private static void resolveBatch(List<String> batch, BatchQuery query, Map<String,String> resolved, Set<String> answered,
+            Set<String> abandoned) {
+        StringBuilder values = new StringBuilder();
+        for (String value : batch) {
+            values.append(query.literal(value)).append(' ');
+        }
+        Map<String,String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("query", query.query(values.toString()));
+        if (!compactResults) {
+            parameters.put(query.outputParameter, "json");
+        }
+        long start = System.currentTimeMillis();
+        try {
+            HttpTransport.postForm(query.endpoint, parameters, SparqlResultsReader.ACCEPT, (in, mimeType, charset) -> {
+                SparqlResultsReader.read(in, mimeType, charset, row -> {
+                    String value = row.get("value");
+                    if (value != null && row.get("uri") != null && !resolved.containsKey(value)) {
+                        resolved.put(value, row.get("uri"));
+                    }
+                    return true;
+                });
+                return null;
+            });
+            answered.addAll(batch);
+            query.sizer.succeeded(batch.size(), System.currentTimeMillis() - start);
+        } catch (IOException ex) {
+            query.sizer.failed(batch.size());
+            if (!rejectsQuery(ex)) {
+                // smaller batches won't help an endpoint that isn't answering
+                System.out.println(ex);
+                abandoned.addAll(batch);
+                return;
+            }
+            if (batch.size() == 1) {
+                System.out.println(ex);
+                return;
+            }
+            int half = batch.size() / 2;
+            resolveBatch(batch.subList(0, half), query, resolved, answered, abandoned);
+            resolveBatch(batch.subList(half, batch.size()), query, resolved, answered, abandoned);
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package net.charno.utils;
+
+import net.charno.gml.Geometry;
+
+/**
+ * Parses GML coordinate text straight into a Geometry in one pass, as it
+ * arrives in however many chunks the XML parser splits it into. Numbers are
+ * accumulated digit by digit and only fall back to Double.parseDouble when
+ * they can't be converted exactly, so reading a geometry makes no garbage.
+ * <p>
+ * It reads both gml:coordinates, "x,y x,y" with configurable separators, and
+ * gml:posList and gml:pos, "x y x y" with a fixed number of ordinates per
+ * point. Any z is dropped.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+final class CoordinateTokenizer {
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * Whole numbers below this are held exactly in a double.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private Geometry geometry;
+    private char coordinateSeparator;
+    private char tupleSeparator;
+    private char decimal;
+    private int dimension;
+
+    /** The text of the current number, for the fallback. */
+    private char[] token = new char[32];
+    private int tokenLength;
+
+    private long mantissa;
+    private int mantissaDigits;
+    private int significantDigits;
+    private int fractionDigits;
+    private int exponent;
+    private int exponentDigits;
+    private boolean negative;
+    private boolean seenPoint;
+    private boolean inExponent;
+    private boolean exponentNegative;
+    private boolean inexact;
+
+    private final double[] ordinates = new double[2];
+    private int ordinate;
+
+    /**
+     * Starts reading the coordinates of a gml:coordinates element into a new
+     * ring or part of the geometry.
+     *
+     * @param geometry The geometry to add the points to.
+     * @param coordinateSeparator Separates the x and y of a point.
+     * @param tupleSeparator Separates points, where a space stands for any
+     * whitespace.
+     * @param decimal The decimal point.
+     */
+    void startCoordinates(Geometry geometry, char coordinateSeparator, char tupleSeparator, char decimal) {
+        start(geometry, coordinateSeparator, tupleSeparator, decimal, 0);
+    }
+
+    /**
+     * Starts reading the coordinates of a gml:posList or gml:pos element
+     * into a new ring or part of the geometry.
+     *
+     * @param geometry The geometry to add the points to.
+     * @param dimension The number of ordinates in each point, at least 2.
+     */
+    void startPosList(Geometry geometry, int dimension) {
+        start(geometry, ' ', ' ', '.', Math.max(2, dimension));
+    }
+
+    private void start(Geometry geometry, char coordinateSeparator, char tupleSeparator, char decimal, int dimension) {
+        this.geometry = geometry;
+        this.coordinateSeparator = coordinateSeparator;
+        this.tupleSeparator = tupleSeparator;
+        this.decimal = decimal;
+        this.dimension = dimension;
+        this.ordinate = 0;
+        resetNumber();
+        geometry.addPart();
+    }
+
+    /**
+     * Reads the next chunk of text.
+     *
+     * @throws NumberFormatException If the text isn't coordinates.
+     */
+    void feed(char[] text, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            char c = text[i];
+            boolean space = c == ' ' || c == '\n' || c == '\r' || c == '\t';
+            if (dimension > 0) {
+                if (space) {
+                    endNumber();
+                } else {
+                    append(c);
+                }
+            } else if (c == coordinateSeparator) {
+                endNumber();
+            } else if (c == tupleSeparator || (tupleSeparator == ' ' && space)) {
+                endNumber();
+                endTuple();
+            } else if (!space) {
+                append(c);
+            }
+        }
+    }
+
+    /**
+     * Ends the coordinates, adding the last point.
+     *
+     * @throws NumberFormatException If the text ended part way through a
+     * point.
+     */
+    void finish() {
+        endNumber();
+        if (dimension > 0) {
+            if (ordinate != 0) {
+                throw new NumberFormatException("The coordinates end part way through a point");
+            }
+        } else {
+            endTuple();
+        }
+        geometry = null;
+    }
+
+    private void append(char c) {
+        if (tokenLength == token.length) {
+            char[] grown = new char[token.length * 2];
+            System.arraycopy(token, 0, grown, 0, tokenLength);
+            token = grown;
+        }
+        token[tokenLength++] = c;
+        if (c >= '0' && c <= '9') {
+            int digit = c - '0';
+            if (inExponent) {
+                exponentDigits++;
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + digit;
+                }
+            } else if (significantDigits < 18) {
+                mantissaDigits++;
+                if (mantissa != 0 || digit != 0) {
+                    significantDigits++;
+                }
+                mantissa = mantissa * 10 + digit;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else {
+                // too many digits to hold, so leave it to parseDouble
+                inexact = true;
+            }
+        } else if (c == decimal && !seenPoint && !inExponent) {
+            seenPoint = true;
+        } else if ((c == 'e' || c == 'E') && !inExponent) {
+            inExponent = true;
+        } else if ((c == '-' || c == '+') && tokenLength == 1) {
+            negative = c == '-';
+        } else if ((c == '-' || c == '+') && inExponent && exponentDigits == 0 && isExponentMark(token[tokenLength - 2])) {
+            exponentNegative = c == '-';
+        } else {
+            // not a number this understands, so parseDouble decides
+            inexact = true;
+        }
+    }
+
+    private static boolean isExponentMark(char c) {
+        return c == 'e' || c == 'E';
+    }
+
+    private void endNumber() {
+        if (tokenLength == 0) {
+            return;
+        }
+        double value = toDouble();
+        if (ordinate < ordinates.length) {
+            ordinates[ordinate] = value;
+        }
+        ordinate++;
+        resetNumber();
+        if (dimension > 0 && ordinate == dimension) {
+            geometry.addPoint(ordinates[0], ordinates[1]);
+            ordinate = 0;
+        }
+    }
+
+    private void endTuple() {
+        if (ordinate == 0) {
+            return;
+        }
+        if (ordinate < 2) {
+            throw new NumberFormatException("A point needs an x and a y");
+        }
+        geometry.addPoint(ordinates[0], ordinates[1]);
+        ordinate = 0;
+    }
+
+    private double toDouble() {
+        int scale = (exponentNegative ? -exponent : exponent) - fractionDigits;
+        if (!inexact && mantissaDigits > 0 && (!inExponent || exponentDigits > 0)
+                && mantissa < MAX_EXACT && scale >= -22 && scale <= 22) {
+            // both operands are exact, so the one rounding gives the nearest double
+            double value = scale >= 0 ? mantissa * POWERS_OF_TEN[scale] : mantissa / POWERS_OF_TEN[-scale];
+            return negative ? -value : value;
+        }
+        String text = new String(token, 0, tokenLength);
+        if (decimal != '.') {
+            text = text.replace(decimal, '.');
+        }
+        return Double.parseDouble(text);
+    }
+
+    private void resetNumber() {
+        tokenLength = 0;
+        mantissa = 0;
+        mantissaDigits = 0;
+        significantDigits = 0;
+        fractionDigits = 0;
+        exponent = 0;
+        exponentDigits = 0;
+        negative = false;
+        seenPoint = false;
+        inExponent = false;
+        exponentNegative = false;
+        inexact = false;
+    }
+}
@@ -0,0 +1,96 @@
+package net.charno.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import net.charno.gml.Attributes;
+import net.charno.gml.Geometry;
+import net.charno.gml.WKBWriter;
+
+/**
+ * Writes features to a compact binary file, for tools that would rather read
+ * the coordinates back as they were parsed than parse text again. Everything
+ * is big endian, as DataOutputStream writes it.
+ * <p>
+ * The file starts with the bytes "LDTF", a version byte of 1, the number of
+ * attributes, and then the context header and each attribute name. Every
+ * feature follows in turn: its fid, context id and attribute values, then its
+ * geometry as a type byte (the WKB code, 1 to 6), the point, part and polygon
+ * counts, the first point of each part, the first part of each polygon and
+ * the x and y of each point. A string is a byte of 0 for null, or 1 followed
+ * by writeUTF, so no one value can be more than 64K.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class FeatureFileWriter implements Closeable {
+
+    public static final byte VERSION = 1;
+    private static final byte[] MAGIC = {'L', 'D', 'T', 'F'};
+
+    private final DataOutputStream out;
+    private final List<String> attributeList;
+
+    /**
+     * Writes the header.
+     *
+     * @param out Where to write the features. It is closed by close().
+     * @param contextHeader The name of the field holding the context id.
+     * @param attributeList The names of the other fields, in the order their
+     * values are written.
+     * @throws IOException If the header can't be written.
+     */
+    public FeatureFileWriter(OutputStream out, String contextHeader, List<String> attributeList) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+        this.attributeList = attributeList;
+        this.out.write(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeInt(attributeList.size());
+        writeString(contextHeader);
+        for (String attribute : attributeList) {
+            writeString(attribute);
+        }
+    }
+
+    /**
+     * @param feature The feature to add to the file.
+     * @throws IOException If it can't be written.
+     */
+    public void write(Attributes feature) throws IOException {
+        writeString(feature.getFid());
+        writeString(feature.getContextID());
+        for (String attribute : attributeList) {
+            writeString(feature.getAttributeList().get(attribute));
+        }
+        Geometry geometry = feature.getGeometry();
+        out.writeByte(WKBWriter.typeCode(geometry.getGeometryType()));
+        out.writeInt(geometry.getPointCount());
+        out.writeInt(geometry.getPartCount());
+        out.writeInt(geometry.getPolygonCount());
+        for (int part = 0; part < geometry.getPartCount(); part++) {
+            out.writeInt(geometry.getPartStart(part));
+        }
+        for (int polygon = 0; polygon < geometry.getPolygonCount(); polygon++) {
+            out.writeInt(geometry.getPolygonStart(polygon));
+        }
+        for (int point = 0; point < geometry.getPointCount(); point++) {
+            out.writeDouble(geometry.getX(point));
+            out.writeDouble(geometry.getY(point));
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeUTF(value);
+        }
+    }
+}
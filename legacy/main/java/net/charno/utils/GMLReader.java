@@ -0,0 +1,361 @@
+package net.charno.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.charno.gml.Attributes;
+import net.charno.gml.Box;
+import net.charno.gml.Geometry;
+import net.charno.gml.GeometryPoints;
+import net.charno.gml.enums.GeometryType;
+
+/**
+ * Reads the features of an OGR GML file one at a time with StAX, so only the
+ * feature being read is ever held in memory, however large the file. Elements
+ * are matched by their local name, so the ogr: and gml: prefixes don't have
+ * to be bound to any particular namespace.
+ * <p>
+ * Each feature gets its fid, context id, the requested attributes, and the
+ * coordinates of its geometry, one part per gml:coordinates, gml:posList or
+ * gml:pos, with every ring of every polygon. The coordinate text goes
+ * straight from the parser to a CoordinateTokenizer, so no strings are made
+ * for it. The outermost geometry element decides the type, e.g. a
+ * gml:MultiSurface is read as a MULTIPOLYGON.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class GMLReader implements Iterator<Attributes>, Closeable {
+
+    private static final XMLInputFactory FACTORY = newFactory();
+
+    private final InputStream in;
+    private final XMLStreamReader reader;
+    private final String contextHeader;
+    private final List<String> attributeList;
+    private final Set<String> attributeNames;
+    private final CoordinateTokenizer tokenizer = new CoordinateTokenizer();
+    private Box box;
+    private Attributes next;
+    private boolean finished;
+
+    /**
+     * @param in The GML. It is closed by close().
+     * @param contextHeader The name of the field holding the context id.
+     * @param attributeList The names of the other fields to read.
+     * @throws IOException If the GML can't be opened.
+     */
+    public GMLReader(InputStream in, String contextHeader, List<String> attributeList) throws IOException {
+        this.in = in;
+        this.contextHeader = contextHeader;
+        this.attributeList = attributeList;
+        this.attributeNames = new HashSet<String>(attributeList);
+        try {
+            this.reader = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static XMLInputFactory newFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * @return The bounding box of the feature collection, or null if none has
+     * been read yet. OGR writes it before the features.
+     */
+    public Box getBox() {
+        return box;
+    }
+
+    /**
+     * @throws UncheckedIOException If the GML can't be read.
+     */
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            try {
+                next = readNext();
+            } catch (XMLStreamException ex) {
+                finished = true;
+                throw new UncheckedIOException(new IOException(ex));
+            }
+            finished = next == null;
+        }
+        return next != null;
+    }
+
+    /**
+     * @throws UncheckedIOException If the GML can't be read.
+     */
+    public Attributes next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Attributes feature = next;
+        next = null;
+        return feature;
+    }
+
+    public void close() throws IOException {
+        finished = true;
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            // the stream is closed below anyway
+        }
+        in.close();
+    }
+
+    private Attributes readNext() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("featureMember".equals(name)) {
+                    Attributes feature = readFeatureMember();
+                    if (feature != null) {
+                        return feature;
+                    }
+                } else if ("boundedBy".equals(name)) {
+                    readBox();
+                }
+            }
+        }
+        return null;
+    }
+
+    private Attributes readFeatureMember() throws XMLStreamException {
+        if (!nextChild()) {
+            return null;
+        }
+        Attributes attrs = new Attributes();
+        String fid = reader.getAttributeValue(null, "fid");
+        if (fid != null) {
+            attrs.setFid(fid);
+        }
+        for (String attributeHeader : attributeList) {
+            attrs.getAttributeList().put(attributeHeader, null);
+        }
+        while (nextChild()) {
+            String name = reader.getLocalName();
+            if ("geometryProperty".equals(name)) {
+                readGeometry(attrs.getGeometry());
+            } else if (name.equals(contextHeader) || attributeNames.contains(name)) {
+                String value = readText();
+                // the first of each field wins
+                if (name.equals(contextHeader) && attrs.getContextID() == null) {
+                    attrs.setContextID(value);
+                }
+                if (attributeNames.contains(name) && attrs.getAttributeList().get(name) == null) {
+                    attrs.getAttributeList().put(name, value);
+                }
+            } else {
+                skip();
+            }
+        }
+        // anything else in the member after the feature
+        while (nextChild()) {
+            skip();
+        }
+        return attrs;
+    }
+
+    private void readGeometry(Geometry geometry) throws XMLStreamException {
+        GeometryType type = null;
+        int depth = 0;
+        while (depth >= 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (type == null) {
+                    // the outermost element says what the whole geometry is
+                    type = geometryType(name);
+                }
+                if ("coordinates".equals(name)) {
+                    tokenizer.startCoordinates(geometry, attribute("cs", ','), attribute("ts", ' '),
+                            attribute("decimal", '.'));
+                    readCoordinates();
+                } else if ("posList".equals(name) || "pos".equals(name)) {
+                    tokenizer.startPosList(geometry, dimension());
+                    readCoordinates();
+                } else {
+                    if ("Polygon".equals(name) || "PolygonPatch".equals(name)) {
+                        geometry.addPolygon();
+                    }
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        geometry.trimToSize();
+        geometry.setGeometryType(type == null ? GeometryType.POINT : type);
+    }
+
+    private static GeometryType geometryType(String name) {
+        if ("LineString".equals(name) || "Curve".equals(name)) {
+            return GeometryType.LINESTRING;
+        } else if ("Polygon".equals(name) || "Surface".equals(name)) {
+            return GeometryType.POLYGON;
+        } else if ("MultiPoint".equals(name)) {
+            return GeometryType.MULTIPOINT;
+        } else if ("MultiLineString".equals(name) || "MultiCurve".equals(name)) {
+            return GeometryType.MULTILINESTRING;
+        } else if ("MultiPolygon".equals(name) || "MultiSurface".equals(name)) {
+            return GeometryType.MULTIPOLYGON;
+        }
+        return GeometryType.POINT;
+    }
+
+    /**
+     * Passes the text of the current coordinates element to the tokenizer as
+     * the parser reads it, without collecting it into a String first.
+     */
+    private void readCoordinates() throws XMLStreamException {
+        try {
+            int depth = 0;
+            while (depth >= 0) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (depth == 0 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE)) {
+                    tokenizer.feed(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+            tokenizer.finish();
+        } catch (NumberFormatException ex) {
+            throw new XMLStreamException("Bad coordinates: " + ex.getMessage(), reader.getLocation(), ex);
+        }
+    }
+
+    /**
+     * @return The first character of an attribute of the current element,
+     * or the default if it isn't set.
+     */
+    private char attribute(String name, char defaultValue) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null || value.isEmpty() ? defaultValue : value.charAt(0);
+    }
+
+    /**
+     * @return The srsDimension of the current posList, 2 if it isn't set.
+     */
+    private int dimension() throws XMLStreamException {
+        String value = reader.getAttributeValue(null, "srsDimension");
+        if (value == null) {
+            return 2;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new XMLStreamException("Bad srsDimension: " + value, reader.getLocation(), ex);
+        }
+    }
+
+    private void readBox() throws XMLStreamException {
+        GeometryPoints[] corners = new GeometryPoints[2];
+        int count = 0;
+        int depth = 0;
+        while (depth >= 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("coord".equals(reader.getLocalName())) {
+                    String x = null;
+                    String y = null;
+                    while (nextChild()) {
+                        String name = reader.getLocalName();
+                        if ("X".equals(name)) {
+                            x = readText();
+                        } else if ("Y".equals(name)) {
+                            y = readText();
+                        } else {
+                            skip();
+                        }
+                    }
+                    if (x != null && y != null && count < corners.length) {
+                        corners[count++] = new GeometryPoints(Double.parseDouble(x.trim()), Double.parseDouble(y.trim()));
+                    }
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        if (count == corners.length) {
+            box = new Box(corners[0], corners[1]);
+        }
+    }
+
+    /**
+     * Moves to the next child element of the current element.
+     *
+     * @return False when the end of the current element is reached instead.
+     */
+    private boolean nextChild() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the text of the current element up to its end, ignoring any
+     * child elements.
+     *
+     * @return The text, or null if the element is empty.
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 0;
+        while (depth >= 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (depth == 0 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE)) {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+        return text.length() == 0 ? null : text.toString();
+    }
+
+    /**
+     * Skips the current element and everything in it.
+     */
+    private void skip() throws XMLStreamException {
+        int depth = 0;
+        while (depth >= 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
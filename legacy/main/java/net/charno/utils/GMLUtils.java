@@ -1,16 +1,14 @@
 package net.charno.utils;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 import net.charno.gml.Attributes;
 import net.charno.gml.Box;
 import net.charno.gml.GML;
-import net.charno.gml.GeometryPoints;
-import net.charno.gml.enums.GeometryType;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  *
@@ -20,110 +18,75 @@ public class GMLUtils {
 
     /**
      * A method to turn an XML representation of GML into a GML Java object.
-     * 
+     * Every feature is held in memory, so for large files use streamGML or
+     * openGML instead.
+     *
      * @param filePath The path where the XML document lives.
      * @param contextHeader A context header.
      * @param attributeList A list of attributes that we want to get.
-     * @return A GML Java object to manipulate.
+     * @return A GML Java object to manipulate, or null if the file can't be
+     * read.
      */
     public static GML objectifyGML(String filePath, String contextHeader, List<String> attributeList) {
         GML gml = new GML();
+        try (GMLReader reader = openGML(filePath, contextHeader, attributeList)) {
+            while (reader.hasNext()) {
+                gml.getGmlAttributes().add(reader.next());
+            }
+            if (reader.getBox() != null) {
+                gml.setGmlBox(reader.getBox());
+            }
+            return gml;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (UncheckedIOException ex) {
+            ex.getCause().printStackTrace();
+        }
+        return null;
+    }
 
-        Document doc = XMLUtils.xmlToDoc(filePath);
-        doc.getDocumentElement().normalize();
-        NodeList featureCollectionList = doc.getElementsByTagName("ogr:FeatureCollection");
-
-        for (int i = 0; i < featureCollectionList.getLength(); i++) {
-            Node featureCollectionNode = featureCollectionList.item(i);
-
-            if (featureCollectionNode.getNodeType() == 1) {
-                Element featureCollection = (Element) featureCollectionNode;
-
-                NodeList boundedByList = featureCollection.getElementsByTagName("gml:boundedBy");
-                NodeList featureMemberList = featureCollection.getElementsByTagName("gml:featureMember");
-
-                for (int bb1 = 0; bb1 < boundedByList.getLength(); bb1++) {
-                    Element boundedBy = (Element) boundedByList.item(bb1);
-
-                    NodeList boxList = boundedBy.getElementsByTagName("gml:Box");
-                    for (int bb2 = 0; bb2 < boxList.getLength(); bb2++) {
-                        Element box = (Element) boxList.item(bb2);
-
-                        GeometryPoints[] bbox = new GeometryPoints[2];
-                        NodeList coordList = box.getElementsByTagName("gml:coord");
-                        for (int bb3 = 0; bb3 < coordList.getLength(); bb3++) {
-                            Element coord = (Element) coordList.item(bb3);
-
-                            String x = XMLUtils.getSingleValue(coord, "gml:X");
-
-                            String y = XMLUtils.getSingleValue(coord, "gml:Y");
-
-                            bbox[bb3] = new GeometryPoints(Double.parseDouble(x), Double.parseDouble(y));
-                        }
-
-                        gml.setGmlBox(new Box(bbox[0], bbox[1]));
-                    }
-
-                }
-
-                for (int fm1 = 0; fm1 < featureMemberList.getLength(); fm1++) {
-                    Attributes attrs = new Attributes();
-
-                    Element featureMember = (Element) featureMemberList.item(fm1);
-
-                    String tagName = featureMember.getChildNodes().item(1).getNodeName();
-                    NodeList gmlFeatureList = featureMember.getElementsByTagName(tagName);
-                    Element gmlFeature;
-                    for (int fm2 = 0; fm2 < gmlFeatureList.getLength(); fm2++) {
-                        gmlFeature = (Element) gmlFeatureList.item(fm2);
-                        Map<String, String> bdAttributes = XMLUtils.getAttributes(gmlFeature);
-                        for (String s : bdAttributes.keySet()) {
-                            if ("fid".equals(s)) {
-                                attrs.setFid((String) bdAttributes.get(s));
-                            }
-                        }
-
-                        NodeList geometryPropertyList = gmlFeature.getElementsByTagName("ogr:geometryProperty");
-                        for (int fm3 = 0; fm3 < geometryPropertyList.getLength(); fm3++) {
-                            Element geometryProperty = (Element) geometryPropertyList.item(fm3);
-
-                            NodeList geometryList;
-                            NodeList lineStringList = geometryProperty.getElementsByTagName("gml:LineString");
-                            NodeList polygonList = geometryProperty.getElementsByTagName("gml:Polygon");
-
-                            if (lineStringList.getLength() > 0) {
-                                attrs.getGeometry().setGeometryType(GeometryType.LINESTRING);
-                                geometryList = lineStringList;
-                            } else if (polygonList.getLength() > 0) {
-                                attrs.getGeometry().setGeometryType(GeometryType.POLYGON);
-                                geometryList = polygonList.item(0).getChildNodes().item(0).getChildNodes();
-                            } else {
-                                attrs.getGeometry().setGeometryType(GeometryType.POINT);
-                                geometryList = geometryProperty.getElementsByTagName("gml:Points");
-                            }
-
-                            for (int fm4 = 0; fm4 < geometryList.getLength(); fm4++) {
-                                Element geometryString = (Element) geometryList.item(fm4);
-
-                                String _coordinates = XMLUtils.getSingleValue(geometryString, "gml:coordinates").replace(",", "|");
-                                _coordinates = _coordinates.replace(" ", ",");
-                                _coordinates = _coordinates.replace("|", " ");
-
-                                attrs.getGeometry().getWktPoints().append(_coordinates);
-                                attrs.getGeometry().getWktPoints().append("))");
-                            }
-                        }
-
-                        attrs.setContextID(XMLUtils.getSingleValue(gmlFeature, "ogr:" + contextHeader));
-
-                        for (String attributeHeader : attributeList) {
-                            attrs.getAttributeList().put(attributeHeader, XMLUtils.getSingleValue(gmlFeature, "ogr:" + attributeHeader));
-                        }
-                    }
-                    gml.getGmlAttributes().add(attrs);
-                }
+    /**
+     * Reads a GML file one feature at a time, handing each to a callback as
+     * soon as it has been read.
+     *
+     * @param filePath The path where the XML document lives.
+     * @param contextHeader A context header.
+     * @param attributeList A list of attributes that we want to get.
+     * @param consumer Receives each feature.
+     * @return The bounding box of the features, or null if the file has none
+     * or can't be read.
+     */
+    public static Box streamGML(String filePath, String contextHeader, List<String> attributeList, Consumer<Attributes> consumer) {
+        try (GMLReader reader = openGML(filePath, contextHeader, attributeList)) {
+            while (reader.hasNext()) {
+                consumer.accept(reader.next());
             }
+            return reader.getBox();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (UncheckedIOException ex) {
+            ex.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Opens a GML file to be read one feature at a time. The reader must be
+     * closed.
+     *
+     * @param filePath The path where the XML document lives.
+     * @param contextHeader A context header.
+     * @param attributeList A list of attributes that we want to get.
+     * @return An iterator over the features.
+     * @throws IOException If the file can't be opened.
+     */
+    public static GMLReader openGML(String filePath, String contextHeader, List<String> attributeList) throws IOException {
+        FileInputStream in = new FileInputStream(filePath);
+        try {
+            return new GMLReader(new BufferedInputStream(in, 65536), contextHeader, attributeList);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
         }
-        return gml;
     }
 }
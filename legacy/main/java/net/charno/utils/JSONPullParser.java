@@ -0,0 +1,357 @@
+package net.charno.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pull parser for JSON, reading tokens one at a time from a stream. Unlike
+ * json-simple it never holds the whole document, as a String or as a tree,
+ * so results can be handled as they arrive and reading can stop as soon as
+ * the caller has what it needs.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class JSONPullParser {
+
+    /**
+     * The kinds of token in a JSON document.
+     */
+    public enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL, END
+    }
+
+    /**
+     * Thrown when the stream isn't valid JSON.
+     */
+    public static class SyntaxException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+        private final long position;
+
+        public SyntaxException(String message, long position) {
+            super(message + " at position " + position);
+            this.position = position;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+    }
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int offset;
+    private int limit;
+    private long consumed;
+    private final StringBuilder text = new StringBuilder();
+    private Token token;
+    // one entry per open object or array, true for an object
+    private boolean[] containers = new boolean[16];
+    private int depth;
+    // whether the next string in the current object is a field name
+    private boolean expectName;
+    private boolean needComma;
+
+    /**
+     * @param reader The stream to read, which isn't closed.
+     */
+    public JSONPullParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return The token, or END at the end of the document.
+     * @throws IOException If the stream can't be read or isn't valid JSON.
+     */
+    public Token next() throws IOException {
+        int c = skipWhitespace();
+        if (depth > 0) {
+            boolean object = containers[depth - 1];
+            if (c == (object ? '}' : ']')) {
+                read();
+                depth--;
+                afterValue();
+                return token = object ? Token.END_OBJECT : Token.END_ARRAY;
+            }
+            if (needComma) {
+                if (c != ',') {
+                    throw error("Expected ',' or '" + (object ? '}' : ']') + "'");
+                }
+                read();
+                needComma = false;
+                c = skipWhitespace();
+            }
+            if (object && expectName) {
+                if (c != '"') {
+                    throw error("Expected a field name");
+                }
+                read();
+                readString();
+                if (skipWhitespace() != ':') {
+                    throw error("Expected ':'");
+                }
+                read();
+                expectName = false;
+                return token = Token.FIELD_NAME;
+            }
+        } else if (token != null) {
+            if (c != -1) {
+                throw error("Unexpected content after the document");
+            }
+            return token = Token.END;
+        }
+        return token = readValue(c);
+    }
+
+    /**
+     * @return The text of the current field name, string or number token, or
+     * "true", "false" or "null" for those literals.
+     */
+    public String getText() {
+        switch (token) {
+            case TRUE: return "true";
+            case FALSE: return "false";
+            case NULL: return "null";
+            default: return text.toString();
+        }
+    }
+
+    /**
+     * @return The current token.
+     */
+    public Token getToken() {
+        return token;
+    }
+
+    /**
+     * Skips the rest of the value starting at the current token, so that the
+     * next token is whatever follows it.
+     *
+     * @throws IOException If the stream can't be read or isn't valid JSON.
+     */
+    public void skipValue() throws IOException {
+        if (token == Token.FIELD_NAME) {
+            next();
+        }
+        if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+            int target = depth - 1;
+            while (depth > target) {
+                if (next() == Token.END) {
+                    throw error("Unexpected end of the document");
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves to a field of the object the parser is in, skipping the fields
+     * before it.
+     *
+     * @param name The field name.
+     * @return true with the parser on the field's first value token, or false
+     * with the parser on the end of the object if there's no such field.
+     * @throws IOException If the stream can't be read or isn't valid JSON.
+     */
+    public boolean seek(String name) throws IOException {
+        while (next() == Token.FIELD_NAME) {
+            boolean found = name.equals(getText());
+            next();
+            if (found) {
+                return true;
+            }
+            skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the object starting at the current token as a map of field name
+     * to text, skipping any field whose value is an object or array.
+     *
+     * @return The fields, with null for JSON nulls.
+     * @throws IOException If the stream can't be read or isn't valid JSON.
+     */
+    public Map<String, String> readObject() throws IOException {
+        if (token != Token.START_OBJECT) {
+            throw error("Expected an object");
+        }
+        Map<String, String> fields = new HashMap<String, String>();
+        while (next() == Token.FIELD_NAME) {
+            String name = getText();
+            next();
+            if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+                skipValue();
+            } else {
+                fields.put(name, token == Token.NULL ? null : getText());
+            }
+        }
+        return fields;
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                read();
+                push(true);
+                return Token.START_OBJECT;
+            case '[':
+                read();
+                push(false);
+                return Token.START_ARRAY;
+            case '"':
+                read();
+                readString();
+                afterValue();
+                return Token.STRING;
+            case 't':
+                readWord("true");
+                afterValue();
+                return Token.TRUE;
+            case 'f':
+                readWord("false");
+                afterValue();
+                return Token.FALSE;
+            case 'n':
+                readWord("null");
+                afterValue();
+                return Token.NULL;
+            case -1:
+                throw error("Unexpected end of the document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber();
+                    afterValue();
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void push(boolean object) {
+        if (depth == containers.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(containers, 0, grown, 0, depth);
+            containers = grown;
+        }
+        containers[depth++] = object;
+        expectName = object;
+        needComma = false;
+    }
+
+    private void afterValue() {
+        if (depth > 0) {
+            needComma = true;
+            expectName = containers[depth - 1];
+        }
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            if (offset == limit && !fill()) {
+                throw error("Unterminated string");
+            }
+            // copy runs of plain characters straight from the buffer
+            int start = offset;
+            while (offset < limit) {
+                char c = buffer[offset];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                offset++;
+            }
+            text.append(buffer, start, offset - start);
+            if (offset == limit) {
+                continue;
+            }
+            char c = buffer[offset++];
+            if (c == '"') {
+                return;
+            }
+            int escape = read();
+            switch (escape) {
+                case '"': text.append('"'); break;
+                case '\\': text.append('\\'); break;
+                case '/': text.append('/'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw error("Bad unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default:
+                    throw error("Bad escape");
+            }
+        }
+    }
+
+    private void readNumber() throws IOException {
+        text.setLength(0);
+        int c = peek();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+            text.append((char) read());
+            c = peek();
+        }
+    }
+
+    private void readWord(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (read() != word.charAt(i)) {
+                throw error("Expected '" + word + "'");
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            offset++;
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (offset == limit && !fill()) {
+            return -1;
+        }
+        return buffer[offset];
+    }
+
+    private int read() throws IOException {
+        if (offset == limit && !fill()) {
+            return -1;
+        }
+        return buffer[offset++];
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        offset = 0;
+        limit = 0;
+        int n = reader.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private SyntaxException error(String message) {
+        return new SyntaxException(message, consumed + offset);
+    }
+}
@@ -1,82 +1,159 @@
-
 package net.charno.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import net.charno.semweb.bindings.URILabelBinding;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
+ * Reads the uri and label of each result from SPARQL XML results, passing
+ * each binding on as soon as its result has been read. Text is collected
+ * across however many characters() calls the parser splits it into.
  *
  * @author mcharno <michael@charno.net>
  */
 public class LoCSAXHandler extends DefaultHandler {
-    
+
+    /**
+     * A parser per thread, as creating the factory and parser costs more
+     * than parsing a typical result set.
+     */
+    private static final ThreadLocal<SAXParser> PARSERS = new ThreadLocal<SAXParser>();
+
     /**
      * Flag to signify a uri was found in the XML.
      */
     private boolean uriFound = false;
     private boolean literalFound = false;
-    private String node = null;
+    private final StringBuilder text = new StringBuilder();
     private URILabelBinding locBinding;
     private List<URILabelBinding> resultList;
-    
+    private final Consumer<URILabelBinding> callback;
+
+    /**
+     * Creates a handler that collects the bindings, see getResultList().
+     */
+    public LoCSAXHandler() {
+        this.callback = null;
+    }
+
+    /**
+     * Creates a handler that passes each binding to a callback instead of
+     * collecting them.
+     *
+     * @param callback Receives the bindings.
+     */
+    public LoCSAXHandler(Consumer<URILabelBinding> callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Parses SPARQL XML results with this thread's parser.
+     *
+     * @param in The results, which aren't closed.
+     * @param callback Receives each binding.
+     * @throws IOException If the results can't be read or aren't valid XML.
+     */
+    public static void parse(InputStream in, Consumer<URILabelBinding> callback) throws IOException {
+        SAXParser parser = PARSERS.get();
+        try {
+            if (parser == null) {
+                parser = SAXParserFactory.newInstance().newSAXParser();
+                PARSERS.set(parser);
+            }
+            parser.parse(in, new LoCSAXHandler(callback));
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex);
+        } catch (SAXException ex) {
+            throw new IOException("Invalid SPARQL XML results: " + ex.getMessage(), ex);
+        } finally {
+            if (parser != null) {
+                parser.reset();
+            }
+        }
+    }
+
     /**
-     * Overriding the startElement method to check if a uri was found in the 
-     * XML result.
-     * 
+     * Overriding the startElement method to check if a uri or literal was
+     * found in the XML result.
+     *
      * @param uri
      * @param localName
-     * @param qName The only element we're interested in.
+     * @param qName The only elements we're interested in.
      * @param attributes
-     * @throws SAXException 
+     * @throws SAXException
      */
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-        if ("uri".equals(qName)) {
-            uriFound = true;
+        if ("result".equals(qName)) {
             locBinding = new URILabelBinding();
+        } else if ("uri".equals(qName)) {
+            uriFound = true;
+            text.setLength(0);
         } else if ("literal".equals(qName)) {
             literalFound = true;
+            text.setLength(0);
         }
     }
-    
+
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if ("result".equals(qName)) {
-            resultList.add(locBinding);
+        if ("uri".equals(qName) && uriFound) {
+            binding().setUri(text.toString());
+            uriFound = false;
+        } else if ("literal".equals(qName) && literalFound) {
+            binding().setLabel(text.toString());
+            literalFound = false;
+        } else if ("result".equals(qName) && locBinding != null) {
+            if (callback != null) {
+                callback.accept(locBinding);
+            } else {
+                resultList.add(locBinding);
+            }
+            locBinding = null;
         }
     }
-    
+
     /**
-     * Overriding the characters method to set the node if a uri was found in 
-     * the startElement method.
-     * 
+     * Overriding the characters method to collect the text of a uri or
+     * literal, which may arrive in several chunks.
+     *
      * @param ch
      * @param start
      * @param length
-     * @throws SAXException 
+     * @throws SAXException
      */
     @Override
     public void characters(char ch[], int start, int length) throws SAXException {
-        if (uriFound && length > 10) {
-            locBinding.setUri(new String(ch, start, length));
-            uriFound = false;
-        }
-        if (literalFound) {
-            locBinding.setLabel(new String(ch, start, length));
-            literalFound = false;
+        if (uriFound || literalFound) {
+            text.append(ch, start, length);
         }
     }
-    
+
     @Override
     public void startDocument() {
         resultList = new ArrayList<URILabelBinding>();
+        locBinding = null;
+        uriFound = false;
+        literalFound = false;
     }
-    
+
     public List<URILabelBinding> getResultList() {
         return this.resultList;
     }
+
+    private URILabelBinding binding() {
+        if (locBinding == null) {
+            locBinding = new URILabelBinding();
+        }
+        return locBinding;
+    }
 }
@@ -0,0 +1,189 @@
+package net.charno.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A streaming reader for N-Triples files, such as the SKOS and DBpedia dumps.
+ * Each triple is passed to a handler as it is read, so files of any size can
+ * be loaded. Blank nodes are passed on as "_:id" subjects or objects.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class NTriplesReader {
+
+    /**
+     * Receives the triples read from a file.
+     */
+    public interface TripleHandler {
+
+        /**
+         * @param subject The subject uri.
+         * @param predicate The predicate uri.
+         * @param object The object uri, or the unescaped literal value.
+         * @param literal Whether the object is a literal.
+         * @param language The literal's language tag, or null.
+         */
+        void triple(String subject, String predicate, String object, boolean literal, String language);
+    }
+
+    /**
+     * Reads an N-Triples file, which may be gzipped.
+     *
+     * @param file The file to read.
+     * @param handler Where to send the triples.
+     * @return The number of triples read.
+     * @throws IOException If the file can't be read.
+     */
+    public static long read(File file, TripleHandler handler) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        try {
+            return read(in, handler);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads N-Triples from a stream. Lines that can't be parsed are skipped.
+     *
+     * @param in The stream to read, which isn't closed.
+     * @param handler Where to send the triples.
+     * @return The number of triples read.
+     * @throws IOException If the stream can't be read.
+     */
+    public static long read(InputStream in, TripleHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 65536);
+        long count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (parseLine(line, handler)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses a single N-Triples statement.
+     *
+     * @param line The line to parse.
+     * @param handler Where to send the triple.
+     * @return false if the line was blank, a comment or couldn't be parsed.
+     */
+    public static boolean parseLine(String line, TripleHandler handler) {
+        int[] pos = {skipSpace(line, 0)};
+        if (pos[0] >= line.length() || line.charAt(pos[0]) == '#') {
+            return false;
+        }
+        String subject = term(line, pos);
+        pos[0] = skipSpace(line, pos[0]);
+        String predicate = term(line, pos);
+        pos[0] = skipSpace(line, pos[0]);
+        if (subject == null || predicate == null || pos[0] >= line.length()) {
+            return false;
+        }
+        if (line.charAt(pos[0]) != '"') {
+            String object = term(line, pos);
+            if (object == null) {
+                return false;
+            }
+            handler.triple(subject, predicate, object, false, null);
+            return true;
+        }
+        // a literal, with an optional language tag or datatype
+        StringBuilder value = new StringBuilder();
+        int i = pos[0] + 1;
+        try {
+            while (i < line.length() && line.charAt(i) != '"') {
+                char c = line.charAt(i);
+                if (c == '\\' && i + 1 < line.length()) {
+                    char e = line.charAt(++i);
+                    switch (e) {
+                        case 't': value.append('\t'); break;
+                        case 'b': value.append('\b'); break;
+                        case 'n': value.append('\n'); break;
+                        case 'r': value.append('\r'); break;
+                        case 'f': value.append('\f'); break;
+                        case 'u':
+                            if (i + 4 >= line.length()) {
+                                return false;
+                            }
+                            value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        case 'U':
+                            if (i + 8 >= line.length()) {
+                                return false;
+                            }
+                            value.appendCodePoint(Integer.parseInt(line.substring(i + 1, i + 9), 16));
+                            i += 8;
+                            break;
+                        default: value.append(e);
+                    }
+                } else {
+                    value.append(c);
+                }
+                i++;
+            }
+        } catch (IllegalArgumentException ex) {
+            // not hex, or not a code point
+            return false;
+        }
+        if (i >= line.length()) {
+            return false;
+        }
+        String language = null;
+        i++;
+        if (i < line.length() && line.charAt(i) == '@') {
+            int end = i + 1;
+            while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != '\t' && line.charAt(end) != '.') {
+                end++;
+            }
+            language = line.substring(i + 1, end);
+        }
+        handler.triple(subject, predicate, value.toString(), true, language);
+        return true;
+    }
+
+    /**
+     * Reads a <uri> or _:blank term and moves the position past it.
+     */
+    private static String term(String line, int[] pos) {
+        int start = pos[0];
+        if (start >= line.length()) {
+            return null;
+        }
+        if (line.charAt(start) == '<') {
+            int end = line.indexOf('>', start);
+            if (end < 0) {
+                return null;
+            }
+            pos[0] = end + 1;
+            return line.substring(start + 1, end);
+        } else if (line.startsWith("_:", start)) {
+            int end = start;
+            while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != '\t') {
+                end++;
+            }
+            pos[0] = end;
+            return line.substring(start, end);
+        }
+        return null;
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,469 @@
+package net.charno.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads SPARQL SELECT results in any of the standard formats, passing each
+ * row to a handler as a map of variable to value as soon as it has been read.
+ * IRIs and blank nodes are given as they are, and literals by their lexical
+ * form. Variables that aren't bound in a row are left out of it.
+ * <p>
+ * The TSV and CSV formats are the smallest on the wire and are read by a
+ * tokenizer working directly on the bytes, which only decodes the fields
+ * themselves, so they are the ones to ask for when an endpoint offers them.
+ *
+ * @author mcharno <michael@charno.net>
+ */
+public class SparqlResultsReader {
+
+    public static final String TSV = "text/tab-separated-values";
+    public static final String CSV = "text/csv";
+    public static final String JSON = "application/sparql-results+json";
+    public static final String XML = "application/sparql-results+xml";
+    /**
+     * An Accept header preferring the compact formats, but taking JSON or XML
+     * from endpoints that don't have them.
+     */
+    public static final String ACCEPT = TSV + ", " + CSV + ";q=0.9, " + JSON + ";q=0.8, " + XML + ";q=0.7";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Reads results in the format given by a media type. Unknown types, such
+     * as text/plain, are taken as JSON or XML depending on how they start.
+     *
+     * @param in The results, which aren't closed.
+     * @param mimeType The media type of the results, without parameters.
+     * @param charset The charset for JSON and XML results. TSV and CSV are
+     * always UTF-8.
+     * @param handler Receives each row, and returns false to stop reading.
+     * @throws IOException If the results can't be read or aren't valid.
+     */
+    public static void read(InputStream in, String mimeType, Charset charset, Predicate<Map<String, String>> handler) throws IOException {
+        String type = mimeType == null ? "" : mimeType.toLowerCase();
+        if (TSV.equals(type)) {
+            readTSV(in, handler);
+        } else if (CSV.equals(type)) {
+            readCSV(in, handler);
+        } else if (isXML(type)) {
+            readXML(in, handler);
+        } else if (type.contains("json") || type.contains("javascript")) {
+            readJSON(new InputStreamReader(in, charset), handler);
+        } else {
+            BufferedInputStream buffered = new BufferedInputStream(in);
+            buffered.mark(1024);
+            int c = buffered.read();
+            for (int i = 0; i < 1023 && (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xEF || c == 0xBB || c == 0xBF); i++) {
+                c = buffered.read();
+            }
+            buffered.reset();
+            if (c == '<') {
+                readXML(buffered, handler);
+            } else if (c == '{') {
+                readJSON(new InputStreamReader(buffered, charset), handler);
+            } else if (c != -1) {
+                throw new IOException("Unsupported SPARQL results type " + mimeType);
+            }
+        }
+    }
+
+    /**
+     * @return Whether a media type is one of the XML types.
+     */
+    public static boolean isXML(String mimeType) {
+        return mimeType != null && (mimeType.endsWith("/xml") || mimeType.endsWith("+xml"));
+    }
+
+    /**
+     * Reads SPARQL 1.1 TSV results, where the terms are written as in Turtle.
+     *
+     * @param in The results, which aren't closed.
+     * @param handler Receives each row, and returns false to stop reading.
+     * @throws IOException If the results can't be read.
+     */
+    public static void readTSV(InputStream in, Predicate<Map<String, String>> handler) throws IOException {
+        new Tokenizer(in, false).read(handler);
+    }
+
+    /**
+     * Reads SPARQL 1.1 CSV results, where the terms are written as plain
+     * values.
+     *
+     * @param in The results, which aren't closed.
+     * @param handler Receives each row, and returns false to stop reading.
+     * @throws IOException If the results can't be read.
+     */
+    public static void readCSV(InputStream in, Predicate<Map<String, String>> handler) throws IOException {
+        new Tokenizer(in, true).read(handler);
+    }
+
+    /**
+     * Reads SPARQL JSON results.
+     *
+     * @param reader The results, which aren't closed.
+     * @param handler Receives each row, and returns false to stop reading.
+     * @throws IOException If the results can't be read or aren't valid JSON.
+     */
+    public static void readJSON(Reader reader, Predicate<Map<String, String>> handler) throws IOException {
+        JSONPullParser parser = new JSONPullParser(reader);
+        if (parser.next() != JSONPullParser.Token.START_OBJECT
+                || !parser.seek("results") || parser.getToken() != JSONPullParser.Token.START_OBJECT
+                || !parser.seek("bindings") || parser.getToken() != JSONPullParser.Token.START_ARRAY) {
+            return;
+        }
+        while (parser.next() == JSONPullParser.Token.START_OBJECT) {
+            Map<String, String> row = new HashMap<String, String>();
+            while (parser.next() == JSONPullParser.Token.FIELD_NAME) {
+                String variable = parser.getText();
+                if (parser.next() == JSONPullParser.Token.START_OBJECT) {
+                    row.put(variable, parser.readObject().get("value"));
+                } else {
+                    parser.skipValue();
+                }
+            }
+            if (!handler.test(row)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads SPARQL XML results.
+     *
+     * @param in The results, which aren't closed.
+     * @param handler Receives each row, and returns false to stop reading.
+     * @throws IOException If the results can't be read or aren't valid XML.
+     */
+    public static void readXML(InputStream in, Predicate<Map<String, String>> handler) throws IOException {
+        try {
+            SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+            parser.parse(in, new XMLHandler(handler));
+        } catch (StopException ex) {
+            // the handler has all it wants
+        } catch (SAXException ex) {
+            throw new IOException("Invalid SPARQL XML results: " + ex.getMessage(), ex);
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Splits TSV or CSV results into fields without copying them out of the
+     * read buffer, decoding each one straight from the bytes.
+     */
+    private static class Tokenizer {
+
+        private static final int EOF = -1;
+
+        private final InputStream in;
+        private final boolean csv;
+        private byte[] buffer = new byte[65536];
+        private int position;
+        private int limit;
+        // the bounds of the last field read
+        private int start;
+        private int end;
+        private boolean quoted;
+        private boolean escaped;
+
+        Tokenizer(InputStream in, boolean csv) {
+            this.in = in;
+            this.csv = csv;
+        }
+
+        void read(Predicate<Map<String, String>> handler) throws IOException {
+            // skip a byte order mark
+            if (available(3) && (buffer[position] & 0xFF) == 0xEF && (buffer[position + 1] & 0xFF) == 0xBB && (buffer[position + 2] & 0xFF) == 0xBF) {
+                position += 3;
+            }
+            List<String> variables = new ArrayList<String>();
+            int delimiter;
+            do {
+                delimiter = next();
+                if (delimiter == EOF && end == start && variables.isEmpty()) {
+                    return;
+                }
+                String variable = decode(start, end);
+                if (variable.startsWith("?") || variable.startsWith("$")) {
+                    variable = variable.substring(1);
+                }
+                variables.add(variable);
+            } while (delimiter == ',' || delimiter == '\t');
+            while (delimiter != EOF) {
+                Map<String, String> row = new HashMap<String, String>();
+                int column = 0;
+                do {
+                    delimiter = next();
+                    if (end > start || quoted) {
+                        if (column < variables.size()) {
+                            row.put(variables.get(column), csv ? csvValue() : tsvValue());
+                        }
+                    }
+                    column++;
+                } while (delimiter == ',' || delimiter == '\t');
+                // a trailing blank line isn't a row
+                if (column == 1 && row.isEmpty() && delimiter == EOF) {
+                    return;
+                }
+                if (!handler.test(row)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Reads the next field, leaving its bounds in start and end. Offsets
+         * are kept relative to position, as refilling moves the bytes.
+         *
+         * @return The delimiter after it, one of tab or comma, newline or EOF.
+         */
+        private int next() throws IOException {
+            quoted = false;
+            escaped = false;
+            int i = 0;
+            int from = 0;
+            int to = -1;
+            if (csv && available(1) && buffer[position] == '"') {
+                quoted = true;
+                i = 1;
+                while (true) {
+                    if (!available(i + 1)) {
+                        throw new IOException("Unterminated quoted field in CSV results");
+                    }
+                    if (buffer[position + i] == '"') {
+                        if (available(i + 2) && buffer[position + i + 1] == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                from = 1;
+                to = i++;
+            }
+            while (available(i + 1)) {
+                byte b = buffer[position + i];
+                if (b == '\n' || b == '\t' || (csv && b == ',')) {
+                    finish(from, to < 0 ? i : to, i + 1);
+                    return b;
+                }
+                i++;
+            }
+            finish(from, to < 0 ? i : to, i);
+            return EOF;
+        }
+
+        private void finish(int from, int to, int consumed) {
+            start = position + from;
+            end = position + to;
+            if (!quoted && end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+            position += consumed;
+        }
+
+        /**
+         * Makes sure at least n bytes are buffered past position, if the
+         * stream has them.
+         */
+        private boolean available(int n) throws IOException {
+            while (limit - position < n) {
+                if (!refill()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves the unread bytes to the front of the buffer, growing it if
+         * they fill it, and reads more after them.
+         *
+         * @return false at the end of the stream.
+         */
+        private boolean refill() throws IOException {
+            int unread = limit - position;
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, unread);
+            } else if (unread == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, unread);
+                buffer = grown;
+            }
+            position = 0;
+            limit = unread;
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n <= 0) {
+                return false;
+            }
+            limit += n;
+            return true;
+        }
+
+        private String csvValue() {
+            String value = decode(start, end);
+            return escaped ? value.replace("\"\"", "\"") : value;
+        }
+
+        private String tsvValue() {
+            if (buffer[start] == '<' && buffer[end - 1] == '>') {
+                return decode(start + 1, end - 1);
+            }
+            if (buffer[start] == '"') {
+                // the lexical form ends at the last quote, before any language or datatype
+                int close = end - 1;
+                while (close > start && buffer[close] != '"') {
+                    close--;
+                }
+                if (close > start) {
+                    boolean backslash = false;
+                    for (int i = start + 1; i < close; i++) {
+                        if (buffer[i] == '\\') {
+                            backslash = true;
+                            break;
+                        }
+                    }
+                    String value = decode(start + 1, close);
+                    return backslash ? unescape(value) : value;
+                }
+            }
+            return decode(start, end);
+        }
+
+        private String decode(int from, int to) {
+            // most fields are ASCII, which needs no decoder
+            for (int i = from; i < to; i++) {
+                if (buffer[i] < 0) {
+                    return new String(buffer, from, to - from, UTF8);
+                }
+            }
+            char[] chars = new char[to - from];
+            for (int i = from; i < to; i++) {
+                chars[i - from] = (char) buffer[i];
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Undoes the escapes allowed in a Turtle string literal.
+     */
+    static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escape = value.charAt(++i);
+            switch (escape) {
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                case 'U':
+                    int digits = escape == 'u' ? 4 : 8;
+                    if (i + digits < value.length()) {
+                        try {
+                            sb.appendCodePoint(Integer.parseInt(value.substring(i + 1, i + 1 + digits), 16));
+                            i += digits;
+                            break;
+                        } catch (IllegalArgumentException ex) {
+                            // not a valid escape, so keep it as it is
+                        }
+                    }
+                    sb.append('\\').append(escape);
+                    break;
+                default:
+                    sb.append(escape);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Thrown to stop the SAX parser when the row handler is done.
+     */
+    private static class StopException extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class XMLHandler extends DefaultHandler {
+
+        private final Predicate<Map<String, String>> handler;
+        private final StringBuilder text = new StringBuilder();
+        private Map<String, String> row;
+        private String variable;
+        private boolean inValue;
+
+        XMLHandler(Predicate<Map<String, String>> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            String name = localName(qName);
+            if ("result".equals(name)) {
+                row = new HashMap<String, String>();
+            } else if ("binding".equals(name)) {
+                variable = attributes.getValue("name");
+            } else if (variable != null && ("uri".equals(name) || "literal".equals(name) || "bnode".equals(name))) {
+                inValue = true;
+                text.setLength(0);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            String name = localName(qName);
+            if (inValue && ("uri".equals(name) || "literal".equals(name) || "bnode".equals(name))) {
+                if (row != null) {
+                    row.put(variable, text.toString());
+                }
+                inValue = false;
+            } else if ("binding".equals(name)) {
+                variable = null;
+            } else if ("result".equals(name) && row != null) {
+                Map<String, String> done = row;
+                row = null;
+                if (!handler.test(done)) {
+                    throw new StopException();
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue) {
+                text.append(ch, start, length);
+            }
+        }
+
+        private static String localName(String qName) {
+            int colon = qName.indexOf(':');
+            return colon < 0 ? qName : qName.substring(colon + 1);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.charno.gml;
+
+import java.util.Arrays;
+import net.charno.gml.enums.GeometryType;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class GeoJSONWriterTest {
+
+    @Test
+    public void testWritesFeatureLine() throws Exception {
+        Attributes feature = new Attributes();
+        feature.setFid("F0");
+        feature.setContextID("1001");
+        feature.getAttributeList().put("PERIOD", "Roman \"villa\"\n");
+        feature.getGeometry().setGeometryType(GeometryType.POLYGON);
+        feature.getGeometry().addPoint(0, 0);
+        feature.getGeometry().addPoint(0, 5);
+        feature.getGeometry().addPoint(5.5, 5);
+        feature.getGeometry().addPoint(0, 0);
+
+        StringBuilder out = new StringBuilder();
+        GeoJSONWriter.writeFeature(feature, "CONTEXT_ID", Arrays.asList("PERIOD", "SITE"), out);
+        String line = out.toString();
+        assertEquals(line.length() - 1, line.indexOf('\n'));
+        assertTrue(line.contains("\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[0,5],[5.5,5],[0,0]]]}"));
+
+        JSONObject json = (JSONObject) JSONValue.parse(line);
+        assertEquals("F0", json.get("id"));
+        JSONObject properties = (JSONObject) json.get("properties");
+        assertEquals("1001", properties.get("CONTEXT_ID"));
+        assertEquals("Roman \"villa\"\n", properties.get("PERIOD"));
+        assertTrue(properties.containsKey("SITE"));
+        assertNull(properties.get("SITE"));
+    }
+
+    @Test
+    public void testWritesMultiTypes() throws Exception {
+        Geometry geometry = new Geometry(GeometryType.MULTILINESTRING);
+        geometry.addPoint(1, 2);
+        geometry.addPoint(3, 4);
+        geometry.addPart();
+        geometry.addPoint(5, 6);
+        geometry.addPoint(7, 8);
+        StringBuilder out = new StringBuilder();
+        GeoJSONWriter.writeGeometry(geometry, out);
+        assertEquals("{\"type\":\"MultiLineString\",\"coordinates\":[[[1,2],[3,4]],[[5,6],[7,8]]]}", out.toString());
+
+        out.setLength(0);
+        GeoJSONWriter.writeGeometry(new Geometry(GeometryType.POINT), out);
+        assertEquals("null", out.toString());
+    }
+}
@@ -0,0 +1,53 @@
+package net.charno.gml;
+
+import java.util.Arrays;
+import net.charno.gml.enums.GeometryType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class GeometryTest {
+
+    @Test
+    public void testPacksPointsIntoParts() {
+        Geometry geometry = new Geometry(GeometryType.POLYGON);
+        for (int i = 0; i < 100; i++) {
+            geometry.addPoint(i, -i);
+        }
+        geometry.addPart();
+        geometry.addPoint(0.5, 1.5);
+        geometry.trimToSize();
+
+        assertEquals(101, geometry.getPointCount());
+        assertEquals(2, geometry.getPartCount());
+        assertEquals(0, geometry.getPartStart(0));
+        assertEquals(100, geometry.getPartEnd(0));
+        assertEquals(100, geometry.getPartStart(1));
+        assertEquals(101, geometry.getPartEnd(1));
+        assertEquals(99, geometry.getX(99), 0);
+        assertEquals(-99, geometry.getY(99), 0);
+        assertEquals(202, geometry.getCoordinates().length);
+        assertEquals(1.5, geometry.getGeometryPoints().get(100).getY(), 0);
+    }
+
+    @Test
+    public void testWktIsBuiltOnDemand() {
+        Geometry geometry = new Geometry(GeometryType.LINESTRING);
+        assertEquals("LINESTRING EMPTY", geometry.getWktPoints().toString());
+        geometry.addPoint(532145.25, 181234);
+        geometry.addPoint(0.0001, 12345678.5);
+        assertEquals("LINESTRING(532145.25 181234,0.0001 12345678.5)", geometry.getWktPoints().toString());
+    }
+
+    @Test
+    public void testSetGeometryPoints() {
+        Geometry geometry = new Geometry(GeometryType.LINESTRING);
+        geometry.setGeometryPoints(Arrays.asList(new GeometryPoints(1, 2), new GeometryPoints(3, 4)));
+        assertEquals(2, geometry.getPointCount());
+        assertEquals(1, geometry.getPartCount());
+        assertEquals("LINESTRING(1 2,3 4)", geometry.getWktPoints().toString());
+    }
+}
@@ -0,0 +1,88 @@
+package net.charno.gml;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import net.charno.gml.enums.GeometryType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class WKBWriterTest {
+
+    @Test
+    public void testWritesPointAsHex() throws Exception {
+        Geometry point = new Geometry(GeometryType.POINT);
+        point.addPoint(1, 2);
+        byte[] bytes = new byte[WKBWriter.size(point)];
+        assertEquals(bytes.length, WKBWriter.write(point, bytes, 0));
+
+        StringBuilder hex = new StringBuilder();
+        WKBWriter.writeHex(bytes, 0, bytes.length, hex);
+        assertEquals("0101000000000000000000F03F0000000000000040", hex.toString());
+    }
+
+    @Test
+    public void testWritesMultiPolygon() {
+        // a square with a triangular hole, then a triangle
+        double[][][] polygons = {
+            {{0, 0, 4, 0, 4, 4, 0, 4, 0, 0}, {1, 1, 3, 1, 2, 3, 1, 1}},
+            {{10, 10, 12, 10, 11, 12, 10, 10}}
+        };
+        Geometry geometry = new Geometry(GeometryType.MULTIPOLYGON);
+        for (double[][] polygon : polygons) {
+            geometry.addPolygon();
+            for (double[] ring : polygon) {
+                geometry.addPart();
+                for (int i = 0; i < ring.length; i += 2) {
+                    geometry.addPoint(ring[i], ring[i + 1]);
+                }
+            }
+        }
+
+        byte[] bytes = new byte[WKBWriter.size(geometry) + 3];
+        assertEquals(bytes.length, WKBWriter.write(geometry, bytes, 3));
+
+        ByteBuffer wkb = ByteBuffer.wrap(bytes, 3, bytes.length - 3).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, wkb.get());
+        assertEquals(6, wkb.getInt());
+        assertEquals(polygons.length, wkb.getInt());
+        for (double[][] polygon : polygons) {
+            assertEquals(1, wkb.get());
+            assertEquals(3, wkb.getInt());
+            assertEquals(polygon.length, wkb.getInt());
+            for (double[] ring : polygon) {
+                assertEquals(ring.length / 2, wkb.getInt());
+                for (double ordinate : ring) {
+                    assertEquals(ordinate, wkb.getDouble(), 0);
+                }
+            }
+        }
+        assertFalse(wkb.hasRemaining());
+    }
+
+    @Test
+    public void testUngroupedRingsAreOnePolygon() {
+        Geometry geometry = new Geometry(GeometryType.MULTIPOLYGON);
+        geometry.addPart();
+        geometry.addPoint(5, 5);
+        geometry.addPoint(6, 5);
+        geometry.addPoint(5, 6);
+        geometry.addPoint(5, 5);
+
+        byte[] bytes = new byte[WKBWriter.size(geometry)];
+        assertEquals(bytes.length, WKBWriter.write(geometry, bytes, 0));
+
+        ByteBuffer wkb = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, wkb.get());
+        assertEquals(6, wkb.getInt());
+        assertEquals(1, wkb.getInt());
+        assertEquals(1, wkb.get());
+        assertEquals(3, wkb.getInt());
+        assertEquals(1, wkb.getInt());
+        assertEquals(4, wkb.getInt());
+        assertEquals(5, wkb.getDouble(), 0);
+    }
+}
@@ -0,0 +1,66 @@
+package net.charno.gml;
+
+import net.charno.gml.enums.GeometryType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class WKTWriterTest {
+
+    @Test
+    public void testWritesEachType() {
+        Geometry point = new Geometry(GeometryType.POINT);
+        point.addPoint(1, 2);
+        assertEquals("POINT(1 2)", WKTWriter.write(point, new StringBuilder()).toString());
+
+        Geometry multiPoint = new Geometry(GeometryType.MULTIPOINT);
+        multiPoint.addPoint(1, 2);
+        multiPoint.addPart();
+        multiPoint.addPoint(3, 4);
+        assertEquals("MULTIPOINT((1 2),(3 4))", WKTWriter.write(multiPoint, new StringBuilder()).toString());
+
+        Geometry multiLine = new Geometry(GeometryType.MULTILINESTRING);
+        multiLine.addPoint(1, 2);
+        multiLine.addPoint(3, 4);
+        multiLine.addPart();
+        multiLine.addPoint(5, 6);
+        multiLine.addPoint(7, 8);
+        assertEquals("MULTILINESTRING((1 2,3 4),(5 6,7 8))", WKTWriter.write(multiLine, new StringBuilder()).toString());
+
+        Geometry multiPolygon = new Geometry(GeometryType.MULTIPOLYGON);
+        multiPolygon.addPolygon();
+        addRing(multiPolygon, 0, 10);
+        addRing(multiPolygon, 1, 2);
+        multiPolygon.addPolygon();
+        addRing(multiPolygon, 20, 30);
+        assertEquals("MULTIPOLYGON(((0 0,0 10,10 10,0 0),(1 1,1 2,2 2,1 1)),((20 20,20 30,30 30,20 20)))",
+                WKTWriter.write(multiPolygon, new StringBuilder()).toString());
+
+        assertEquals("MULTIPOLYGON EMPTY",
+                WKTWriter.write(new Geometry(GeometryType.MULTIPOLYGON), new StringBuilder()).toString());
+    }
+
+    @Test
+    public void testWritesNumbersExactly() throws Exception {
+        double[] values = {0, -0.5, 0.05, 1e-4, 532145.25, -12345678.125, 0.1 + 0.2, 1e-12, 1e20, 51.50735090};
+        String[] expected = {"0", "-0.5", "0.05", "0.0001", "532145.25", "-12345678.125", "0.30000000000000004",
+            "0.000000000001", "100000000000000000000", "51.5073509"};
+        for (int i = 0; i < values.length; i++) {
+            StringBuilder out = new StringBuilder();
+            WKTWriter.writeNumber(values[i], out);
+            assertEquals(expected[i], out.toString());
+            assertEquals(values[i], Double.parseDouble(out.toString()), 0);
+        }
+    }
+
+    private static void addRing(Geometry geometry, double min, double max) {
+        geometry.addPart();
+        geometry.addPoint(min, min);
+        geometry.addPoint(min, max);
+        geometry.addPoint(max, max);
+        geometry.addPoint(min, min);
+    }
+}
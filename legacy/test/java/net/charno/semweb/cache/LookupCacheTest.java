@@ -0,0 +1,116 @@
+package net.charno.semweb.cache;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import net.charno.semweb.http.CircuitOpenException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class LookupCacheTest {
+
+    private LookupCache<String> cache;
+    private int loads;
+
+    @Before
+    public void setup() throws Exception {
+        cache = new LookupCache<String>(100, 60000);
+        loads = 0;
+    }
+
+    private Callable<String> loader(final String value) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                loads++;
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        assertEquals("http://example.org/1", cache.get("a", loader("http://example.org/1")));
+        assertEquals("http://example.org/1", cache.get("a", loader("http://example.org/2")));
+        assertEquals(1, loads);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNegativeResultsAreCached() throws Exception {
+        assertNull(cache.get("a", loader(null)));
+        assertNull(cache.get("a", loader("http://example.org/1")));
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        assertNull(cache.get("a", new Callable<String>() {
+            public String call() throws Exception {
+                throw new IOException("down");
+            }
+        }));
+        assertEquals("http://example.org/1", cache.get("a", loader("http://example.org/1")));
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        cache = new LookupCache<String>(100, 1);
+        cache.get("a", loader("http://example.org/1"));
+        Thread.sleep(10);
+        cache.get("a", loader("http://example.org/1"));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testExpiredValueWhileHostIsDown() throws Exception {
+        cache = new LookupCache<String>(100, 1);
+        cache.get("a", loader("http://example.org/1"));
+        Thread.sleep(10);
+        Callable<String> down = new Callable<String>() {
+            public String call() throws Exception {
+                throw new CircuitOpenException("example.org");
+            }
+        };
+        assertEquals("http://example.org/1", cache.get("a", down));
+        assertNull(cache.get("b", down));
+        assertEquals(1, cache.getStaleHitCount());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            cache.get("key" + i, loader("value" + i));
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue(cache.getEvictionCount() >= 900);
+    }
+
+    @Test
+    public void testFrequentKeysSurviveAScan() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 10; j++) {
+                cache.get("hot" + j, loader("hot"));
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            cache.get("cold" + i, loader("cold"));
+        }
+        loads = 0;
+        for (int j = 0; j < 10; j++) {
+            cache.get("hot" + j, loader("hot"));
+        }
+        assertEquals(0, loads);
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        assertEquals("eh_period\u0000ROMAN", LookupCache.key("eh_period", "ROMAN"));
+        assertFalse(LookupCache.key("a", "b", "c").equals(LookupCache.key("a", "bc")));
+    }
+}
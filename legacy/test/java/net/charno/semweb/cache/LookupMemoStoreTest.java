@@ -0,0 +1,190 @@
+package net.charno.semweb.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.charno.semweb.http.CircuitOpenException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class LookupMemoStoreTest {
+
+    private static final Callable<String> FAIL = new Callable<String>() {
+        public String call() throws Exception {
+            throw new AssertionError("should have been stored");
+        }
+    };
+
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("lookups", ".store");
+        file.delete();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testValuesSurviveReopening() throws Exception {
+        LookupMemoStore store = new LookupMemoStore(file, 60000, 60000);
+        store.put("eh_period\u0000ROMAN", "http://purl.org/heritagedata/schemes/eh_period/concepts/EHP12");
+        store.put("eh_period\u0000MARTIAN", null);
+        store.close();
+
+        store = new LookupMemoStore(file, 60000, 60000);
+        assertEquals("http://purl.org/heritagedata/schemes/eh_period/concepts/EHP12", store.get("eh_period\u0000ROMAN", FAIL));
+        assertNull(store.get("eh_period\u0000MARTIAN", FAIL));
+        assertEquals(2, store.getHitCount());
+        store.close();
+    }
+
+    @Test
+    public void testLatestValueWins() throws Exception {
+        LookupMemoStore store = new LookupMemoStore(file, 60000, 60000);
+        store.put("a", "1");
+        store.put("a", "2");
+        assertEquals("2", store.get("a", FAIL));
+        store.close();
+
+        store = new LookupMemoStore(file, 60000, 60000);
+        assertEquals("2", store.get("a", FAIL));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void testNegativeResultsExpireSeparately() throws Exception {
+        LookupMemoStore store = new LookupMemoStore(file, 60000, 0);
+        store.put("a", null);
+        Thread.sleep(5);
+        assertEquals("found", store.get("a", new Callable<String>() {
+            public String call() throws Exception {
+                return "found";
+            }
+        }));
+        store.close();
+    }
+
+    @Test
+    public void testExpiredValueWhileHostIsDown() throws Exception {
+        LookupMemoStore store = new LookupMemoStore(file, 0, 0);
+        store.put("a", "1");
+        Thread.sleep(5);
+        Callable<String> down = new Callable<String>() {
+            public String call() throws Exception {
+                throw new CircuitOpenException("example.org");
+            }
+        };
+        assertEquals("1", store.get("a", down));
+        try {
+            store.get("b", down);
+            fail();
+        } catch (CircuitOpenException ex) {
+            assertEquals("example.org", ex.getHost());
+        }
+        store.close();
+    }
+
+    @Test
+    public void testHalfWrittenRecordIsDropped() throws Exception {
+        LookupMemoStore store = new LookupMemoStore(file, 60000, 60000);
+        store.put("a", "1");
+        store.put("b", "2");
+        store.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        store = new LookupMemoStore(file, 60000, 60000);
+        assertEquals("1", store.get("a", FAIL));
+        assertEquals(1, store.size());
+        store.put("c", "3");
+        store.close();
+
+        store = new LookupMemoStore(file, 60000, 60000);
+        assertEquals("3", store.get("c", FAIL));
+        store.close();
+    }
+
+    @Test
+    public void testSupersededAndExpiredRecordsAreCompacted() throws Exception {
+        LookupMemoStore store = new LookupMemoStore(file, 60000, 0);
+        for (int i = 0; i < 100; i++) {
+            store.put("a", "value " + i);
+        }
+        store.put("b", null);
+        store.close();
+        long before = file.length();
+        Thread.sleep(5);
+
+        // the old values of a and the expired "no match" for b are dropped
+        store = new LookupMemoStore(file, 60000, 0);
+        assertTrue(file.length() < before / 50);
+        assertEquals(1, store.size());
+        assertEquals("value 99", store.get("a", FAIL));
+        assertFalse(store.contains("b"));
+        store.put("c", "3");
+        store.close();
+
+        store = new LookupMemoStore(file, 60000, 0);
+        assertEquals("value 99", store.get("a", FAIL));
+        assertEquals("3", store.get("c", FAIL));
+        store.close();
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final LookupMemoStore store = new LookupMemoStore(file, 60000, 60000);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> loader = () -> {
+            loads.incrementAndGet();
+            release.await();
+            return "1";
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<String> first = executor.submit(() -> store.get("a", loader));
+        Future<String> second = executor.submit(() -> store.get("a", loader));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getMissCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        assertEquals("1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("1", second.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(1, loads.get());
+        store.close();
+    }
+
+    @Test
+    public void testNotAStore() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("not a lookup store");
+        raf.close();
+        try {
+            new LookupMemoStore(file, 60000, 60000);
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().endsWith("is not a lookup store"));
+        }
+    }
+}
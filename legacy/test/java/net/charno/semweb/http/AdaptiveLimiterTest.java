@@ -0,0 +1,112 @@
+package net.charno.semweb.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testDecreasesOnOverload() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8);
+        assertEquals(8, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(10, true);
+        assertEquals(4, limiter.getLimit());
+        // more failures from the same round don't cut it again
+        limiter.acquire();
+        limiter.release(10, true);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getDecreaseCount());
+        Thread.sleep(20);
+        limiter.acquire();
+        limiter.release(10, true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testDecreasesWhenSlow() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8);
+        limiter.acquire();
+        limiter.release(100, false);
+        limiter.acquire();
+        limiter.release(900, false);
+        assertEquals(8, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(5000, false);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testIncreasesWhenSaturated() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 4);
+        limiter.acquire();
+        limiter.release(10, true);
+        assertEquals(2, limiter.getLimit());
+        // not using the limit says nothing about raising it
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(10, false);
+        }
+        assertEquals(2, limiter.getLimit());
+        // filling every slot each round
+        for (int i = 0; i < 10; i++) {
+            int slots = limiter.getLimit();
+            for (int j = 0; j < slots; j++) {
+                limiter.acquire();
+            }
+            for (int j = 0; j < slots; j++) {
+                limiter.release(10, false);
+            }
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testBlocksAtLimit() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1);
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException ex) {
+                // test over
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(10, false);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testPause() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8);
+        limiter.pause(150);
+        long start = System.currentTimeMillis();
+        limiter.acquire();
+        assertTrue(System.currentTimeMillis() - start >= 140);
+    }
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        TokenBucket bucket = new TokenBucket(50, 5);
+        long start = System.nanoTime();
+        // the burst goes straight through, the rest at 50 a second
+        for (int i = 0; i < 15; i++) {
+            bucket.acquire();
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(millis >= 180);
+        assertTrue(millis < 2000);
+        assertEquals(50, bucket.getRate(), 0.0001);
+    }
+}
@@ -0,0 +1,39 @@
+package net.charno.semweb.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class BatchSizerTest {
+
+    @Test
+    public void testGrowsWhileFast() throws Exception {
+        BatchSizer sizer = new BatchSizer(50, 1, 150, 1000);
+        sizer.succeeded(50, 100);
+        assertEquals(100, sizer.size());
+        // a part batch, e.g. the last one, doesn't grow it
+        sizer.succeeded(20, 100);
+        assertEquals(100, sizer.size());
+        sizer.succeeded(100, 100);
+        assertEquals(150, sizer.size());
+        // within the target but not well within it
+        sizer.succeeded(150, 800);
+        assertEquals(150, sizer.size());
+    }
+
+    @Test
+    public void testShrinksWhenSlowOrFailing() throws Exception {
+        BatchSizer sizer = new BatchSizer(50, 2, 500, 1000);
+        sizer.succeeded(50, 3000);
+        assertEquals(25, sizer.size());
+        sizer.failed(25);
+        assertEquals(12, sizer.size());
+        sizer.failed(4);
+        assertEquals(2, sizer.size());
+        sizer.failed(2);
+        assertEquals(2, sizer.size());
+    }
+}
@@ -0,0 +1,56 @@
+package net.charno.semweb.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000, 60000);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+        // a success in between starts the count again
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testProbesForRecovery() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, 1000);
+        breaker.allowRequest();
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(30);
+        assertFalse(breaker.isOpen());
+
+        // one probe at a time, and a failed probe opens the circuit for longer
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        Thread.sleep(30);
+        assertTrue(breaker.isOpen());
+        Thread.sleep(20);
+
+        // an abandoned probe lets the next request probe instead
+        assertTrue(breaker.allowRequest());
+        breaker.onAbandoned();
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+}
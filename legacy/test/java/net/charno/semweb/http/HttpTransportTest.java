@@ -0,0 +1,166 @@
+package net.charno.semweb.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.client.HttpResponseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class HttpTransportTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // the first two requests are refused, the rest answered
+        server.createContext("/flaky", exchange -> {
+            int status = requests.incrementAndGet() <= 2 ? 503 : 200;
+            respond(exchange, status, "ok");
+        });
+        server.createContext("/broken", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 500, "broken");
+        });
+        server.createContext("/missing", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 404, "missing");
+        });
+        // the first request hangs, the rest are answered straight away
+        server.createContext("/slow", exchange -> {
+            int request = requests.incrementAndGet();
+            if (request == 1) {
+                try {
+                    Thread.sleep(3000);
+                } catch (InterruptedException ex) {
+                    // shutting down
+                }
+            }
+            respond(exchange, 200, "request " + request);
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void testRetriesOverloaded() throws Exception {
+        String body = HttpTransport.get(url("/flaky"), reader -> new BufferedReader(reader).readLine());
+        assertEquals("ok", body);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testGetStringRetriesAndFailsOnErrors() throws Exception {
+        assertEquals("ok", HttpTransport.getString(url("/flaky")));
+        assertEquals(3, requests.get());
+        try {
+            HttpTransport.getString(url("/missing"));
+            fail();
+        } catch (HttpResponseException ex) {
+            assertEquals(404, ex.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryClientErrors() throws Exception {
+        try {
+            HttpTransport.get(url("/missing"), reader -> "unexpected");
+            fail();
+        } catch (HttpResponseException ex) {
+            assertEquals(404, ex.getStatusCode());
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testHedgesSlowRequests() throws Exception {
+        HttpTransport.setHedging("127.0.0.1", true);
+        try {
+            LatencyTracker latency = HttpTransport.getLatency("127.0.0.1");
+            for (int i = 0; i < HttpTransport.HEDGE_MIN_SAMPLES; i++) {
+                latency.record(10);
+            }
+            long start = System.currentTimeMillis();
+            String body = HttpTransport.get(url("/slow"), reader -> new BufferedReader(reader).readLine());
+            assertEquals("request 2", body);
+            assertTrue(System.currentTimeMillis() - start < 2000);
+        } finally {
+            HttpTransport.setHedging("127.0.0.1", false);
+        }
+    }
+
+    @Test
+    public void testStopsSendingToFailingHost() throws Exception {
+        // a host name of its own, so the open circuit doesn't affect the other tests
+        String url = "http://localhost:" + server.getAddress().getPort() + "/broken";
+        int sent = 0;
+        while (!HttpTransport.getCircuitBreaker("localhost").isOpen() && sent++ < 10) {
+            try {
+                HttpTransport.get(url, reader -> "unexpected");
+                fail();
+            } catch (HttpResponseException ex) {
+                assertEquals(500, ex.getStatusCode());
+            } catch (CircuitOpenException ex) {
+                // opened part way through the retries
+            }
+        }
+        assertFalse(HttpTransport.isAvailable("localhost"));
+        int requested = requests.get();
+        assertEquals(HttpTransport.DEFAULT_CIRCUIT_FAILURES, requested);
+        try {
+            HttpTransport.get(url, reader -> "unexpected");
+            fail();
+        } catch (CircuitOpenException ex) {
+            assertEquals("localhost", ex.getHost());
+        }
+        assertEquals(requested, requests.get());
+    }
+
+    @Test
+    public void testRetryBudget() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertEquals(3, budget.getWithdrawnCount());
+        assertEquals(2, budget.getRefusedCount());
+    }
+}
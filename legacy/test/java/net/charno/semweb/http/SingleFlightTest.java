@@ -0,0 +1,84 @@
+package net.charno.semweb.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testSharesConcurrentCalls() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> flight.execute("Roman", () -> {
+                calls.incrementAndGet();
+                release.await();
+                return "http://example.org/roman";
+            })));
+        }
+        // wait for the other callers to join the first one
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flight.getSharedCount() < 7 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("http://example.org/roman", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(1, calls.get());
+        assertEquals(7, flight.getSharedCount());
+        assertEquals(0, flight.size());
+
+        // once finished, the next call goes out again
+        assertEquals("again", flight.execute("Roman", () -> "again"));
+    }
+
+    @Test
+    public void testSharesFailures() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<String> first = executor.submit(() -> flight.execute("London", () -> {
+            started.countDown();
+            release.await();
+            throw new IOException("down");
+        }));
+        started.await();
+        Future<String> second = executor.submit(() -> flight.execute("London", () -> "not called"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flight.getSharedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Future<String> result : Arrays.asList(first, second)) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+        }
+        executor.shutdown();
+        assertEquals(0, flight.size());
+    }
+}
@@ -0,0 +1,122 @@
+package net.charno.semweb.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import net.charno.semweb.bindings.ScoredURILabelBinding;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class DBPediaIndexTest {
+
+    static final String LABEL = "<http://www.w3.org/2000/01/rdf-schema#label>";
+    static final String TYPE = "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type>";
+    static final String LABELS = "<http://dbpedia.org/resource/Bronze> " + LABEL + " \"Bronze\"@en .\n"
+            + "<http://dbpedia.org/resource/Category:Bronze> " + LABEL + " \"Bronze\"@en .\n"
+            + "<http://dbpedia.org/resource/Bronze_(disambiguation)> " + LABEL + " \"Bronze\"@en .\n"
+            + "<http://dbpedia.org/resource/Iron> " + LABEL + " \"Iron\"@en .\n"
+            + "<http://dbpedia.org/resource/Iron> " + LABEL + " \"Eisen\"@de .\n"
+            + "<http://dbpedia.org/resource/British_Museum> " + LABEL + " \"British Museum\"@en .\n"
+            + "<http://dbpedia.org/resource/York_Archaeological_Trust> " + LABEL + " \"York Archaeological Trust\"@en .\n"
+            + "<http://dbpedia.org/resource/Caf%C3%A9> " + LABEL + " \"Caf\\u00E9\"@en .\n"
+            + "<http://example.org/Other> " + LABEL + " \"Other\"@en .\n";
+    static final String TYPES = "<http://dbpedia.org/resource/British_Museum> " + TYPE + " <http://dbpedia.org/ontology/Organisation> .\n"
+            + "<http://dbpedia.org/resource/York_Archaeological_Trust> " + TYPE + " <http://dbpedia.org/ontology/Organisation> .\n"
+            + "<http://dbpedia.org/resource/Iron> " + TYPE + " <http://dbpedia.org/ontology/ChemicalSubstance> .\n";
+
+    static File labels;
+    static File types;
+    static File file;
+    static DBPediaIndex index;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        // enough generated labels to fill several blocks and sort runs
+        StringBuilder generated = new StringBuilder(LABELS);
+        for (int i = 0; i < 200; i++) {
+            generated.append("<http://dbpedia.org/resource/Thing_").append(i).append("> ").append(LABEL)
+                    .append(" \"Thing ").append(i).append("\"@en .\n");
+        }
+        labels = write("labels_en", generated.toString());
+        types = write("instance_types", TYPES);
+        file = File.createTempFile("dbpedia", ".idx");
+        assertEquals(207, DBPediaIndex.build(file, DBPediaIndex.DEFAULT_TYPES, 50, labels, types));
+        index = DBPediaIndex.open(file);
+    }
+
+    static File write(String name, String content) throws Exception {
+        File dump = File.createTempFile(name, ".nt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(dump), "UTF-8");
+        writer.write(content);
+        writer.close();
+        return dump;
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        labels.delete();
+        types.delete();
+        file.delete();
+    }
+
+    @Test
+    public void testFindExact() throws Exception {
+        List<String> uris = index.findExact("Bronze", null);
+        assertEquals(2, uris.size());
+        assertEquals("http://dbpedia.org/resource/Bronze", uris.get(0));
+        assertEquals("http://dbpedia.org/resource/Bronze_(disambiguation)", uris.get(1));
+        assertEquals("http://dbpedia.org/resource/Bronze", index.findFirst("Bronze", null));
+
+        assertNull(index.findFirst("bronze", null));
+        assertNull(index.findFirst("Eisen", null));
+        assertNull(index.findFirst("Bronz", null));
+        assertEquals("http://dbpedia.org/resource/Caf%C3%A9", index.findFirst("Caf\u00e9", null));
+        assertEquals("http://example.org/Other", index.findFirst("Other", null));
+    }
+
+    @Test
+    public void testAcrossBlocks() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            assertEquals("http://dbpedia.org/resource/Thing_" + i, index.findFirst("Thing " + i, null));
+        }
+        assertNull(index.findFirst("Thing 200", null));
+        assertNull(index.findFirst("Zzz", null));
+        assertNull(index.findFirst("", null));
+    }
+
+    @Test
+    public void testTypes() throws Exception {
+        assertEquals(1, index.getTypes().size());
+        assertEquals("http://dbpedia.org/resource/British_Museum", index.findFirst("British Museum", DBPediaIndex.DBO_ORGANISATION));
+        assertNull(index.findFirst("Bronze", DBPediaIndex.DBO_ORGANISATION));
+        // not a type the index records
+        assertNull(index.findFirst("Iron", "http://dbpedia.org/ontology/ChemicalSubstance"));
+
+        List<ScoredURILabelBinding> organisations = index.fuzzy(DBPediaIndex.DBO_ORGANISATION).findSimilar("archeological", 10);
+        assertEquals(1, organisations.size());
+        assertEquals("http://dbpedia.org/resource/York_Archaeological_Trust", organisations.get(0).getUri());
+        assertEquals("York Archaeological Trust", organisations.get(0).getLabel());
+        assertEquals(2, index.fuzzy(DBPediaIndex.DBO_ORGANISATION).size());
+    }
+
+    @Test
+    public void testFuzzyLimit() throws Exception {
+        DBPediaIndex small = DBPediaIndex.open(file);
+        System.setProperty("dbpedia.fuzzy.limit", "1");
+        try {
+            assertNull(small.fuzzy(DBPediaIndex.DBO_ORGANISATION));
+        } finally {
+            System.clearProperty("dbpedia.fuzzy.limit");
+        }
+        // the refusal is remembered rather than counted again
+        assertNull(small.fuzzy(DBPediaIndex.DBO_ORGANISATION));
+    }
+}
@@ -0,0 +1,88 @@
+package net.charno.semweb.index;
+
+import java.util.List;
+import net.charno.semweb.bindings.ScoredURILabelBinding;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class FuzzyIndexTest {
+
+    static final String[] URIS = {"urn:1", "urn:2", "urn:3", "urn:4", "urn:5"};
+    static final String[] LABELS = {"Archaeology", "Industrial archaeology", "Architecture", "Roman coins", "York Archaeological Trust"};
+
+    static final FuzzyIndex index = new FuzzyIndex(URIS, LABELS);
+
+    @Test
+    public void testFindSimilar() throws Exception {
+        List<ScoredURILabelBinding> results = index.findSimilar("archaeology", 10);
+        assertEquals(3, results.size());
+        assertEquals("Archaeology", results.get(0).getLabel());
+        assertEquals(1.0, results.get(0).getScore(), 0.0001);
+        assertEquals("Industrial archaeology", results.get(1).getLabel());
+        assertTrue(results.get(1).getScore() < 1.0);
+        // archaeologi(cal) is one edit away
+        assertEquals("York Archaeological Trust", results.get(2).getLabel());
+        assertTrue(results.get(2).getScore() < results.get(1).getScore());
+
+        // one typo
+        results = index.findSimilar("archeology", 10);
+        assertEquals("urn:1", results.get(0).getUri());
+        assertEquals("urn:2", results.get(1).getUri());
+
+        // two typos
+        results = index.findSimilar("arkaeology", 10);
+        assertEquals("urn:1", results.get(0).getUri());
+
+        assertEquals(1, index.findSimilar("archaeology", 1).size());
+        assertTrue(index.findSimilar("numismatics", 10).isEmpty());
+    }
+
+    @Test
+    public void testFindExact() throws Exception {
+        List<ScoredURILabelBinding> results = index.findExact(" roman COINS ", 10);
+        assertEquals(1, results.size());
+        assertEquals("urn:4", results.get(0).getUri());
+        assertEquals("Roman coins", results.get(0).getLabel());
+        // no typos and no partial labels
+        assertTrue(index.findExact("archeology", 10).isEmpty());
+        assertTrue(index.findExact("archaeolog", 10).isEmpty());
+    }
+
+    @Test
+    public void testFindStartingWith() throws Exception {
+        List<ScoredURILabelBinding> results = index.findStartingWith("ARCH", 10);
+        assertEquals(2, results.size());
+        assertEquals("Archaeology", results.get(0).getLabel());
+        assertEquals("Architecture", results.get(1).getLabel());
+
+        results = index.findStartingWith("york archeolog", 10);
+        assertEquals(1, results.size());
+        assertEquals("urn:5", results.get(0).getUri());
+
+        assertTrue(index.findStartingWith("coins", 10).isEmpty());
+    }
+
+    @Test
+    public void testShortQueries() throws Exception {
+        // too short for a trigram, so only the starts of labels match
+        assertEquals(2, index.findSimilar("ar", 10).size());
+        assertEquals(1, index.findStartingWith("ro", 10).size());
+        assertTrue(index.findSimilar("", 10).isEmpty());
+    }
+
+    @Test
+    public void testDistances() throws Exception {
+        assertEquals(0, FuzzyIndex.substringDistance("coin", "roman coins"));
+        assertEquals(1, FuzzyIndex.substringDistance("coyn", "roman coins"));
+        assertEquals(0, FuzzyIndex.prefixDistance("rom", "roman coins", 1));
+        assertEquals(1, FuzzyIndex.prefixDistance("rmo", "roman coins", 1));
+        assertTrue(FuzzyIndex.prefixDistance("coin", "roman coins", 1) > 1);
+        assertEquals(0, FuzzyIndex.maxEdits(5));
+        assertEquals(1, FuzzyIndex.maxEdits(6));
+        assertEquals(3, FuzzyIndex.maxEdits(40));
+    }
+}
@@ -0,0 +1,88 @@
+package net.charno.semweb.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import net.charno.semweb.bindings.GeonamesBinding;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class GeonamesIndexTest {
+
+    static final String DUMP = "2643743\tLondon\tLondon\tLondres,Londra,Lundun\t51.50853\t-0.12574\tP\tPPLC\tGB\t\tENG\tGLA\t\t\t7556900\t\t25\tEurope/London\t2012-08-19\n"
+            + "6058560\tLondon\tLondon\tLondon Ontario\t42.98339\t-81.23304\tP\tPPL\tCA\t\t08\t\t\t\t346765\t\t252\tAmerica/Toronto\t2012-08-19\n"
+            + "4517009\tLondon\tLondon\t\t39.88645\t-83.44825\tP\tPPLA2\tUS\t\tOH\t097\t\t\t9904\t\t320\tAmerica/New_York\t2012-08-19\n"
+            + "2643744\tLondon Stone\tLondon Stone\t\t51.51\t-0.09\tS\tMNMT\tGB\t\tENG\t\t\t\t0\t\t20\tEurope/London\t2012-08-19\n"
+            + "2653941\tCambridge\tCambridge\tGrantebrycge\t52.2\t0.11667\tP\tPPLA2\tGB\t\tENG\tC3\t\t\t128488\t\t15\tEurope/London\t2012-08-19\n"
+            + "2990969\tN\u00eemes\tNimes\tNemausus\t43.83333\t4.35\tP\tPPLA\tFR\t\t\t\t\t\t146709\t\t49\tEurope/Paris\t2012-08-19\n";
+
+    static File dump;
+    static File file;
+    static GeonamesIndex index;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        dump = File.createTempFile("geonames", ".txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(dump), "UTF-8");
+        writer.write(DUMP);
+        writer.close();
+        file = File.createTempFile("geonames", ".idx");
+        assertEquals(5, GeonamesIndex.build(file, dump));
+        index = GeonamesIndex.open(file);
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        dump.delete();
+        file.delete();
+    }
+
+    @Test
+    public void testFindInWorld() throws Exception {
+        Map<String, GeonamesBinding> results = index.find("london", null, null, 10);
+        assertEquals(3, results.size());
+        Iterator<String> uris = results.keySet().iterator();
+        assertEquals("http://sws.geonames.org/2643743", uris.next());
+        assertEquals("http://sws.geonames.org/6058560", uris.next());
+
+        GeonamesBinding binding = results.get("http://sws.geonames.org/2643743");
+        assertEquals("London", binding.getToponymName());
+        assertEquals("GB", binding.getCountryCode());
+        assertEquals("P", binding.getFunctionClass());
+        assertEquals("PPLC", binding.getFunctionCode());
+
+        assertEquals(1, index.find("London", null, null, 1).size());
+        assertTrue(index.find("London Stone", null, null, 10).isEmpty());
+    }
+
+    @Test
+    public void testFindInCountry() throws Exception {
+        Map<String, GeonamesBinding> results = index.find("London", "US", null, 10);
+        assertEquals(1, results.size());
+        assertTrue(results.containsKey("http://sws.geonames.org/4517009"));
+        assertTrue(index.find("Cambridge", "US", null, 10).isEmpty());
+    }
+
+    @Test
+    public void testCountryBias() throws Exception {
+        Map<String, GeonamesBinding> results = index.find("london", null, "US", 10);
+        assertEquals("http://sws.geonames.org/4517009", results.keySet().iterator().next());
+    }
+
+    @Test
+    public void testAlternateNames() throws Exception {
+        assertTrue(index.find("Grantebrycge", null, null, 10).containsKey("http://sws.geonames.org/2653941"));
+        assertTrue(index.find("  LONDON   ontario ", "CA", null, 10).containsKey("http://sws.geonames.org/6058560"));
+        assertTrue(index.find("Nimes", null, null, 10).containsKey("http://sws.geonames.org/2990969"));
+        assertEquals("N\u00eemes", index.find("n\u00eemes", null, null, 10).get("http://sws.geonames.org/2990969").getToponymName());
+    }
+}
@@ -0,0 +1,97 @@
+package net.charno.semweb.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import net.charno.semweb.bindings.URILabelBinding;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class SkosIndexTest {
+
+    static final String PERIOD = "http://purl.org/heritagedata/schemes/eh_period";
+    static final String OBJECT = "http://purl.org/heritagedata/schemes/mda_obj";
+    static final String NT = "<http://purl.org/heritagedata/schemes/eh_period> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://www.w3.org/2004/02/skos/core#ConceptScheme> .\n"
+            + "<http://purl.org/heritagedata/schemes/eh_period/concepts/EHP12> <http://www.w3.org/2004/02/skos/core#inScheme> <http://purl.org/heritagedata/schemes/eh_period> .\n"
+            + "<http://purl.org/heritagedata/schemes/eh_period/concepts/EHP12> <http://www.w3.org/2004/02/skos/core#prefLabel> \"ROMAN\"@en .\n"
+            + "<http://purl.org/heritagedata/schemes/eh_period/concepts/EHP10> <http://www.w3.org/2004/02/skos/core#inScheme> <http://purl.org/heritagedata/schemes/eh_period> .\n"
+            + "<http://purl.org/heritagedata/schemes/eh_period/concepts/EHP10> <http://www.w3.org/2004/02/skos/core#prefLabel> \"RHUFEINIG\"@cy .\n"
+            + "<http://purl.org/heritagedata/schemes/eh_period/concepts/EHP10> <http://www.w3.org/2004/02/skos/core#prefLabel> \"EARLY MEDIEVAL\"@en .\n"
+            + "# a comment\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/95402> <http://www.w3.org/2004/02/skos/core#inScheme> <http://purl.org/heritagedata/schemes/mda_obj> .\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/95402> <http://www.w3.org/2004/02/skos/core#prefLabel> \"COIN HOARD\"@en .\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/95400> <http://www.w3.org/2004/02/skos/core#inScheme> <http://purl.org/heritagedata/schemes/mda_obj> .\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/95400> <http://www.w3.org/2004/02/skos/core#prefLabel> \"COIN\"@en .\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/95400> <http://www.w3.org/2004/02/skos/core#altLabel> \"Numisma\"@en .\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/96000> <http://www.w3.org/2004/02/skos/core#inScheme> <http://purl.org/heritagedata/schemes/mda_obj> .\n"
+            + "<http://purl.org/heritagedata/schemes/mda_obj/concepts/96000> <http://www.w3.org/2004/02/skos/core#prefLabel> \"PIN \\\"DRESS\\\" \\u00C6\"@en .\n";
+
+    static File file;
+    static SkosIndex index;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        file = File.createTempFile("skos", ".nt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(NT);
+        writer.close();
+        index = SkosIndex.load(file);
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        assertEquals(5, index.size());
+        assertEquals(2, index.getSchemes().size());
+    }
+
+    @Test
+    public void testFindExact() throws Exception {
+        assertEquals("http://purl.org/heritagedata/schemes/eh_period/concepts/EHP12", index.findExact(PERIOD, "roman"));
+        assertEquals("http://purl.org/heritagedata/schemes/eh_period/concepts/EHP10", index.findExact(PERIOD, "Early Medieval"));
+        assertNull(index.findExact(PERIOD, "RHUFEINIG"));
+        assertNull(index.findExact(PERIOD, "ROM"));
+        assertNull(index.findExact(OBJECT, "ROMAN"));
+    }
+
+    @Test
+    public void testFindPrefix() throws Exception {
+        assertEquals("http://purl.org/heritagedata/schemes/mda_obj/concepts/95400", index.findPrefix(OBJECT, "coin"));
+        assertEquals("http://purl.org/heritagedata/schemes/mda_obj/concepts/95402", index.findPrefix(OBJECT, "coin h"));
+        assertNull(index.findPrefix(OBJECT, "numisma"));
+    }
+
+    @Test
+    public void testFindContaining() throws Exception {
+        List<URILabelBinding> results = index.findContaining(OBJECT, "OIN");
+        assertEquals(2, results.size());
+        assertEquals("COIN", results.get(0).getLabel());
+        assertEquals("COIN HOARD", results.get(1).getLabel());
+
+        results = index.findContaining(OBJECT, "mism");
+        assertEquals(1, results.size());
+        assertEquals("http://purl.org/heritagedata/schemes/mda_obj/concepts/95400", results.get(0).getUri());
+        assertEquals("COIN", results.get(0).getLabel());
+
+        assertTrue(index.findContaining(OBJECT, "hoardx").isEmpty());
+        assertTrue(index.findContaining(OBJECT, "n h").size() == 1);
+        assertTrue(index.findContaining(PERIOD, "coin").isEmpty());
+    }
+
+    @Test
+    public void testEscapedLiterals() throws Exception {
+        assertEquals("http://purl.org/heritagedata/schemes/mda_obj/concepts/96000", index.findExact(OBJECT, "pin \"dress\" \u00e6"));
+    }
+}
@@ -0,0 +1,37 @@
+package net.charno.semweb.lookups;
+
+import java.util.Arrays;
+import java.util.List;
+import net.charno.semweb.bindings.URILabelBinding;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class LoCSubjectClientTest {
+
+    @Test
+    public void testHeadingPrefixes() throws Exception {
+        assertEquals(Arrays.asList("Pottery"), LoCSubjectClient.headingPrefixes("Pottery"));
+        assertEquals(Arrays.asList("Pottery", "Pottery--England", "Pottery--England--Medieval"),
+                LoCSubjectClient.headingPrefixes("Pottery--England--Medieval"));
+        // an empty heading before the first divider isn't asked for
+        assertEquals(Arrays.asList("--Pottery"), LoCSubjectClient.headingPrefixes("--Pottery"));
+    }
+
+    @Test
+    public void testLongest() throws Exception {
+        List<URILabelBinding> found = Arrays.asList(
+                new URILabelBinding("http://id.loc.gov/authorities/subjects/a", "Pottery"),
+                new URILabelBinding("http://id.loc.gov/authorities/subjects/b", "Pottery--England"),
+                new URILabelBinding(null, "Pottery--England--Medieval"),
+                new URILabelBinding("http://id.loc.gov/authorities/subjects/c", "Pottery--England"));
+        List<URILabelBinding> longest = LoCSubjectClient.longest(found);
+        assertEquals(2, longest.size());
+        assertEquals("http://id.loc.gov/authorities/subjects/b", longest.get(0).getUri());
+        assertEquals("http://id.loc.gov/authorities/subjects/c", longest.get(1).getUri());
+        assertTrue(LoCSubjectClient.longest(null).isEmpty());
+    }
+}
@@ -0,0 +1,186 @@
+package net.charno.semweb.lookups;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.charno.semweb.http.BatchSizer;
+import net.charno.semweb.http.CircuitBreaker;
+import net.charno.semweb.http.CircuitOpenException;
+import net.charno.semweb.http.HttpTransport;
+import net.charno.utils.JSONPullParser;
+import org.apache.http.client.HttpResponseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class SparqlClientTest {
+
+    static final List<String> LABELS = Arrays.asList("a", "b", "bad", "d");
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        // every loopback address, so each test can use a host, and circuit breaker, of its own
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/down", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 503, "down");
+        });
+        // refuses any batch with "bad" in it, and answers the rest
+        server.createContext("/sparql", exchange -> {
+            requests.incrementAndGet();
+            String query = URLDecoder.decode(read(exchange.getRequestBody()), "UTF-8");
+            if (query.contains("\"bad\"")) {
+                respond(exchange, 400, "bad");
+                return;
+            }
+            StringBuilder csv = new StringBuilder("value,uri\r\n");
+            for (String label : LABELS) {
+                if (query.contains("\"" + label + "\"")) {
+                    csv.append(label).append(",http://example.org/").append(label).append("\r\n");
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/csv");
+            respond(exchange, 200, csv.toString());
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            sb.append(new String(buffer, 0, n, "UTF-8"));
+        }
+        return sb.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * A lookup of the labels as plain literals, counting the single lookups.
+     */
+    private class TestQuery extends SparqlClient.BatchQuery {
+
+        final String host;
+        final AtomicInteger singles = new AtomicInteger();
+
+        TestQuery(String host, String path, BatchSizer sizer) {
+            super("http://" + host + ":" + server.getAddress().getPort() + path, "output", sizer);
+            this.host = host;
+        }
+
+        protected String value(String label) {
+            return label;
+        }
+
+        protected String key(String label) {
+            return "SparqlClientTest:" + host + ":" + label;
+        }
+
+        protected String query(String values) {
+            return "SELECT ?value ?uri { VALUES ?value { " + values + "} }";
+        }
+
+        protected String literal(String value) {
+            return SparqlClient.literal(value, null);
+        }
+
+        protected String lookupSingle(String label) {
+            singles.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Test
+    public void testSplitsRefusedBatches() throws Exception {
+        BatchSizer sizer = new BatchSizer(4, 1, 4, 60000);
+        TestQuery query = new TestQuery("127.0.0.2", "/sparql", sizer);
+        Map<String, String> results = SparqlClient.lookupBatch(LABELS, query);
+        assertEquals(3, results.size());
+        assertEquals("http://example.org/d", results.get("d"));
+        assertNull(results.get("bad"));
+        // a, b, bad and d, then a and b, bad and d, bad, d
+        assertEquals(5, requests.get());
+        // only the label refused on its own is looked up singly
+        assertEquals(1, query.singles.get());
+    }
+
+    @Test
+    public void testGivesUpOnFailingEndpoint() throws Exception {
+        HttpTransport.setMaxRetries(0);
+        try {
+            BatchSizer sizer = new BatchSizer(4, 1, 4, 60000);
+            TestQuery query = new TestQuery("127.0.0.3", "/down", sizer);
+            assertTrue(SparqlClient.lookupBatch(LABELS, query).isEmpty());
+            // the batch isn't split, and its labels aren't looked up singly
+            assertEquals(1, requests.get());
+            assertEquals(0, query.singles.get());
+            assertEquals(2, sizer.size());
+        } finally {
+            HttpTransport.setMaxRetries(Integer.getInteger("http.retries", HttpTransport.DEFAULT_MAX_RETRIES));
+        }
+    }
+
+    @Test
+    public void testGivesUpOnOpenCircuit() throws Exception {
+        CircuitBreaker breaker = HttpTransport.getCircuitBreaker("127.0.0.4");
+        for (int i = 0; i < HttpTransport.DEFAULT_CIRCUIT_FAILURES; i++) {
+            breaker.onFailure();
+        }
+        assertTrue(breaker.isOpen());
+        BatchSizer sizer = new BatchSizer(4, 1, 4, 60000);
+        TestQuery query = new TestQuery("127.0.0.4", "/sparql", sizer);
+        assertTrue(SparqlClient.lookupBatch(LABELS, query).isEmpty());
+        assertEquals(0, requests.get());
+        assertEquals(0, query.singles.get());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testRejectsQuery() throws Exception {
+        assertTrue(SparqlClient.rejectsQuery(new HttpResponseException(400, "Bad Request")));
+        assertTrue(SparqlClient.rejectsQuery(new HttpResponseException(414, "URI Too Long")));
+        assertTrue(SparqlClient.rejectsQuery(new JSONPullParser.SyntaxException("Unexpected character", 0)));
+        assertTrue(SparqlClient.rejectsQuery(new IOException("Invalid SPARQL XML results", new SAXException())));
+        // the endpoint wasn't reached, or didn't answer in time
+        assertFalse(SparqlClient.rejectsQuery(new HttpResponseException(429, "Too Many Requests")));
+        assertFalse(SparqlClient.rejectsQuery(new HttpResponseException(503, "Service Unavailable")));
+        assertFalse(SparqlClient.rejectsQuery(new SocketTimeoutException("Read timed out")));
+        assertFalse(SparqlClient.rejectsQuery(new CircuitOpenException("memp.york.ac.uk")));
+    }
+}
@@ -0,0 +1,66 @@
+package net.charno.utils;
+
+import net.charno.gml.Geometry;
+import net.charno.gml.enums.GeometryType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class CoordinateTokenizerTest {
+
+    @Test
+    public void testReadsChunkedCoordinates() {
+        String text = " 532145.25,181234.5,10 -0.000125,1.5E3\n\t7e-2,-3 ";
+        // every split of the text gives the same points
+        for (int split = 0; split <= text.length(); split++) {
+            Geometry geometry = new Geometry(GeometryType.LINESTRING);
+            CoordinateTokenizer tokenizer = new CoordinateTokenizer();
+            tokenizer.startCoordinates(geometry, ',', ' ', '.');
+            char[] chars = text.toCharArray();
+            tokenizer.feed(chars, 0, split);
+            tokenizer.feed(chars, split, chars.length - split);
+            tokenizer.finish();
+
+            assertEquals(3, geometry.getPointCount());
+            assertEquals(532145.25, geometry.getX(0), 0);
+            assertEquals(181234.5, geometry.getY(0), 0);
+            assertEquals(-0.000125, geometry.getX(1), 0);
+            assertEquals(1500, geometry.getY(1), 0);
+            assertEquals(0.07, geometry.getX(2), 0);
+            assertEquals(-3, geometry.getY(2), 0);
+        }
+    }
+
+    @Test
+    public void testReadsPosListAndMatchesParseDouble() {
+        String[] numbers = {"0.1", "0.3", "123456789012345678901", "4.9e-324", "-1.7976931348623157E308",
+            "0.30000000000000004", "9007199254740993", "+2.5", "1e+2"};
+        StringBuilder text = new StringBuilder();
+        for (String number : numbers) {
+            text.append(number).append(" 0 0 ");
+        }
+        Geometry geometry = new Geometry(GeometryType.POINT);
+        CoordinateTokenizer tokenizer = new CoordinateTokenizer();
+        tokenizer.startPosList(geometry, 3);
+        tokenizer.feed(text.toString().toCharArray(), 0, text.length());
+        tokenizer.finish();
+
+        assertEquals(numbers.length, geometry.getPointCount());
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(numbers[i], Double.parseDouble(numbers[i]), geometry.getX(i), 0);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRejectsBadNumbers() {
+        Geometry geometry = new Geometry(GeometryType.POINT);
+        CoordinateTokenizer tokenizer = new CoordinateTokenizer();
+        tokenizer.startCoordinates(geometry, ',', ' ', '.');
+        char[] text = "1,2 3,x".toCharArray();
+        tokenizer.feed(text, 0, text.length);
+        tokenizer.finish();
+    }
+}
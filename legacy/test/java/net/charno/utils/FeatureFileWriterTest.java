@@ -0,0 +1,64 @@
+package net.charno.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import net.charno.gml.Attributes;
+import net.charno.gml.enums.GeometryType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class FeatureFileWriterTest {
+
+    @Test
+    public void testWritesHeaderAndFeatures() throws Exception {
+        Attributes feature = new Attributes();
+        feature.setFid("F0");
+        feature.setContextID("1001");
+        feature.getAttributeList().put("PERIOD", "Roman");
+        feature.getGeometry().setGeometryType(GeometryType.MULTILINESTRING);
+        feature.getGeometry().addPoint(1, 2);
+        feature.getGeometry().addPart();
+        feature.getGeometry().addPoint(3.5, 4);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FeatureFileWriter writer = new FeatureFileWriter(bytes, "CONTEXT_ID", Arrays.asList("PERIOD", "SITE"));
+        writer.write(feature);
+        writer.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        assertEquals("LDTF", new String(magic, "US-ASCII"));
+        assertEquals(FeatureFileWriter.VERSION, in.readByte());
+        assertEquals(2, in.readInt());
+        assertEquals("CONTEXT_ID", readString(in));
+        assertEquals("PERIOD", readString(in));
+        assertEquals("SITE", readString(in));
+
+        assertEquals("F0", readString(in));
+        assertEquals("1001", readString(in));
+        assertEquals("Roman", readString(in));
+        assertNull(readString(in));
+        assertEquals(5, in.readByte());
+        assertEquals(2, in.readInt());
+        assertEquals(2, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(1, in.readInt());
+        assertEquals(1, in.readDouble(), 0);
+        assertEquals(2, in.readDouble(), 0);
+        assertEquals(3.5, in.readDouble(), 0);
+        assertEquals(4, in.readDouble(), 0);
+        assertEquals(-1, in.read());
+    }
+
+    private static String readString(DataInputStream in) throws Exception {
+        return in.readByte() == 0 ? null : in.readUTF();
+    }
+}
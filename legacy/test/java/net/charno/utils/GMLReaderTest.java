@@ -0,0 +1,117 @@
+package net.charno.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import net.charno.gml.Attributes;
+import net.charno.gml.GML;
+import net.charno.gml.enums.GeometryType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class GMLReaderTest {
+
+    private static final String GML = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+            + "<ogr:FeatureCollection xmlns:ogr=\"http://ogr.maptools.org/\" xmlns:gml=\"http://www.opengis.net/gml\">\n"
+            + "  <gml:boundedBy>\n"
+            + "    <gml:Box>\n"
+            + "      <gml:coord><gml:X>100</gml:X><gml:Y>200</gml:Y></gml:coord>\n"
+            + "      <gml:coord><gml:X>300</gml:X><gml:Y>400</gml:Y></gml:coord>\n"
+            + "    </gml:Box>\n"
+            + "  </gml:boundedBy>\n"
+            + "  <gml:featureMember>\n"
+            + "    <ogr:contexts fid=\"F0\">\n"
+            + "      <gml:boundedBy><gml:Box><gml:coord><gml:X>1</gml:X><gml:Y>1</gml:Y></gml:coord>"
+            + "<gml:coord><gml:X>2</gml:X><gml:Y>2</gml:Y></gml:coord></gml:Box></gml:boundedBy>\n"
+            + "      <ogr:geometryProperty><gml:LineString><gml:coordinates>1,2 3,4</gml:coordinates></gml:LineString></ogr:geometryProperty>\n"
+            + "      <ogr:CONTEXT>1001</ogr:CONTEXT>\n"
+            + "      <ogr:PERIOD>Roman</ogr:PERIOD>\n"
+            + "    </ogr:contexts>\n"
+            + "  </gml:featureMember>\n"
+            + "  <gml:featureMember>\n"
+            + "    <ogr:contexts fid=\"F1\">\n"
+            + "      <ogr:geometryProperty><gml:Polygon>"
+            + "<gml:outerBoundaryIs><gml:LinearRing><gml:coordinates>0,0 0,5 5,5 0,0</gml:coordinates></gml:LinearRing></gml:outerBoundaryIs>"
+            + "<gml:innerBoundaryIs><gml:LinearRing><gml:coordinates>1,1 1,2 2,2 1,1</gml:coordinates></gml:LinearRing></gml:innerBoundaryIs>"
+            + "</gml:Polygon></ogr:geometryProperty>\n"
+            + "      <ogr:CONTEXT>1002</ogr:CONTEXT>\n"
+            + "    </ogr:contexts>\n"
+            + "  </gml:featureMember>\n"
+            + "</ogr:FeatureCollection>\n";
+
+    private static final List<String> ATTRIBUTES = Arrays.asList("PERIOD");
+
+    @Test
+    public void testReadsOneFeatureAtATime() throws Exception {
+        GMLReader reader = new GMLReader(new ByteArrayInputStream(GML.getBytes("UTF-8")), "CONTEXT", ATTRIBUTES);
+
+        assertTrue(reader.hasNext());
+        Attributes first = reader.next();
+        assertEquals("F0", first.getFid());
+        assertEquals("1001", first.getContextID());
+        assertEquals("Roman", first.getAttributeList().get("PERIOD"));
+        assertEquals(GeometryType.LINESTRING, first.getGeometry().getGeometryType());
+        assertEquals("LINESTRING(1 2,3 4)", first.getGeometry().getWktPoints().toString());
+
+        // the collection's box, not the feature's
+        assertEquals(100, reader.getBox().getMin().getX(), 0);
+        assertEquals(400, reader.getBox().getMax().getY(), 0);
+
+        Attributes second = reader.next();
+        assertEquals("F1", second.getFid());
+        assertEquals("1002", second.getContextID());
+        assertTrue(second.getAttributeList().containsKey("PERIOD"));
+        assertNull(second.getAttributeList().get("PERIOD"));
+        assertEquals(GeometryType.POLYGON, second.getGeometry().getGeometryType());
+        assertEquals("POLYGON((0 0,0 5,5 5,0 0),(1 1,1 2,2 2,1 1))", second.getGeometry().getWktPoints().toString());
+
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testReadsMultiSurfacePosLists() throws Exception {
+        String gml = "<ogr:FeatureCollection xmlns:ogr=\"http://ogr.maptools.org/\" xmlns:gml=\"http://www.opengis.net/gml\">"
+                + "<gml:featureMember><ogr:contexts fid=\"F2\"><ogr:geometryProperty><gml:MultiSurface>"
+                + "<gml:surfaceMember><gml:Polygon><gml:exterior><gml:LinearRing>"
+                + "<gml:posList srsDimension=\"3\">0 0 9 0 1 9 1 1 9 0 0 9</gml:posList>"
+                + "</gml:LinearRing></gml:exterior></gml:Polygon></gml:surfaceMember>"
+                + "<gml:surfaceMember><gml:Polygon><gml:exterior><gml:LinearRing>"
+                + "<gml:posList>5 5 5 6 6 6 5 5</gml:posList>"
+                + "</gml:LinearRing></gml:exterior></gml:Polygon></gml:surfaceMember>"
+                + "</gml:MultiSurface></ogr:geometryProperty><ogr:CONTEXT>1003</ogr:CONTEXT></ogr:contexts></gml:featureMember>"
+                + "</ogr:FeatureCollection>";
+        GMLReader reader = new GMLReader(new ByteArrayInputStream(gml.getBytes("UTF-8")), "CONTEXT", ATTRIBUTES);
+
+        Attributes feature = reader.next();
+        assertEquals(GeometryType.MULTIPOLYGON, feature.getGeometry().getGeometryType());
+        assertEquals("MULTIPOLYGON(((0 0,0 1,1 1,0 0)),((5 5,5 6,6 6,5 5)))",
+                feature.getGeometry().getWktPoints().toString());
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testObjectifyGML() throws Exception {
+        File file = File.createTempFile("features", ".gml");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            out.write(GML.getBytes("UTF-8"));
+            out.close();
+
+            GML gml = GMLUtils.objectifyGML(file.getPath(), "CONTEXT", ATTRIBUTES);
+            assertEquals(2, gml.getGmlAttributes().size());
+            assertEquals(300, gml.getGmlBox().getMax().getX(), 0);
+            assertNull(GMLUtils.objectifyGML(file.getPath() + ".missing", "CONTEXT", ATTRIBUTES));
+        } finally {
+            file.delete();
+        }
+    }
+}
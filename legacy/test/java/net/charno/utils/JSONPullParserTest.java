@@ -0,0 +1,103 @@
+package net.charno.utils;
+
+import java.io.StringReader;
+import java.util.Map;
+import net.charno.utils.JSONPullParser.Token;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class JSONPullParserTest {
+
+    static final String RESULTS = "{\"head\": {\"vars\": [ \"prefLabel\" , \"id\" ]} ,\"results\": {\"bindings\": [ "
+            + "{\"prefLabel\": { \"type\": \"literal\" , \"value\": \"London\" } ,\"id\": { \"type\": \"uri\" , \"value\": \"http://data.ordnancesurvey.co.uk/id/7000000000041428\" } } ,"
+            + "{\"prefLabel\": { \"type\": \"literal\" , \"value\": \"Caf\\u00e9 \\\"Royal\\\"\\n\" } , \"id\": null } ] } }";
+
+    @Test
+    public void testTokens() throws Exception {
+        JSONPullParser parser = new JSONPullParser(new StringReader("{\"a\": [1, -2.5e3, true, false, null, \"x\"], \"b\": {}}"));
+        Token[] expected = {Token.START_OBJECT, Token.FIELD_NAME, Token.START_ARRAY, Token.NUMBER, Token.NUMBER,
+            Token.TRUE, Token.FALSE, Token.NULL, Token.STRING, Token.END_ARRAY, Token.FIELD_NAME, Token.START_OBJECT,
+            Token.END_OBJECT, Token.END_OBJECT, Token.END};
+        String[] text = {null, "a", null, "1", "-2.5e3", "true", "false", "null", "x", null, "b", null, null, null, null};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], parser.next());
+            if (text[i] != null) {
+                assertEquals(text[i], parser.getText());
+            }
+        }
+    }
+
+    @Test
+    public void testSeekAndReadObject() throws Exception {
+        JSONPullParser parser = new JSONPullParser(new StringReader(RESULTS));
+        assertEquals(Token.START_OBJECT, parser.next());
+        assertTrue(parser.seek("results"));
+        assertTrue(parser.seek("bindings"));
+        assertEquals(Token.START_ARRAY, parser.getToken());
+
+        assertEquals(Token.START_OBJECT, parser.next());
+        assertTrue(parser.seek("prefLabel"));
+        Map<String, String> value = parser.readObject();
+        assertEquals("London", value.get("value"));
+        assertEquals("literal", value.get("type"));
+        assertTrue(parser.seek("id"));
+        parser.skipValue();
+        assertEquals(Token.END_OBJECT, parser.next());
+
+        assertEquals(Token.START_OBJECT, parser.next());
+        Map<String, String> binding = parser.readObject();
+        // the nested prefLabel object is skipped
+        assertFalse(binding.containsKey("prefLabel"));
+        assertTrue(binding.containsKey("id"));
+        assertNull(binding.get("id"));
+        assertEquals(Token.END_ARRAY, parser.next());
+        assertFalse(parser.seek("missing"));
+        assertEquals(Token.END_OBJECT, parser.next());
+        assertEquals(Token.END, parser.next());
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        JSONPullParser parser = new JSONPullParser(new StringReader(RESULTS));
+        parser.next();
+        parser.seek("results");
+        parser.seek("bindings");
+        parser.next();
+        parser.skipValue();
+        parser.next();
+        parser.seek("prefLabel");
+        assertEquals("Caf\u00e9 \"Royal\"\n", parser.readObject().get("value"));
+    }
+
+    @Test
+    public void testStopsEarly() throws Exception {
+        // a truncated response is fine as long as the caller stops in time
+        String truncated = RESULTS.substring(0, RESULTS.indexOf("Caf"));
+        JSONPullParser parser = new JSONPullParser(new StringReader(truncated));
+        parser.next();
+        parser.seek("results");
+        parser.seek("bindings");
+        assertEquals(Token.START_OBJECT, parser.next());
+        assertTrue(parser.seek("prefLabel"));
+        assertEquals("London", parser.readObject().get("value"));
+    }
+
+    @Test
+    public void testSyntaxErrors() throws Exception {
+        String[] invalid = {"{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "{\"a\": tru}", "[\"abc", "{} {}", "{\"a\": \"\\x\"}"};
+        for (String json : invalid) {
+            JSONPullParser parser = new JSONPullParser(new StringReader(json));
+            try {
+                while (parser.next() != Token.END) {
+                }
+                fail("Parsed " + json);
+            } catch (JSONPullParser.SyntaxException ex) {
+                assertTrue(ex.getPosition() >= 0);
+            }
+        }
+    }
+}
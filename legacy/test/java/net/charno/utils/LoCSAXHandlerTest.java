@@ -1,5 +1,10 @@
 package net.charno.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import net.charno.semweb.bindings.URILabelBinding;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -10,6 +15,21 @@ import static org.junit.Assert.*;
  */
 public class LoCSAXHandlerTest {
 
+    private static final String XML = "<?xml version=\"1.0\"?>\n"
+            + "<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n"
+            + "  <head><variable name=\"uri\"/><variable name=\"label\"/></head>\n"
+            + "  <results>\n"
+            + "    <result>\n"
+            + "      <binding name=\"uri\"><uri>http://id.loc.gov/authorities/subjects/sh85006507</uri></binding>\n"
+            + "      <binding name=\"label\"><literal xml:lang=\"en\">Archaeology &amp; history</literal></binding>\n"
+            + "    </result>\n"
+            + "    <result>\n"
+            + "      <binding name=\"uri\"><uri>http://id.loc.gov/authorities/subjects/sh1</uri></binding>\n"
+            + "      <binding name=\"label\"><literal xml:lang=\"en\">Art</literal></binding>\n"
+            + "    </result>\n"
+            + "  </results>\n"
+            + "</sparql>";
+
     private LoCSAXHandler locHandler;
 
     @Before
@@ -25,11 +45,61 @@ public class LoCSAXHandlerTest {
 
     @Test
     public void testEndElement() throws Exception {
-
+        locHandler.startDocument();
+        locHandler.startElement(null, null, "result", null);
+        locHandler.startElement(null, null, "uri", null);
+        locHandler.characters("http://example.org/1".toCharArray(), 0, 20);
+        locHandler.endElement(null, null, "uri");
+        // not collected until the result ends
+        assertTrue(locHandler.getResultList().isEmpty());
+        locHandler.endElement(null, null, "result");
+        assertEquals(1, locHandler.getResultList().size());
+        assertEquals("http://example.org/1", locHandler.getResultList().get(0).getUri());
+        assertNull(locHandler.getResultList().get(0).getLabel());
     }
 
     @Test
     public void testCharacters() throws Exception {
+        // text split across calls, including chunks shorter than the old 10 character cut off
+        locHandler.startDocument();
+        locHandler.startElement(null, null, "result", null);
+        locHandler.characters("   ".toCharArray(), 0, 3);
+        locHandler.startElement(null, null, "uri", null);
+        char[] uri = "http://id.loc.gov/authorities/subjects/sh1".toCharArray();
+        locHandler.characters(uri, 0, 5);
+        locHandler.characters(uri, 5, 20);
+        locHandler.characters(uri, 25, uri.length - 25);
+        locHandler.endElement(null, null, "uri");
+        locHandler.startElement(null, null, "literal", null);
+        locHandler.characters("Art".toCharArray(), 0, 2);
+        locHandler.characters("Art".toCharArray(), 2, 1);
+        locHandler.endElement(null, null, "literal");
+        locHandler.endElement(null, null, "result");
+        URILabelBinding binding = locHandler.getResultList().get(0);
+        assertEquals("http://id.loc.gov/authorities/subjects/sh1", binding.getUri());
+        assertEquals("Art", binding.getLabel());
+    }
 
+    @Test
+    public void testParse() throws Exception {
+        List<URILabelBinding> results = new ArrayList<URILabelBinding>();
+        // twice, to use the same parser again
+        for (int i = 0; i < 2; i++) {
+            results.clear();
+            LoCSAXHandler.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")), results::add);
+            assertEquals(2, results.size());
+            assertEquals("http://id.loc.gov/authorities/subjects/sh85006507", results.get(0).getUri());
+            assertEquals("Archaeology & history", results.get(0).getLabel());
+            assertEquals("Art", results.get(1).getLabel());
+        }
+        try {
+            LoCSAXHandler.parse(new ByteArrayInputStream("<sparql><results>".getBytes("UTF-8")), results::add);
+            fail();
+        } catch (IOException ex) {
+            // expected, and the parser is still usable after it
+        }
+        results.clear();
+        LoCSAXHandler.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")), results::add);
+        assertEquals(2, results.size());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package net.charno.utils;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class NTriplesReaderTest {
+
+    private final List<String> objects = new ArrayList<String>();
+    private final NTriplesReader.TripleHandler handler = (subject, predicate, object, literal, language) -> objects.add(object);
+
+    @Test
+    public void testEscapes() throws Exception {
+        assertTrue(NTriplesReader.parseLine("<a> <b> \"x\\by\" .", handler));
+        assertTrue(NTriplesReader.parseLine("<a> <b> \"x\\fy\" .", handler));
+        assertTrue(NTriplesReader.parseLine("<a> <b> \"x\\t\\\"y\\\\\\u00E9\\U0001F600\" .", handler));
+        assertEquals("x\by", objects.get(0));
+        assertEquals("x\fy", objects.get(1));
+        assertEquals("x\t\"y\\\u00E9\uD83D\uDE00", objects.get(2));
+    }
+
+    @Test
+    public void testSkipsBadEscapes() throws Exception {
+        assertFalse(NTriplesReader.parseLine("<a> <b> \"\\uZZZZ\" .", handler));
+        assertFalse(NTriplesReader.parseLine("<a> <b> \"\\U00110000\" .", handler));
+        assertFalse(NTriplesReader.parseLine("<a> <b> \"\\u00\" .", handler));
+        assertTrue(objects.isEmpty());
+        // the rest of the file is still read
+        String file = "<a> <b> \"one\" .\n<a> <b> \"\\uZZZZ\" .\n<a> <b> \"two\" .\n";
+        assertEquals(2, NTriplesReader.read(new ByteArrayInputStream(file.getBytes("UTF-8")), handler));
+        assertEquals("one", objects.get(0));
+        assertEquals("two", objects.get(1));
+    }
+}
@@ -0,0 +1,129 @@
+package net.charno.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mcharno <michael@charno.net>
+ */
+public class SparqlResultsReaderTest {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static List<Map<String, String>> read(String results, String type) throws Exception {
+        final List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+        SparqlResultsReader.read(stream(results), type, UTF8, row -> rows.add(row));
+        return rows;
+    }
+
+    static InputStream stream(String results) {
+        return new ByteArrayInputStream(results.getBytes(UTF8));
+    }
+
+    @Test
+    public void testTSV() throws Exception {
+        List<Map<String, String>> rows = read("?uri\t?label\t?count\r\n"
+                + "<http://example.org/1>\t\"Caf\u00e9 \\\"Royal\\\"\\tbar\"@en\t3\r\n"
+                + "<http://example.org/2>\t\t\"4\"^^<http://www.w3.org/2001/XMLSchema#integer>\r\n"
+                + "_:b0\t\"plain\"\t\n", SparqlResultsReader.TSV);
+        assertEquals(3, rows.size());
+        assertEquals("http://example.org/1", rows.get(0).get("uri"));
+        assertEquals("Caf\u00e9 \"Royal\"\tbar", rows.get(0).get("label"));
+        assertEquals("3", rows.get(0).get("count"));
+        assertEquals("http://example.org/2", rows.get(1).get("uri"));
+        assertFalse(rows.get(1).containsKey("label"));
+        assertEquals("4", rows.get(1).get("count"));
+        assertEquals("_:b0", rows.get(2).get("uri"));
+        assertEquals("plain", rows.get(2).get("label"));
+        assertFalse(rows.get(2).containsKey("count"));
+    }
+
+    @Test
+    public void testCSV() throws Exception {
+        List<Map<String, String>> rows = read("uri,label\r\n"
+                + "http://example.org/1,\"Smith, John \"\"Jack\"\"\"\r\n"
+                + "http://example.org/2,\"two\r\nlines\"\r\n"
+                + "http://example.org/3,\r\n", SparqlResultsReader.CSV);
+        assertEquals(3, rows.size());
+        assertEquals("Smith, John \"Jack\"", rows.get(0).get("label"));
+        assertEquals("two\r\nlines", rows.get(1).get("label"));
+        assertEquals("http://example.org/3", rows.get(2).get("uri"));
+        assertFalse(rows.get(2).containsKey("label"));
+    }
+
+    @Test
+    public void testLargeTSV() throws Exception {
+        // enough rows to cross buffer boundaries, and a field bigger than the buffer
+        StringBuilder sb = new StringBuilder("?uri\t?label\n");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("<http://example.org/").append(i).append(">\t\"label ").append(i).append("\"@en\n");
+        }
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            big.append('x');
+        }
+        sb.append("<http://example.org/big>\t\"").append(big).append("\"\n");
+        List<Map<String, String>> rows = read(sb.toString(), SparqlResultsReader.TSV);
+        assertEquals(20001, rows.size());
+        for (int i = 0; i < 20000; i++) {
+            assertEquals("http://example.org/" + i, rows.get(i).get("uri"));
+            assertEquals("label " + i, rows.get(i).get("label"));
+        }
+        assertEquals(big.toString(), rows.get(20000).get("label"));
+    }
+
+    @Test
+    public void testXMLAndJSON() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><sparql xmlns=\"http://www.w3.org/2005/sparql-results#\"><head><variable name=\"uri\"/><variable name=\"label\"/></head>"
+                + "<results><result><binding name=\"uri\"><uri>http://example.org/1</uri></binding><binding name=\"label\"><literal xml:lang=\"en\">One &amp; only</literal></binding></result>"
+                + "<result><binding name=\"uri\"><uri>http://example.org/2</uri></binding></result></results></sparql>";
+        List<Map<String, String>> rows = read(xml, SparqlResultsReader.XML);
+        assertEquals(2, rows.size());
+        assertEquals("One & only", rows.get(0).get("label"));
+        assertEquals("http://example.org/2", rows.get(1).get("uri"));
+        assertFalse(rows.get(1).containsKey("label"));
+
+        String json = "{\"head\": {\"vars\": [\"uri\"]}, \"results\": {\"bindings\": [{\"uri\": {\"type\": \"uri\", \"value\": \"http://example.org/1\"}}]}}";
+        assertEquals("http://example.org/1", read(json, SparqlResultsReader.JSON).get(0).get("uri"));
+        // types that don't say, going by the content
+        assertEquals("http://example.org/1", read(json, "text/plain").get(0).get("uri"));
+        assertEquals("One & only", read(xml, null).get(0).get("label"));
+        assertTrue(read("", null).isEmpty());
+        try {
+            read("<html>", "text/html");
+            fail();
+        } catch (Exception ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStopsEarly() throws Exception {
+        String[] types = {SparqlResultsReader.TSV, SparqlResultsReader.XML};
+        String[] results = {"?uri\n<http://example.org/1>\n<http://example.org/2>\n",
+            "<sparql><results><result><binding name=\"uri\"><uri>http://example.org/1</uri></binding></result>"
+            + "<result><binding name=\"uri\"><uri>http://example.org/2</uri></binding></result></results></sparql>"};
+        for (int i = 0; i < types.length; i++) {
+            final List<String> uris = new ArrayList<String>();
+            SparqlResultsReader.read(stream(results[i]), types[i], UTF8, row -> {
+                uris.add(row.get("uri"));
+                return false;
+            });
+            assertEquals(1, uris.size());
+            assertEquals("http://example.org/1", uris.get(0));
+        }
+    }
+
+    @Test
+    public void testUnescape() throws Exception {
+        assertEquals("a\nb\\c\u00e9\ud83d\ude00", SparqlResultsReader.unescape("a\\nb\\\\c\\u00e9\\U0001F600"));
+        assertEquals("trailing\\", SparqlResultsReader.unescape("trailing\\"));
+    }
+}